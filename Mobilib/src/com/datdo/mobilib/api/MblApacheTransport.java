@@ -0,0 +1,184 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.api.MblApi.Method;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * {@link MblTransport} based on Apache HttpClient, with pooled connections configured by {@link MblApiOptions}.
+ * This is default transport.
+ * Connection phases are not exposed by HttpClient: DNS, connect and TLS times of {@link MblRequestMetrics} are always -1, use {@link MblUrlConnectionTransport} to measure them.
+ * </pre>
+ */
+@SuppressWarnings("deprecation")
+public class MblApacheTransport implements MblTransport {
+
+    @Override
+    public MblTransportResponse execute(MblTransportRequest request) throws IOException {
+
+        final HttpRequestBase httpRequest = createHttpRequest(request);
+        request.setAbortAction(new Runnable() {
+            @Override
+            public void run() {
+                httpRequest.abort();
+            }
+        });
+
+        // DNS, connect and TLS times are not exposed by HttpClient
+
+        final HttpClient httpClient = MblHttpClientManager.acquire(request.getUrl(), !request.isVerifySSL());
+        HttpResponse response;
+        try {
+            response = httpClient.execute(httpRequest, MblHttpClientManager.newHttpContext());
+        } catch (IOException e) {
+            httpRequest.abort();
+            MblHttpClientManager.release(httpClient);
+            throw e;
+        } catch (RuntimeException e) {
+            httpRequest.abort();
+            MblHttpClientManager.release(httpClient);
+            throw e;
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Header h : response.getAllHeaders()) {
+            headers.put(h.getName(), h.getValue());
+        }
+
+        final HttpEntity entity = response.getEntity();
+        InputStream body = null;
+        if (entity != null) {
+            try {
+                body = new FilterInputStream(entity.getContent()) {
+
+                    private boolean mClosed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (mClosed) {
+                            return;
+                        }
+                        mClosed = true;
+                        try {
+                            // fully consume response so that connection is released back to connection pool
+                            entity.consumeContent();
+                        } finally {
+                            MblHttpClientManager.release(httpClient);
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                httpRequest.abort();
+                MblHttpClientManager.release(httpClient);
+                throw e;
+            }
+        } else {
+            MblHttpClientManager.release(httpClient);
+        }
+
+        return new MblTransportResponse(
+                response.getStatusLine().getStatusCode(),
+                response.getStatusLine().getReasonPhrase(),
+                headers,
+                body);
+    }
+
+    private static HttpRequestBase createHttpRequest(MblTransportRequest request) {
+        HttpRequestBase httpRequest;
+        if (Method.GET.name().equals(request.getMethod())) {
+            httpRequest = new HttpGet(request.getUrl());
+        } else {
+            HttpEntityEnclosingRequestBase r = Method.valueOf(request.getMethod()).getHttpRequest(request.getUrl());
+            if (request.getBody() != null) {
+                r.setEntity(toHttpEntity(request.getBody()));
+            }
+            httpRequest = r;
+        }
+
+        Map<String, String> headers = request.getHeaders();
+        for (String name : headers.keySet()) {
+            httpRequest.addHeader(name, headers.get(name));
+        }
+
+        HttpParams params = httpRequest.getParams();
+        if (!request.isRedirectEnabled()) {
+            params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
+        }
+        int connectTimeout = (int) request.getConnectTimeout();
+        int readTimeout = (int) request.getReadTimeout();
+        if (connectTimeout > 0) {
+            HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+            // also limit time waiting for a free connection in pool
+            ConnManagerParams.setTimeout(params, connectTimeout);
+        }
+        if (readTimeout > 0) {
+            HttpConnectionParams.setSoTimeout(params, readTimeout);
+        }
+
+        return httpRequest;
+    }
+
+    static HttpEntity toHttpEntity(final MblTransportBody body) {
+        if (body instanceof MblTransportBody.HttpEntityBody) {
+            return ((MblTransportBody.HttpEntityBody) body).getEntity();
+        }
+        AbstractHttpEntity entity = new AbstractHttpEntity() {
+            @Override
+            public boolean isRepeatable() {
+                return body.isRepeatable();
+            }
+
+            @Override
+            public long getContentLength() {
+                return body.getContentLength();
+            }
+
+            // repeatable body can be written again into memory, e.g. when HttpClient wraps entity or logs it
+            @Override
+            public InputStream getContent() throws IOException {
+                if (!body.isRepeatable()) {
+                    throw new UnsupportedOperationException("Streamed request body can only be written once");
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(Math.min(body.getContentLength(), Integer.MAX_VALUE), 32));
+                body.writeTo(out);
+                return new ByteArrayInputStream(out.toByteArray());
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                body.writeTo(out);
+                out.flush();
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return !body.isRepeatable();
+            }
+        };
+        entity.setContentType(body.getContentType());
+        entity.setContentEncoding(body.getContentEncoding());
+        entity.setChunked(body.getContentLength() < 0);
+        return entity;
+    }
+}
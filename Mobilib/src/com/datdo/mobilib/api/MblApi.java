@@ -4,54 +4,51 @@ import android.net.Uri;
 import android.os.Handler;
 import android.util.Log;
 
+import com.datdo.mobilib.api.MblApiExecutor.Lane;
 import com.datdo.mobilib.api.MblRequest.MblStatusCodeValidator;
+import com.datdo.mobilib.api.MblRequestMetrics.CacheTier;
 import com.datdo.mobilib.cache.MblDatabaseCache;
 import com.datdo.mobilib.util.MblUtils;
 
 import junit.framework.Assert;
 
-import org.apache.http.Header;
-import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpRequest;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
-import org.apache.http.ParseException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.params.ClientPNames;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.HttpContext;
-import org.apache.http.util.EntityUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <pre>
  * Util class for communicating with server via HTTP/HTTPS
  *
+ * Responses of GET requests are cached in "mblapi" sub-folder of app's cache folder. Cache is bounded to 20MB by default:
+ * least recently used responses are evicted when it is exceeded. Use {@link MblApiOptions#setMaxCacheSize(long)} to change the limit, 0 for unbounded cache.
+ * Cache files written directly in app's cache folder by versions before this layout are deleted when database is upgraded.
+ *
  * Sample code:
  * {@code
  * MblApi.run(new MblRequest()
@@ -87,6 +84,12 @@ public class MblApi {
     private static final String UTF8 = "UTF-8";
     private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
 
+    private static final String HEADER_ETAG                 = "ETag";
+    private static final String HEADER_LAST_MODIFIED        = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH        = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE    = "If-Modified-Since";
+    private static final String HEADER_CONTENT_TYPE         = "Content-Type";
+
     /**
      * <pre>
      * Common callback for all methods.
@@ -107,62 +110,412 @@ public class MblApi {
         public abstract void onFailure(MblResponse response);
     }
 
+    /**
+     * <pre>
+     * Handler to consume response body as a stream instead of a byte array, which is suitable for big responses.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setResponseStreamHandler(MblResponseStreamHandler)
+     */
+    public static interface MblResponseStreamHandler {
+        /**
+         * <pre>
+         * Invoked in background thread when request succeeds, before {@link MblApiCallback#onSuccess(MblResponse)}.
+         * Response body does not need to be fully read. Stream is closed automatically after this method returns.
+         * </pre>
+         * @param response response without data (status code, headers, ...)
+         * @param in stream of response body (or of cache file for cached GET requests)
+         */
+        public void onStream(MblResponse response, InputStream in) throws IOException;
+    }
+
+    /**
+     * <pre>
+     * Parser to convert response body to an object in background thread, so that callback does not need to decode it in main thread.
+     * Response body is passed as a stream, so that big responses can be decoded incrementally (see {@link MblJsonArrayParser}).
+     * Parsers are considered identical only if they are the same instance: identical requests are coalesced and parsed results are cached in memory per parser instance.
+     * Parsed results are shared by all coalesced requests and in-memory cache hits, therefore they must not be modified (prefer immutable results, or copy them before modification).
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setParser(MblResponseParser)
+     * @see com.datdo.mobilib.api.MblParsers
+     */
+    public static interface MblResponseParser<T> {
+        /**
+         * <pre>
+         * Invoked in background thread when request succeeds. Result is delivered via {@link MblResponse#getParsedData()}.
+         * Stream is closed automatically after this method returns.
+         * </pre>
+         * @param response response without data (status code, headers, ...)
+         * @param in stream of response body (or of cache file for cached GET requests)
+         */
+        public T parse(MblResponse response, InputStream in) throws Exception;
+    }
+
+    /**
+     * <pre>
+     * Writer to generate request body on the fly, directly to connection 's output stream.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setData(MblRequestBodyWriter)
+     */
+    public static interface MblRequestBodyWriter {
+        /**
+         * <pre>
+         * Invoked in background thread to write request body.
+         * </pre>
+         */
+        public void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * <pre>
+     * Listener to track upload progress of request body.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setUploadProgressListener(MblUploadProgressListener, long)
+     */
+    public static interface MblUploadProgressListener {
+        /**
+         * <pre>
+         * Invoked in callback handler of request.
+         * </pre>
+         * @param bytesWritten number of bytes sent to server
+         * @param totalBytes total number of bytes, -1 if unknown (chunked body)
+         */
+        public void onProgress(long bytesWritten, long totalBytes);
+    }
+
+    /**
+     * <pre>
+     * Listener to track progress of a download to file.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setDownloadFile(File)
+     * @see com.datdo.mobilib.api.MblRequest#setDownloadProgressListener(MblDownloadProgressListener, long)
+     */
+    public static interface MblDownloadProgressListener {
+        /**
+         * <pre>
+         * Invoked in callback handler of request.
+         * </pre>
+         * @param bytesDownloaded number of bytes in file, including bytes downloaded by previous attempts
+         * @param totalBytes total number of bytes, -1 if unknown
+         */
+        public void onProgress(long bytesDownloaded, long totalBytes);
+    }
+
+    /**
+     * <pre>
+     * Callback of a batch of requests.
+     * </pre>
+     * @see #runAll(List, int, MblBatchCallback)
+     */
+    public static interface MblBatchCallback {
+        /**
+         * <pre>
+         * Invoked when a request of batch is done.
+         * </pre>
+         * @param index index of request in batch
+         */
+        public void onRequestDone(int index, MblResponse response, boolean success);
+        /**
+         * <pre>
+         * Invoked once when all requests of batch are done.
+         * </pre>
+         * @param responses responses in the same order as requests
+         * @param successCount number of successful requests
+         */
+        public void onComplete(List<MblResponse> responses, int successCount);
+    }
+
+    /**
+     * <pre>
+     * Generator of custom cache key for GET requests.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setCacheKeyGenerator(MblCacheKeyGenerator)
+     */
+    public static interface MblCacheKeyGenerator {
+        /**
+         * <pre>
+         * Invoked in thread which sends request. Requests which have the same key share the same cache.
+         * </pre>
+         * @return cache key, or NULL/empty to use default canonical key
+         */
+        public String generateCacheKey(MblRequest request);
+    }
+
+    private static MblApiOptions sOptions = new MblApiOptions();
+
+    /**
+     * <pre>
+     * Prepare MblApi: start listening to background/foreground events of app, and load cache index in background so that first requests do not wait for it.
+     * Called by {@link com.datdo.mobilib.base.MblBaseApplication#onCreate()}, other apps should call it in {@link android.app.Application#onCreate()}.
+     * </pre>
+     */
+    public static void init() {
+        MblHostScheduler.init();
+        MblCacheIndex.loadAsync();
+    }
+
+    /**
+     * <pre>
+     * Set global configurations. Should be called before sending any request.
+     * </pre>
+     */
+    public static void setOptions(MblApiOptions options) {
+        if (options == null) {
+            throw new RuntimeException("options must not be NULL");
+        }
+        sOptions = options;
+        MblHttpClientManager.setOptions(options);
+        MblApiExecutor.setOptions(options);
+    }
+
+    /**
+     * <pre>
+     * Get current global configurations.
+     * </pre>
+     */
+    public static MblApiOptions getOptions() {
+        return sOptions;
+    }
+
     /**
      * <pre>
      * General method to run an arbitrary request.
      * </pre>
+     * @return handle to cancel request
+     */
+    public static MblRequestHandle run(final MblRequest request) {
+        return run(request, request != null ? request.getCallback() : null);
+    }
+
+    /**
+     * <pre>
+     * Run a list of requests with at most "maxConcurrency" requests in progress at a time.
+     * Callback of each request is still invoked. Batch callback is invoked in main thread.
+     *
+     * Sample code:
+     * {@code
+     * MblApi.runAll(Arrays.asList(request1, request2, request3), 2, new MblBatchCallback() {
+     *      public void onRequestDone(int index, MblResponse response, boolean success) {}
+     *      public void onComplete(List<MblResponse> responses, int successCount) {}
+     * });
+     * }
+     * </pre>
+     */
+    public static void runAll(List<MblRequest> requests, int maxConcurrency, MblBatchCallback callback) {
+        runAll(requests, maxConcurrency, callback, MblUtils.getMainThreadHandler());
+    }
+
+    /**
+     * <pre>
+     * Same as {@link #runAll(List, int, MblBatchCallback)}, batch callback is invoked in specified handler.
+     * </pre>
+     */
+    public static void runAll(List<MblRequest> requests, int maxConcurrency, MblBatchCallback callback, Handler callbackHandler) {
+        if (requests == null) {
+            throw new RuntimeException("requests must not be NULL");
+        }
+        if (maxConcurrency <= 0) {
+            throw new RuntimeException("maxConcurrency must be positive");
+        }
+        for (MblRequest r : requests) {
+            if (r == null || r.getUrl() == null || r.getMethod() == null) {
+                throw new RuntimeException("request, request.url and request.method must not be NULL");
+            }
+        }
+        new MblBatchRunner(
+                requests,
+                maxConcurrency,
+                callback,
+                callbackHandler != null ? callbackHandler : MblUtils.getMainThreadHandler()).start();
+    }
+
+    /**
+     * <pre>
+     * Warm up cache of GET requests which are likely to be sent soon (e.g. content of next screen).
+     * Requests are sent with {@link Priority#PREFETCH}, response is written to cache file directly without being loaded into memory.
+     * Requests whose cache is still fresh are skipped. Nothing is sent if network or battery condition is not satisfied
+     * (see {@link MblApiOptions#setPrefetchWifiOnly(boolean)}, {@link MblApiOptions#setPrefetchMinBatteryLevel(int)}).
+     *
+     * Requests are copied before prefetching, copies have no callback, stream handler, parser or cache file, and priority {@link Priority#PREFETCH}.
+     * Requests and list passed to this method are not modified and can be reused by caller.
+     * </pre>
+     * @throws RuntimeException if a request is not a GET request with cache enabled
+     */
+    public static void prefetch(List<MblRequest> requests) {
+        if (requests == null) {
+            throw new RuntimeException("requests must not be NULL");
+        }
+        final List<MblRequest> copies = new ArrayList<MblRequest>();
+        for (MblRequest r : requests) {
+            if (r == null || r.getUrl() == null || r.getMethod() != Method.GET) {
+                throw new RuntimeException("Only GET requests can be prefetched");
+            }
+            if (!MblCacheControl.isCacheEnabled(r.getCachePolicy(), r.getCacheDuration())) {
+                throw new RuntimeException("Cache must be enabled for prefetched requests: " + r);
+            }
+            copies.add(r.copy()
+                    .setCallback(null)
+                    .setResponseStreamHandler(null)
+                    .setParser(null)
+                    .setReturnCacheFile(false)
+                    .setNotReturnByteArrayData(true)
+                    .setPriority(Priority.PREFETCH));
+        }
+
+        // read cache index and device status in cache lane
+        try {
+            MblApiExecutor.execute(Lane.CACHE, new Runnable() {
+                @Override
+                public void run() {
+                    if (!canPrefetch()) {
+                        return;
+                    }
+                    for (MblRequest r : copies) {
+                        String cacheKey = MblCacheKey.generate(r, getParamsIgnoreEmptyValues(r.getParams()));
+                        MblDatabaseCache existingCache = MblDiskCache.lookup(cacheKey);
+                        if (existingCache != null && MblCacheControl.isFresh(r.getCachePolicy(), r.getCacheDuration(), existingCache)) {
+                            continue;
+                        }
+                        MblApi.run(r);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Prefetch is skipped because cache lane is full", e);
+        }
+    }
+
+    private static boolean canPrefetch() {
+        if (!MblUtils.isNetworkConnected()) {
+            return false;
+        }
+        if (sOptions.isPrefetchWifiOnly() && !MblUtils.isWifiConnected()) {
+            Log.d(TAG, "Skip prefetching: Wi-Fi is not connected");
+            return false;
+        }
+        int minBatteryLevel = sOptions.getPrefetchMinBatteryLevel();
+        if (minBatteryLevel > 0 && !MblUtils.isBatteryCharging()) {
+            int batteryLevel = MblUtils.getBatteryLevel();
+            if (batteryLevel >= 0 && batteryLevel < minBatteryLevel) {
+                Log.d(TAG, "Skip prefetching: battery level is " + batteryLevel + "%");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <pre>
+     * Run a request, delivering its result to a callback other than request 's own callback.
+     * </pre>
      */
-    public static void run(final MblRequest request) {
+    static MblRequestHandle run(final MblRequest request, final MblApiCallback userCallback) {
         if (request == null) {
             throw new RuntimeException("request must not be NULL");
         }
         if (request.getUrl() == null || request.getMethod() == null) {
             throw new RuntimeException("request.url and request.method must not be NULL");
         }
+        if (request.getDownloadFile() != null && request.getMethod() != Method.GET) {
+            throw new RuntimeException("Only GET requests can be downloaded to file");
+        }
+        if (request.getParser() != null && (request.getResponseStreamHandler() != null || request.getDownloadFile() != null)) {
+            throw new RuntimeException("Parser can not be used together with stream handler or download file");
+        }
+        if (request.isReturnCacheFile()) {
+            if (request.getMethod() != Method.GET) {
+                throw new RuntimeException("Only GET requests can return cache file");
+            }
+            if (request.getResponseStreamHandler() != null || request.getParser() != null || request.getDownloadFile() != null) {
+                throw new RuntimeException("Cache file can not be returned together with stream handler, parser or download file");
+            }
+        }
 
-        final MblApiCallback callback;
-        if (request.getCallback() != null && request.getTimeout() > 0) {
-            final long requestedAt = System.currentTimeMillis();
-            final Runnable timeout = new Runnable() {
+        final MblRequestHandle handle = new MblRequestHandle();
+
+        if (request.getTimeout() > 0) {
+            handle.scheduleDeadline(request.getTimeout(), new Runnable() {
                 @Override
                 public void run() {
-                    MblResponse response = new MblResponse();
-                    response.setRequest(request);
-                    response.setStatusCode(-1);
-                    response.setStatusCodeReason("Time out");
-                    request.getCallback().onFailure(response);
+                    if (userCallback == null) {
+                        return;
+                    }
+                    Handler callbackHandler = request.getCallbackHandler() != null ? request.getCallbackHandler() : MblUtils.getMainThreadHandler();
+                    MblUtils.executeOnHandlerThread(callbackHandler, new Runnable() {
+                        @Override
+                        public void run() {
+                            userCallback.onFailure(new MblResponse()
+                                    .setRequest(request)
+                                    .setStatusCode(-1)
+                                    .setStatusCodeReason("Time out"));
+                        }
+                    });
                 }
-            };
-            MblUtils.getMainThreadHandler().postDelayed(timeout, request.getTimeout());
-            callback = new MblApiCallback() {
+            });
+        }
 
-                boolean isExpired() {
-                    return System.currentTimeMillis() - requestedAt > request.getTimeout();
-                }
+        dispatch(request, userCallback, handle, 1);
+
+        return handle;
+    }
+
+    /**
+     * <pre>
+     * Send an attempt of a request. Failed attempt is retried according to request 's retry policy.
+     * </pre>
+     */
+    private static void dispatch(final MblRequest request, final MblApiCallback userCallback, final MblRequestHandle handle, final int attempt) {
 
+        // callback is not invoked after request is cancelled or timed out
+        // without user callback, result is still watched to retry request or to disarm its deadline
+        final MblApiCallback callback;
+        if (userCallback != null || request.getRetryPolicy() != null || request.getTimeout() > 0) {
+            callback = new MblApiCallback() {
                 @Override
                 public void onSuccess(MblResponse response) {
-                    MblUtils.getMainThreadHandler().removeCallbacks(timeout);
-                    if (isExpired()) {
-                        return;
+                    if (handle.onDeliver() && userCallback != null) {
+                        userCallback.onSuccess(response);
+                    } else if (response.getCacheFile() != null) {
+                        // nobody receives cache file, unpin it
+                        response.getCacheFile().close();
                     }
-                    request.getCallback().onSuccess(response);
                 }
 
                 @Override
                 public void onFailure(MblResponse response) {
-                    MblUtils.getMainThreadHandler().removeCallbacks(timeout);
-                    if (isExpired()) {
+                    MblRetryPolicy retryPolicy = request.getRetryPolicy();
+                    if (!handle.isDone() && retryPolicy != null && retryPolicy.shouldRetry(request, response, attempt)) {
+                        long delay = retryPolicy.getDelay(response, attempt);
+                        Log.d(TAG, "Retry request in " + delay + "ms, attempt " + (attempt + 1) + ": " + request);
+                        // wait without holding any thread, then send next attempt from main thread
+                        handle.scheduleRetry(delay, new Runnable() {
+                            @Override
+                            public void run() {
+                                MblUtils.executeOnMainThread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (!handle.isDone()) {
+                                            dispatch(request, userCallback, handle, attempt + 1);
+                                        }
+                                    }
+                                });
+                            }
+                        });
                         return;
                     }
-                    request.getCallback().onFailure(response);
+                    if (handle.onDeliver() && userCallback != null) {
+                        userCallback.onFailure(response);
+                    }
                 }
             };
         } else {
-            callback = request.getCallback();
+            callback = null;
         }
 
-        if (request.getMethod() == Method.GET) {
+        final MblRequestMetrics metrics = new MblRequestMetrics(attempt - 1);
+
+        if (request.getDownloadFile() != null) {
+            download(request, callback, handle, metrics);
+        } else if (request.getMethod() == Method.GET) {
             get(    request.getUrl(),
                     request.getParams(),
                     request.getHeaderParams(),
@@ -173,7 +526,9 @@ public class MblApi {
                     request.getStatusCodeValidator(),
                     request.isRedirectEnabled(),
                     request.isNotReturnByteArrayData(),
-                    request);
+                    request,
+                    handle,
+                    metrics);
         } else {
             sendRequestWithBody(
                     request.getMethod(),
@@ -186,7 +541,9 @@ public class MblApi {
                     request.getStatusCodeValidator(),
                     request.getData(),
                     request.isRedirectEnabled(),
-                    request);
+                    request,
+                    handle,
+                    metrics);
         }
     }
 
@@ -202,9 +559,12 @@ public class MblApi {
             final MblStatusCodeValidator statusCodeValidator,
             final boolean redirectEnabled,
             final boolean notReturnByteArrayData,
-            final MblRequest request) {
+            final MblRequest request,
+            final MblRequestHandle handle,
+            final MblRequestMetrics metrics) {
 
-        final boolean isCacheEnabled = cacheDuration > 0;
+        final CachePolicy cachePolicy = request.getCachePolicy();
+        final boolean isCacheEnabled = MblCacheControl.isCacheEnabled(cachePolicy, cacheDuration);
 
         Map<String, ? extends Object> paramsNoEmptyVal = getParamsIgnoreEmptyValues(params);
 
@@ -218,19 +578,7 @@ public class MblApi {
         if (!MblUtils.isEmpty(paramsNoEmptyVal)) {
             for (String key : paramsNoEmptyVal.keySet()) {
                 Object val = paramsNoEmptyVal.get(key);
-                if (val instanceof String) {
-                    continue;
-                }
-                if (val instanceof Long) {
-                    continue;
-                }
-                if (val instanceof Integer) {
-                    continue;
-                }
-                if (val instanceof Double) {
-                    continue;
-                }
-                if (val instanceof Float) {
+                if (isSimpleParam(val)) {
                     continue;
                 }
 
@@ -252,127 +600,329 @@ public class MblApi {
         }
 
         final String fullUrl = generateGetMethodFullUrl(url, paramsNoEmptyVal);
+        final String cacheKey = MblCacheKey.generate(request, paramsNoEmptyVal);
+
+        final MblResponseStreamHandler streamHandler = request.getResponseStreamHandler();
+        final MblResponseParser<?> parser = request.getParser();
+        final boolean returnCacheFile = request.isReturnCacheFile() && isCacheEnabled;
+
+        // identical GET requests which are sent at the same time are coalesced into one HTTP request
+        // requests are identical only if they share the same parser, cache and transport configurations
+        // streamed responses can be consumed only once, therefore they are not coalesced
+        final String coalescingKey;
+        if (streamHandler == null) {
+            coalescingKey = MblRequestCoalescer.generateKey(
+                    Method.GET.name(),
+                    fullUrl,
+                    headerParams,
+                    isIgnoreSSLCertificate,
+                    redirectEnabled,
+                    notReturnByteArrayData,
+                    MblRequestCoalescer.identityOf(parser),
+                    returnCacheFile,
+                    cachePolicy,
+                    cacheDuration,
+                    MblRequestCoalescer.identityOf(request.getTransport() != null ? request.getTransport() : sOptions.getTransport()),
+                    getConnectTimeout(request),
+                    getReadTimeout(request));
+        } else {
+            coalescingKey = null;
+        }
 
-        MblUtils.executeOnAsyncThread(new Runnable() {
-            @Override
-            public void run() {
+        final MblRequestCoalescer.Waiter waiter = new MblRequestCoalescer.Waiter(callback, fCallbackHandler, request, metrics);
 
-                MblDatabaseCache existingCache = null;
-                if (isCacheEnabled) {
-                    existingCache = MblDatabaseCache.get(fullUrl);
-                    boolean shouldReadFromCache =
-                            existingCache != null &&
-                            MblUtils.isValidFile(MblUtils.getCacheAsbPath(getCacheFileName(existingCache))) &&
-                            (   !MblUtils.isNetworkConnected() ||
-                                    System.currentTimeMillis() - existingCache.getDate() <= cacheDuration    );
-                    if (shouldReadFromCache) {
-                        try {
-                            final byte[] data;
-                            if (!notReturnByteArrayData) {
-                                data = MblUtils.readCacheFile(getCacheFileName(existingCache));
-                            } else {
-                                data = null;
-                            }
-                            if (callback != null) {
-                                MblUtils.executeOnHandlerThread(fCallbackHandler, new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        callback.onSuccess(new MblResponse()
-                                                .setRequest(request)
-                                                .setStatusCode(-1)
-                                                .setData(data));
-                                    }
-                                });
-                            }
+        // waiter of background refresh (stale-while-revalidate), which receives refreshed response only if requested
+        final MblRequestCoalescer.Waiter refreshWaiter = new MblRequestCoalescer.Waiter(
+                request.isDeliverRevalidatedResponse() ? callback : null,
+                fCallbackHandler,
+                request,
+                new MblRequestMetrics(metrics.getRetryCount()));
+        final AtomicBoolean backgroundRefresh = new AtomicBoolean(false);
 
-                            return;
-                        } catch (IOException e) {
-                            Log.e(TAG, "Cache not exist", e);
-                        }
-                    }
+        // coalesced HTTP request is shared, it is aborted only when all of its waiters are cancelled
+        if (coalescingKey != null) {
+            handle.setCancelAction(new Runnable() {
+                @Override
+                public void run() {
+                    MblRequestCoalescer.cancel(coalescingKey, waiter);
+                    MblRequestCoalescer.cancel(coalescingKey, refreshWaiter);
                 }
+            });
+        }
 
-                try {
-
-                    HttpClient httpClient = getHttpClient(fullUrl, isIgnoreSSLCertificate);
-                    HttpContext httpContext = new BasicHttpContext();
-                    HttpGet httpGet = new HttpGet(fullUrl);
-                    if (!redirectEnabled) {
-                        disableRedirect(httpGet);
-                    }
-
-                    httpGet.setHeaders(getHeaderArray(headerParams));
+        final Runnable networkTask = new Runnable() {
+            @Override
+            public void run() {
 
-                    final HttpResponse response = httpClient.execute(httpGet, httpContext);
+                // background refresh of streamed request only updates cache, response is not streamed again
+                final boolean isBackgroundRefresh = backgroundRefresh.get();
+                final MblResponseStreamHandler taskStreamHandler = isBackgroundRefresh ? null : streamHandler;
+                final boolean taskNotReturnByteArrayData = notReturnByteArrayData || (isBackgroundRefresh && streamHandler != null);
+
+                // metrics of HTTP request, shared by all waiters
+                MblRequestMetrics networkMetrics = new MblRequestMetrics(0);
+                networkMetrics.onStart();
+
+                MblTransportRequest httpGet = newTransportRequest(request, Method.GET.name(), fullUrl).setMetrics(networkMetrics);
+                MblTransportResponse response = null;
+                int statusCode;
+                String statusCodeReason;
+                Map<String, String> headers = null;
+                byte[] data = null;
+                Object parsed = null;
+                MblDatabaseCache fileCache = null;
+                boolean notModified = false;
+                boolean sent = false;
+                boolean networkError = false;
+                MblRequestCoalescer.InFlight inFlight = null;
+                try {
 
-                    final int statusCode = response.getStatusLine().getStatusCode();
-                    final String statusCodeReason = response.getStatusLine().getReasonPhrase();
-                    final Map<String, String> headers = new HashMap<String, String>();
-                    for (Header h : response.getAllHeaders()) {
-                        headers.put(h.getName(), h.getValue());
-                    }
-                    final byte[] data;
-                    if (!notReturnByteArrayData) {
-                        data = EntityUtils.toByteArray(response.getEntity());
+                    // bind HTTP request so that it can be aborted by cancellation or deadline
+                    if (coalescingKey != null) {
+                        inFlight = MblRequestCoalescer.attach(coalescingKey, httpGet);
                     } else {
-                        data = null;
-                    }
-
-                    if (!statusCodeValidator.isSuccess(statusCode)) {
-                        if (callback != null) {
-                            MblUtils.executeOnHandlerThread(fCallbackHandler, new Runnable() {
-                                @Override
-                                public void run() {
-                                    callback.onFailure(new MblResponse()
-                                            .setRequest(request)
-                                            .setStatusCode(statusCode)
-                                            .setStatusCodeReason(statusCodeReason)
-                                            .setHeaders(headers)
-                                            .setData(data));
-                                }
-                            });
-                        }
-
-                        return;
+                        handle.attach(httpGet);
                     }
 
+                    // revalidate expired cache with validators instead of downloading it again
+                    MblDatabaseCache existingCache = null;
                     if (isCacheEnabled) {
-                        if (!notReturnByteArrayData) {
-                            saveCache(fullUrl, data);
+                        existingCache = MblDiskCache.lookup(cacheKey);
+                        if (existingCache != null && MblUtils.isValidFile(MblUtils.getCacheAsbPath(getCacheFileName(existingCache)))) {
+                            addConditionalHeaders(httpGet, existingCache);
                         } else {
-                            saveCache(fullUrl, response.getEntity());
+                            existingCache = null;
                         }
                     }
 
-                    if (callback != null) {
-                        MblUtils.executeOnHandlerThread(fCallbackHandler, new Runnable() {
-                            @Override
-                            public void run() {
-                                callback.onSuccess(new MblResponse()
+                    sent = true;
+                    response = execute(request, httpGet);
+                    networkMetrics.setCacheTier(CacheTier.NETWORK);
+
+                    statusCode = response.getStatusCode();
+                    statusCodeReason = response.getStatusCodeReason();
+                    headers = response.getHeaders();
+                    MblCacheControl cacheControl = MblCacheControl.parse(headers);
+                    boolean shouldStoreCache = isCacheEnabled && (cachePolicy == CachePolicy.CLIENT || !cacheControl.isNoStore());
+                    if (statusCode == HttpStatus.SC_NOT_MODIFIED && existingCache != null) {
+                        notModified = true;
+                        networkMetrics.setCacheTier(CacheTier.REVALIDATED);
+                        existingCache.setDate(System.currentTimeMillis());
+                        if (cacheControl.getMaxAge() >= 0) {
+                            cacheControl.applyTo(existingCache);
+                        }
+                        // content is not changed, parsed result stays valid
+                        Object memo = parser != null ? MblParsedCache.get(cacheKey, parser) : null;
+                        MblDiskCache.commit(existingCache);
+                        MblResponse cacheResponse = new MblResponse()
+                                .setRequest(request)
+                                .setStatusCode(statusCode)
+                                .setStatusCodeReason(statusCodeReason)
+                                .setHeaders(headers);
+                        if (memo != null) {
+                            MblDiskCache.touch(existingCache);
+                            MblParsedCache.put(cacheKey, parser, memo);
+                            parsed = memo;
+                        } else if (parser != null) {
+                            parsed = parseCache(existingCache, parser, cacheResponse);
+                        } else if (returnCacheFile) {
+                            MblDiskCache.touch(existingCache);
+                            fileCache = existingCache;
+                        } else {
+                            data = readCache(
+                                    existingCache,
+                                    taskStreamHandler,
+                                    cacheResponse,
+                                    taskNotReturnByteArrayData);
+                        }
+                    } else if (parser != null && statusCodeValidator.isSuccess(statusCode)) {
+                        MblDatabaseCache c = shouldStoreCache ? newCache(cacheKey, headers) : null;
+                        ParsingStreamHandler parsingHandler = new ParsingStreamHandler(parser);
+                        streamResponse(
+                                parsingHandler,
+                                new MblResponse()
                                         .setRequest(request)
                                         .setStatusCode(statusCode)
                                         .setStatusCodeReason(statusCodeReason)
-                                        .setHeaders(headers)
-                                        .setData(data));
+                                        .setHeaders(headers),
+                                response.getBody(),
+                                c);
+                        parsed = parsingHandler.getResult();
+                        if (c != null) {
+                            MblParsedCache.put(cacheKey, parser, parsed);
+                        }
+                    } else if (returnCacheFile && shouldStoreCache && statusCodeValidator.isSuccess(statusCode)) {
+                        // store uncompressed so that cache file can be handed out as is
+                        MblDatabaseCache c = newCache(cacheKey, headers);
+                        c.setCompressed(false);
+                        streamResponse(
+                                new MblResponseStreamHandler() {
+                                    @Override
+                                    public void onStream(MblResponse response, InputStream in) {}
+                                },
+                                new MblResponse()
+                                        .setRequest(request)
+                                        .setStatusCode(statusCode)
+                                        .setStatusCodeReason(statusCodeReason)
+                                        .setHeaders(headers),
+                                response.getBody(),
+                                c);
+                        fileCache = c;
+                    } else if (taskStreamHandler != null && statusCodeValidator.isSuccess(statusCode)) {
+                        streamResponse(
+                                taskStreamHandler,
+                                new MblResponse()
+                                        .setRequest(request)
+                                        .setStatusCode(statusCode)
+                                        .setStatusCodeReason(statusCodeReason)
+                                        .setHeaders(headers),
+                                response.getBody(),
+                                shouldStoreCache ? newCache(cacheKey, headers) : null);
+                    } else {
+                        if (!taskNotReturnByteArrayData) {
+                            data = response.readBody();
+                        }
+
+                        if (shouldStoreCache && statusCodeValidator.isSuccess(statusCode)) {
+                            if (!taskNotReturnByteArrayData) {
+                                saveCache(newCache(cacheKey, headers), data);
+                            } else {
+                                saveCache(newCache(cacheKey, headers), response.getBody());
                             }
-                        });
+                        }
                     }
-                } catch (final Exception e) {
+                } catch (Exception e) {
+                    httpGet.abort();
                     Log.e(TAG, "GET request failed due to unexpected exception", e);
-                    if (callback != null) {
-                        MblUtils.executeOnHandlerThread(fCallbackHandler, new Runnable() {
-                            @Override
-                            public void run() {
-                                callback.onFailure(new MblResponse()
-                                        .setRequest(request)
-                                        .setStatusCode(-1)
-                                        .setStatusCodeReason("Unexpected exception: " + e.getMessage()));
-                            }
-                        });
+                    statusCode = -1;
+                    statusCodeReason = "Unexpected exception: " + e.getMessage();
+                    networkError = sent && isNetworkError(e);
+                } finally {
+                    closeQuietly(response);
+                }
+
+                notifyWaiters(
+                        coalescingKey != null ? MblRequestCoalescer.finish(coalescingKey, inFlight) : Collections.singletonList(isBackgroundRefresh ? refreshWaiter : waiter),
+                        statusCode,
+                        statusCodeReason,
+                        networkError,
+                        headers,
+                        data,
+                        parsed,
+                        fileCache,
+                        notModified,
+                        networkMetrics);
+            }
+        };
+
+        if (!isCacheEnabled) {
+            executeCoalesced(coalescingKey, waiter, networkTask);
+            return;
+        }
+
+        executeOnLane(Lane.CACHE, new Runnable() {
+            @Override
+            public void run() {
+
+                metrics.onStart();
+
+                // hit/miss is decided by in-memory index, missing file is detected when reading it
+                MblDatabaseCache existingCache = MblDiskCache.lookup(cacheKey);
+                boolean isCacheValid = existingCache != null;
+                boolean isFresh = isCacheValid && MblCacheControl.isFresh(cachePolicy, cacheDuration, existingCache);
+                boolean canServeStale = isCacheValid && MblCacheControl.canServeStale(cachePolicy, existingCache);
+                boolean shouldReadFromCache =
+                        isFresh ||
+                        (canServeStale && (!MblUtils.isNetworkConnected() || request.isStaleWhileRevalidate()));
+                if (shouldReadFromCache) {
+                    try {
+                        final boolean isStale = !isFresh;
+                        final byte[] data;
+                        final Object parsed;
+                        Object memo = parser != null ? MblParsedCache.get(cacheKey, parser) : null;
+                        final MblCacheFile cacheFile = returnCacheFile && callback != null ? MblCacheFile.open(existingCache) : null;
+                        if (memo != null) {
+                            MblDiskCache.touch(existingCache);
+                            data = null;
+                            parsed = memo;
+                            metrics.setCacheTier(CacheTier.MEMORY);
+                        } else if (cacheFile != null) {
+                            MblDiskCache.touch(existingCache);
+                            data = null;
+                            parsed = null;
+                            metrics.setCacheTier(CacheTier.DISK);
+                        } else if (parser != null) {
+                            data = null;
+                            parsed = parseCache(
+                                    existingCache,
+                                    parser,
+                                    new MblResponse()
+                                            .setRequest(request)
+                                            .setStatusCode(-1)
+                                            .setStale(isStale));
+                            metrics.setCacheTier(CacheTier.DISK);
+                        } else {
+                            data = readCache(
+                                    existingCache,
+                                    streamHandler,
+                                    new MblResponse()
+                                            .setRequest(request)
+                                            .setStatusCode(-1)
+                                            .setStale(isStale),
+                                    notReturnByteArrayData);
+                            parsed = null;
+                            metrics.setCacheTier(CacheTier.DISK);
+                        }
+                        metrics.finish();
+                        MblApiMetrics.record(request, -1, metrics);
+                        if (callback != null) {
+                            MblUtils.executeOnHandlerThread(fCallbackHandler, new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onSuccess(new MblResponse()
+                                            .setRequest(request)
+                                            .setStatusCode(-1)
+                                            .setStale(isStale)
+                                            .setData(data)
+                                            .setParsedData(parsed)
+                                            .setCacheFile(cacheFile)
+                                            .setMetrics(metrics));
+                                }
+                            });
+                        }
+
+                        // stale-while-revalidate: refresh cache in background
+                        if (isStale && MblUtils.isNetworkConnected()) {
+                            backgroundRefresh.set(true);
+                            executeCoalesced(coalescingKey, refreshWaiter, networkTask);
+                        }
+
+                        return;
+                    } catch (IOException e) {
+                        Log.e(TAG, "Cache not exist", e);
+                        MblDiskCache.invalidate(existingCache);
                     }
                 }
+
+                executeCoalesced(coalescingKey, waiter, networkTask);
             }
-        });
+        }, callback, fCallbackHandler, request);
+    }
+
+    /**
+     * <pre>
+     * Download response body of a GET request to file, resuming partial download of previous attempts.
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static void download(MblRequest request, MblApiCallback callback, MblRequestHandle handle, MblRequestMetrics metrics) {
+        String fullUrl = generateGetMethodFullUrl(request.getUrl(), getParamsIgnoreEmptyValues(request.getParams()));
+        Handler callbackHandler = request.getCallbackHandler() != null ? request.getCallbackHandler() : MblUtils.getMainThreadHandler();
+        executeOnNetwork(
+                new MblDownloadTask(fullUrl, request, callback, callbackHandler, handle, metrics),
+                callback,
+                callbackHandler,
+                request);
     }
 
     /**
@@ -385,8 +935,23 @@ public class MblApi {
      */
     @SuppressWarnings("unchecked")
     public static String getCacheFilePath(String url, Map<String, ? extends Object> params) {
-        String fullUrl = generateGetMethodFullUrl(url, getParamsIgnoreEmptyValues(params));
-        MblDatabaseCache existingCache = MblDatabaseCache.get(fullUrl);
+        return getCacheFilePath(new MblRequest()
+                .setUrl(url)
+                .setParams(params != null ? params : new HashMap<String, Object>()));
+    }
+
+    /**
+     * <pre>
+     * Get absolute path to cache file of a GET request.
+     * Cache key is generated the same way as when request is sent (custom key generator, excluded params, ...).
+     * File is gzip-compressed if {@link MblApiOptions#setCacheCompressionEnabled(boolean)} is enabled.
+     * </pre>
+     * @return path of cache file, or NULL if cache does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public static String getCacheFilePath(MblRequest request) {
+        String cacheKey = MblCacheKey.generate(request, getParamsIgnoreEmptyValues(request.getParams()));
+        MblDatabaseCache existingCache = MblDiskCache.lookup(cacheKey);
         if (existingCache != null) {
             String cacheFileName = getCacheFileName(existingCache);
             if (!MblUtils.isEmpty(cacheFileName)) {
@@ -420,6 +985,54 @@ public class MblApi {
         }
     }
 
+    /**
+     * <pre>
+     * Priority of a request. Pending requests of the same host are sent in priority order.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setPriority(Priority)
+     */
+    public static enum Priority {
+        /**
+         * Requests needed by user right now (e.g. content of current screen).
+         */
+        IMMEDIATE,
+        /**
+         * Default priority.
+         */
+        NORMAL,
+        /**
+         * Requests for data which may be needed later. Sent in a low-priority thread pool, held or throttled while app is in background.
+         * @see com.datdo.mobilib.api.MblApiOptions#setBackgroundPolicy(MblApiOptions.MblBackgroundPolicy)
+         */
+        PREFETCH
+    }
+
+    /**
+     * <pre>
+     * How freshness of cached GET requests is determined.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setCachePolicy(CachePolicy)
+     */
+    public static enum CachePolicy {
+        /**
+         * Only use duration set via {@link MblRequest#setCacheDuration(long)}. Caching headers of server are ignored.
+         */
+        CLIENT,
+        /**
+         * Use freshness lifetime specified by server via "Cache-Control" ("max-age", "no-store", "no-cache", "must-revalidate") and "Expires" headers.
+         * Duration set via {@link MblRequest#setCacheDuration(long)} is used only when server does not specify freshness lifetime.
+         */
+        SERVER,
+        /**
+         * Use the smaller of client duration and server freshness lifetime.
+         */
+        MIN,
+        /**
+         * Use the larger of client duration and server freshness lifetime.
+         */
+        MAX
+    }
+
     @SuppressWarnings("unchecked")
     private static void sendRequestWithBody(
             final Method method,
@@ -432,7 +1045,9 @@ public class MblApi {
             final MblStatusCodeValidator statusCodeValidator,
             final String data,
             final boolean redirectEnabled,
-            final MblRequest request) {
+            final MblRequest request,
+            final MblRequestHandle handle,
+            final MblRequestMetrics metrics) {
 
         Assert.assertNotNull(method);
 
@@ -457,19 +1072,7 @@ public class MblApi {
                     isMultipart = true;
                     continue;
                 }
-                if (val instanceof String) {
-                    continue;
-                }
-                if (val instanceof Long) {
-                    continue;
-                }
-                if (val instanceof Integer) {
-                    continue;
-                }
-                if (val instanceof Double) {
-                    continue;
-                }
-                if (val instanceof Float) {
+                if (isSimpleParam(val)) {
                     continue;
                 }
 
@@ -491,18 +1094,19 @@ public class MblApi {
         }
         final boolean fIsMultipart = isMultipart;
 
-        MblUtils.executeOnAsyncThread(new Runnable() {
+        executeOnNetwork(new Runnable() {
             @Override
             public void run() {
 
+                metrics.onStart();
+
+                MblTransportRequest httpRequest = newTransportRequest(request, method.name(), url).setMetrics(metrics);
+                MblTransportResponse response = null;
+                boolean sent = false;
                 try {
-                    HttpClient httpClient = getHttpClient(url, isIgnoreSSLCertificate);
-                    HttpContext httpContext = new BasicHttpContext();
-                    HttpEntityEnclosingRequestBase httpRequest = method.getHttpRequest(url);
-                    if (!redirectEnabled) {
-                        disableRedirect(httpRequest);
-                    }
+                    handle.attach(httpRequest);
 
+                    HttpEntity entity = null;
                     if (!MblUtils.isEmpty(paramsNoEmptyVal)) {
                         if (fIsMultipart) {
                             MultipartEntity multipartContent = new MultipartEntity();
@@ -520,29 +1124,78 @@ public class MblApi {
                                     multipartContent.addPart(key, new StringBody(String.valueOf(val), CHARSET_UTF8));
                                 }
                             }
-                            httpRequest.setEntity(multipartContent);
+                            entity = multipartContent;
                         } else {
                             List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(2);
                             for (String key : paramsNoEmptyVal.keySet()) {
                                 nameValuePairs.add(new BasicNameValuePair(key, paramsNoEmptyVal.get(key).toString()));
                             }
-                            httpRequest.setEntity(new UrlEncodedFormEntity(nameValuePairs, UTF8));
+                            entity = new UrlEncodedFormEntity(nameValuePairs, UTF8);
                         }
                     } else if (!MblUtils.isEmpty(data)) {
-                        httpRequest.setEntity(new StringEntity(data, UTF8));
+                        entity = new StringEntity(data, UTF8);
+                    } else if (request.getBody() != null) {
+                        entity = request.getBody().toHttpEntity();
                     }
 
-                    httpRequest.setHeaders(getHeaderArray(headerParams));
+                    if (request.getUploadProgressListener() != null && entity != null) {
+                        entity = new MblProgressHttpEntity(
+                                entity,
+                                request.getUploadProgressListener(),
+                                fCallbackHandler,
+                                request.getUploadProgressInterval());
+                    }
+
+                    if (entity != null) {
+                        MblTransportBody body = MblTransportBody.fromHttpEntity(entity);
+                        // progress is reported in uncompressed bytes
+                        if (request.isCompressRequestBody() && !fIsMultipart) {
+                            body = MblCompression.gzip(body);
+                        }
+                        httpRequest.setBody(body);
+                    }
 
-                    final HttpResponse response = httpClient.execute(httpRequest, httpContext);
+                    sent = true;
+                    response = execute(request, httpRequest);
+                    metrics.setCacheTier(CacheTier.NETWORK);
 
-                    final int statusCode = response.getStatusLine().getStatusCode();
-                    final String statusCodeReason = response.getStatusLine().getReasonPhrase();
-                    final Map<String, String> headers = new HashMap<String, String>();
-                    for (Header h : response.getAllHeaders()) {
-                        headers.put(h.getName(), h.getValue());
+                    final int statusCode = response.getStatusCode();
+                    final String statusCodeReason = response.getStatusCodeReason();
+                    final Map<String, String> headers = response.getHeaders();
+                    final byte[] data;
+                    Object parsed = null;
+                    MblResponseStreamHandler streamHandler = request.getResponseStreamHandler();
+                    if (request.getParser() != null && statusCodeValidator.isSuccess(statusCode)) {
+                        ParsingStreamHandler parsingHandler = new ParsingStreamHandler(request.getParser());
+                        streamResponse(
+                                parsingHandler,
+                                new MblResponse()
+                                        .setRequest(request)
+                                        .setStatusCode(statusCode)
+                                        .setStatusCodeReason(statusCodeReason)
+                                        .setHeaders(headers),
+                                response.getBody(),
+                                null);
+                        parsed = parsingHandler.getResult();
+                        data = null;
+                    } else if (streamHandler != null && statusCodeValidator.isSuccess(statusCode)) {
+                        streamResponse(
+                                streamHandler,
+                                new MblResponse()
+                                        .setRequest(request)
+                                        .setStatusCode(statusCode)
+                                        .setStatusCodeReason(statusCodeReason)
+                                        .setHeaders(headers),
+                                response.getBody(),
+                                null);
+                        data = null;
+                    } else {
+                        data = response.readBody();
                     }
-                    final byte[] data = EntityUtils.toByteArray(response.getEntity());
+
+                    metrics.finish();
+                    MblApiMetrics.record(request, statusCode, metrics);
+                    final Object fParsed = parsed;
 
                     if (!statusCodeValidator.isSuccess(statusCode)) {
                         if (callback != null) {
@@ -554,7 +1207,8 @@ public class MblApi {
                                             .setStatusCode(statusCode)
                                             .setStatusCodeReason(statusCodeReason)
                                             .setHeaders(headers)
-                                            .setData(data));
+                                            .setData(data)
+                                            .setMetrics(metrics));
                                 }
                             });
                         }
@@ -571,13 +1225,19 @@ public class MblApi {
                                         .setStatusCode(statusCode)
                                         .setStatusCodeReason(statusCodeReason)
                                         .setHeaders(headers)
-                                        .setData(data));
+                                        .setData(data)
+                                        .setParsedData(fParsed)
+                                        .setMetrics(metrics));
                             }
                         });
                     }
 
                 } catch (final Exception e) {
+                    httpRequest.abort();
                     Log.e(TAG, method.name() + " request failed due to unexpected exception", e);
+                    metrics.finish();
+                    MblApiMetrics.record(request, -1, metrics);
+                    final boolean networkError = sent && isNetworkError(e);
                     if (callback != null) {
                         MblUtils.executeOnHandlerThread(fCallbackHandler, new Runnable() {
                             @Override
@@ -585,15 +1245,162 @@ public class MblApi {
                                 callback.onFailure(new MblResponse()
                                         .setRequest(request)
                                         .setStatusCode(-1)
-                                        .setStatusCodeReason("Unexpected exception: " + e.getMessage()));
+                                        .setStatusCodeReason("Unexpected exception: " + e.getMessage())
+                                        .setNetworkError(networkError)
+                                        .setMetrics(metrics));
                             }
                         });
                     }
+                } finally {
+                    closeQuietly(response);
+                }
+            }
+        }, callback, fCallbackHandler, request);
+    }
+
+    private static void executeCoalesced(final String coalescingKey, final MblRequestCoalescer.Waiter waiter, Runnable networkTask) {
+        if (coalescingKey == null) {
+            executeOnNetwork(networkTask, waiter.getCallback(), waiter.getCallbackHandler(), waiter.getRequest());
+            return;
+        }
+        if (!MblRequestCoalescer.join(coalescingKey, waiter)) {
+            // an identical request is in progress, its result will be delivered to this waiter
+            return;
+        }
+        MblHostScheduler.submit(waiter.getRequest().getUrl(), waiter.getRequest(), networkTask, new MblHostScheduler.RejectionHandler() {
+            @Override
+            public void onRejected(RejectedExecutionException e) {
+                Log.e(TAG, "Request rejected: " + waiter.getRequest(), e);
+                notifyWaiters(
+                        MblRequestCoalescer.finish(coalescingKey, null),
+                        -1,
+                        "Request rejected: " + e.getMessage(),
+                        false,
+                        null,
+                        null,
+                        null,
+                        null,
+                        false,
+                        null);
+            }
+        });
+    }
+
+    /**
+     * <pre>
+     * Deliver result of a GET request to all waiters, each waiter in its own callback handler.
+     * Success/failure is decided by status code validator of each waiter 's request.
+     * Revalidated cache (status code 304) is always success.
+     * If cache record is not NULL, each successful waiter receives its own pinned handle of cache file instead of data.
+     * Metrics of HTTP request are copied to metrics of each waiter, NULL if HTTP request was not sent.
+     * </pre>
+     */
+    private static void notifyWaiters(
+            List<MblRequestCoalescer.Waiter> waiters,
+            final int statusCode,
+            final String statusCodeReason,
+            final boolean networkError,
+            final Map<String, String> headers,
+            final byte[] data,
+            final Object parsed,
+            MblDatabaseCache fileCache,
+            boolean notModified,
+            MblRequestMetrics networkMetrics) {
+
+        for (final MblRequestCoalescer.Waiter w : waiters) {
+            final MblRequestMetrics metrics = networkMetrics != null ? w.getMetrics().finish(networkMetrics) : null;
+            MblApiMetrics.record(w.getRequest(), statusCode, metrics);
+            if (w.getCallback() == null) {
+                continue;
+            }
+            final boolean success = notModified || (statusCode >= 0 && w.getRequest().getStatusCodeValidator().isSuccess(statusCode));
+            MblCacheFile openedFile = null;
+            if (success && fileCache != null) {
+                try {
+                    openedFile = MblCacheFile.open(fileCache);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to open cache file: " + fileCache.getKey(), e);
+                    MblDiskCache.invalidate(fileCache);
+                }
+            }
+            final MblCacheFile cacheFile = openedFile;
+            final boolean fileMissing = success && fileCache != null && cacheFile == null;
+            MblUtils.executeOnHandlerThread(w.getCallbackHandler(), new Runnable() {
+                @Override
+                public void run() {
+                    MblResponse response = new MblResponse()
+                            .setRequest(w.getRequest())
+                            .setStatusCode(fileMissing ? -1 : statusCode)
+                            .setStatusCodeReason(fileMissing ? "Cache file is not available" : statusCodeReason)
+                            .setNetworkError(networkError)
+                            .setHeaders(headers)
+                            .setData(data)
+                            .setParsedData(parsed)
+                            .setCacheFile(cacheFile)
+                            .setMetrics(metrics);
+                    if (success && !fileMissing) {
+                        w.getCallback().onSuccess(response);
+                    } else {
+                        w.getCallback().onFailure(response);
+                    }
                 }
+            });
+        }
+    }
+
+    private static void executeOnLane(
+            Lane lane,
+            Runnable action,
+            MblApiCallback callback,
+            Handler callbackHandler,
+            MblRequest request) {
+
+        try {
+            MblApiExecutor.execute(lane, action);
+        } catch (RejectedExecutionException e) {
+            notifyRejected(e, callback, callbackHandler, request);
+        }
+    }
+
+    /**
+     * <pre>
+     * Execute network task of a request in network lane, subject to per-host limits and priority of request.
+     * </pre>
+     */
+    private static void executeOnNetwork(
+            Runnable action,
+            final MblApiCallback callback,
+            final Handler callbackHandler,
+            final MblRequest request) {
+
+        MblHostScheduler.submit(request.getUrl(), request, action, new MblHostScheduler.RejectionHandler() {
+            @Override
+            public void onRejected(RejectedExecutionException e) {
+                notifyRejected(e, callback, callbackHandler, request);
             }
         });
     }
 
+    private static void notifyRejected(
+            final RejectedExecutionException e,
+            final MblApiCallback callback,
+            Handler callbackHandler,
+            final MblRequest request) {
+
+        Log.e(TAG, "Request rejected: " + request, e);
+        if (callback != null) {
+            MblUtils.executeOnHandlerThread(callbackHandler, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(new MblResponse()
+                            .setRequest(request)
+                            .setStatusCode(-1)
+                            .setStatusCodeReason("Request rejected: " + e.getMessage()));
+                }
+            });
+        }
+    }
+
     @SuppressWarnings("unused")
     private static class HttpDeleteWithBody extends HttpEntityEnclosingRequestBase {
         @Override
@@ -616,75 +1423,294 @@ public class MblApi {
         }
     }
 
-    private static HttpClient getHttpClient(String url, boolean ignoreSSLCertificate) {
-        if (MblSSLCertificateUtils.isHttpsUrl(url) && ignoreSSLCertificate) {
-            return MblSSLCertificateUtils.getHttpClientIgnoreSSLCertificate();
-        } else {
-            return new DefaultHttpClient();
+    /**
+     * <pre>
+     * Create transport request of a request, with its headers, SSL, redirect and timeout configurations.
+     * Timeouts fall back to global configurations.
+     * </pre>
+     */
+    static MblTransportRequest newTransportRequest(MblRequest request, String method, String url) {
+        return new MblTransportRequest(method, url)
+                .setHeaders(request.getHeaderParams())
+                .setVerifySSL(request.isVerifySSL())
+                .setRedirectEnabled(request.isRedirectEnabled())
+                .setConnectTimeout(getConnectTimeout(request))
+                .setReadTimeout(getReadTimeout(request));
+    }
+
+    private static long getConnectTimeout(MblRequest request) {
+        long connectTimeout = request.getConnectTimeout() > 0 ? request.getConnectTimeout() : sOptions.getConnectTimeout();
+        return Math.max(0, connectTimeout);
+    }
+
+    private static long getReadTimeout(MblRequest request) {
+        long readTimeout = request.getReadTimeout() > 0 ? request.getReadTimeout() : sOptions.getReadTimeout();
+        return Math.max(0, readTimeout);
+    }
+
+    /**
+     * <pre>
+     * Send transport request via transport of request (or global transport).
+     * Compressed response is requested and decompressed, unless request specifies its own "Accept-Encoding" header.
+     * Traffic and timing are recorded to metrics of transport request.
+     * </pre>
+     */
+    static MblTransportResponse execute(MblRequest request, MblTransportRequest httpRequest) throws IOException {
+        MblTransport transport = request.getTransport() != null ? request.getTransport() : sOptions.getTransport();
+        boolean decompress = sOptions.isResponseCompressionEnabled() && httpRequest.getHeader(MblCompression.HEADER_ACCEPT_ENCODING) == null;
+        if (decompress) {
+            httpRequest.setHeader(MblCompression.HEADER_ACCEPT_ENCODING, MblCompression.ACCEPT_ENCODING);
         }
+        MblRequestMetrics metrics = httpRequest.getMetrics();
+        if (httpRequest.getBody() != null) {
+            httpRequest.setBody(metrics.meter(httpRequest.getBody()));
+        }
+        long sentAt = MblRequestMetrics.now();
+        MblTransportResponse response = transport.execute(httpRequest);
+        metrics.onHeaders(sentAt);
+        // count bytes on the wire, before decompression
+        response.setBody(metrics.meter(response.getBody()));
+        return decompress ? MblCompression.decompress(response) : response;
     }
 
-    private static void saveCache(String fullUrl, byte[] data) {
-        try {
-            MblDatabaseCache c = new MblDatabaseCache(fullUrl, System.currentTimeMillis());
-            MblDatabaseCache.upsert(c);
-            MblUtils.saveCacheFile(data, getCacheFileName(c));
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to cache url: " + fullUrl, e);
+    static void closeQuietly(MblTransportResponse response) {
+        // close response so that connection is released back to connection pool
+        if (response != null) {
+            try {
+                response.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close response", e);
+            }
         }
     }
 
-    private static void saveCache(String fullUrl, HttpEntity entity) {
+    /**
+     * <pre>
+     * Pass response body to stream handler without buffering it in memory.
+     * If cache is not NULL, response body is also written to cache file while being streamed.
+     * </pre>
+     */
+    private static void streamResponse(
+            MblResponseStreamHandler streamHandler,
+            MblResponse response,
+            InputStream in,
+            MblDatabaseCache c) throws IOException {
+
         try {
-            MblDatabaseCache c = new MblDatabaseCache(fullUrl, System.currentTimeMillis());
-            MblDatabaseCache.upsert(c);
-            String cachePath = MblUtils.getCacheAsbPath(getCacheFileName(c));
-            entity.writeTo(new FileOutputStream(cachePath));
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to cache url: " + fullUrl, e);
+            if (c == null) {
+                streamHandler.onStream(response, in);
+                return;
+            }
+
+            MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(c);
+            try {
+                MblTeeInputStream tee = new MblTeeInputStream(in, out);
+                streamHandler.onStream(response, tee);
+                tee.drain();
+                MblDiskCache.commit(c, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
         }
     }
 
-    private static String generateGetMethodFullUrl(String url, Map<String, ? extends Object> params) {
-        if (!MblUtils.isEmpty(params)) {
-            Uri.Builder builder = Uri.parse(url).buildUpon();
-            for (String key : params.keySet()) {
-                builder.appendQueryParameter(key, params.get(key).toString());
+    /**
+     * <pre>
+     * Read cached data, or pass cache file to stream handler if it is not NULL.
+     * </pre>
+     */
+    private static byte[] readCache(
+            MblDatabaseCache c,
+            MblResponseStreamHandler streamHandler,
+            MblResponse response,
+            boolean notReturnByteArrayData) throws IOException {
+
+        MblDiskCache.touch(c);
+
+        if (streamHandler != null) {
+            InputStream in = MblDiskCache.openInputStream(c);
+            try {
+                streamHandler.onStream(response, in);
+            } finally {
+                in.close();
             }
-            return builder.build().toString();
+            return null;
+        } else if (!notReturnByteArrayData) {
+            return MblDiskCache.read(c);
         } else {
-            return url;
+            MblDiskCache.checkFile(c);
+            return null;
         }
     }
 
-    private static Header[] getHeaderArray(Map<String, String> headerParams) {
+    /**
+     * <pre>
+     * Parse cache file, then keep parsed result in memory.
+     * </pre>
+     */
+    private static Object parseCache(
+            MblDatabaseCache c,
+            MblResponseParser<?> parser,
+            MblResponse response) throws IOException {
+
+        ParsingStreamHandler parsingHandler = new ParsingStreamHandler(parser);
+        readCache(c, parsingHandler, response, true);
+        MblParsedCache.put(c.getKey(), parser, parsingHandler.getResult());
+        return parsingHandler.getResult();
+    }
+
+    /**
+     * <pre>
+     * Stream handler which runs a parser and keeps its result.
+     * </pre>
+     */
+    private static class ParsingStreamHandler implements MblResponseStreamHandler {
 
-        Header[] headers = null;
+        private final MblResponseParser<?>  mParser;
+        private Object                      mResult;
 
-        if (!MblUtils.isEmpty(headerParams)) {
-            headers = new Header[headerParams.keySet().size()];
-            int i = 0;
-            for (final String key : headerParams.keySet()) {
-                final String val = headerParams.get(key);
-                headers[i++] = new Header() {
+        ParsingStreamHandler(MblResponseParser<?> parser) {
+            mParser = parser;
+        }
 
-                    @Override
-                    public HeaderElement[] getElements() throws ParseException { return null; }
+        @Override
+        public void onStream(MblResponse response, InputStream in) throws IOException {
+            try {
+                mResult = mParser.parse(response, in);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                ParseException pe = new ParseException("Failed to parse response: " + e.getMessage());
+                pe.initCause(e);
+                throw pe;
+            }
+        }
 
-                    @Override
-                    public String getName() {
-                        return key;
-                    }
+        Object getResult() {
+            return mResult;
+        }
+    }
 
-                    @Override
-                    public String getValue() {
-                        return val;
-                    }
-                };
+    /**
+     * <pre>
+     * Failure of parser, as opposed to I/O errors of connection.
+     * </pre>
+     */
+    private static class ParseException extends IOException {
+
+        ParseException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * <pre>
+     * Whether a param value can be sent as text: String, Long, Integer, Double, Float.
+     * Body requests also accept InputStream and File for multipart.
+     * </pre>
+     */
+    static boolean isSimpleParam(Object val) {
+        return val instanceof String
+                || val instanceof Long
+                || val instanceof Integer
+                || val instanceof Double
+                || val instanceof Float;
+    }
+
+    /**
+     * <pre>
+     * Whether an exception thrown after request is handed to transport is a transient network error (connection failure, socket timeout, broken response),
+     * rather than a failure of parser or app code.
+     * </pre>
+     */
+    static boolean isNetworkError(Exception e) {
+        return e instanceof IOException && !(e instanceof ParseException);
+    }
+
+    /**
+     * <pre>
+     * Create cache record for a response, including its validators ("ETag", "Last-Modified").
+     * </pre>
+     */
+    static MblDatabaseCache newCache(String fullUrl, Map<String, String> headers) {
+        MblDatabaseCache c = new MblDatabaseCache(fullUrl, System.currentTimeMillis());
+        c.setETag(getHeader(headers, HEADER_ETAG));
+        c.setLastModified(getHeader(headers, HEADER_LAST_MODIFIED));
+        MblCacheControl.parse(headers).applyTo(c);
+        c.setCompressed(sOptions.isCacheCompressionEnabled() && MblCompression.isCompressible(getHeader(headers, HEADER_CONTENT_TYPE)));
+        return c;
+    }
+
+    static void addConditionalHeaders(MblTransportRequest httpRequest, MblDatabaseCache c) {
+        if (!MblUtils.isEmpty(c.getETag()) && httpRequest.getHeader(HEADER_IF_NONE_MATCH) == null) {
+            httpRequest.setHeader(HEADER_IF_NONE_MATCH, c.getETag());
+        }
+        if (!MblUtils.isEmpty(c.getLastModified()) && httpRequest.getHeader(HEADER_IF_MODIFIED_SINCE) == null) {
+            httpRequest.setHeader(HEADER_IF_MODIFIED_SINCE, c.getLastModified());
+        }
+    }
+
+    /**
+     * <pre>
+     * Get header value, ignoring case of header name.
+     * </pre>
+     */
+    static String getHeader(Map<String, String> headers, String name) {
+        if (headers != null) {
+            for (String key : headers.keySet()) {
+                if (name.equalsIgnoreCase(key)) {
+                    return headers.get(key);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void saveCache(MblDatabaseCache c, byte[] data) {
+        try {
+            MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(c);
+            try {
+                out.write(data);
+                MblDiskCache.commit(c, out);
+            } finally {
+                out.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to cache url: " + c.getKey(), e);
+        }
+    }
+
+    private static void saveCache(MblDatabaseCache c, InputStream in) {
+        try {
+            MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(c);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                MblDiskCache.commit(c, out);
+            } finally {
+                out.close();
             }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to cache url: " + c.getKey(), e);
         }
+    }
 
-        return headers;
+    private static String generateGetMethodFullUrl(String url, Map<String, ? extends Object> params) {
+        if (!MblUtils.isEmpty(params)) {
+            Uri.Builder builder = Uri.parse(url).buildUpon();
+            // params are appended in sorted order so that identical requests have identical URL
+            for (String key : new TreeSet<String>(params.keySet())) {
+                builder.appendQueryParameter(key, params.get(key).toString());
+            }
+            return builder.build().toString();
+        } else {
+            return url;
+        }
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -718,31 +1744,10 @@ public class MblApi {
      * </pre>
      */
     public static void clearCache() {
-
-        // delete cache file
-        List<MblDatabaseCache> caches = MblDatabaseCache.getAll();
-        for (MblDatabaseCache c : caches) {
-            String path = MblUtils.getCacheAsbPath(getCacheFileName(c));
-            if (!MblUtils.isEmpty(path)) {
-                new File(path).delete();
-            }
-        }
-
-        // delete cache records
-        MblDatabaseCache.deleteAll();
+        MblDiskCache.clear();
     }
 
     private static String getCacheFileName(MblDatabaseCache c) {
-        if (c != null && !MblUtils.isEmpty(c.getKey())) {
-            return MblUtils.md5(c.getKey());
-        } else {
-            return null;
-        }
-    }
-
-    private static void disableRedirect(HttpRequest httpRequest) {
-        HttpParams params = new BasicHttpParams();
-        params.setParameter(ClientPNames.HANDLE_REDIRECTS, false);
-        httpRequest.setParams(params);
+        return MblDiskCache.getFileName(c);
     }
 }
\ No newline at end of file
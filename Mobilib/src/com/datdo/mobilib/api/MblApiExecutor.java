@@ -0,0 +1,191 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.api.MblApiOptions.MblRejectionPolicy;
+import com.datdo.mobilib.util.MblUtils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * Thread pools dedicated to {@link MblApi}, separated from {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR}.
+ * Network I/O and cache I/O are executed in different lanes so that a burst of network requests does not block cache hits.
+ * Prefetch requests have their own low-priority lane so that they never occupy threads needed by user-visible requests.
+ * </pre>
+ */
+class MblApiExecutor {
+
+    static enum Lane {
+        NETWORK,
+        CACHE,
+        PREFETCH
+    }
+
+    private static MblApiOptions        sOptions = new MblApiOptions();
+    private static ThreadPoolExecutor   sNetworkExecutor;
+    private static ThreadPoolExecutor   sCacheExecutor;
+    private static ThreadPoolExecutor   sPrefetchExecutor;
+    private static ScheduledExecutorService sScheduler;
+
+    /**
+     * <pre>
+     * Execute an action in a lane.
+     * </pre>
+     * @throws RejectedExecutionException if the lane is full and the action can not be executed according to {@link MblRejectionPolicy}
+     */
+    static void execute(Lane lane, Runnable action) throws RejectedExecutionException {
+        getExecutor(lane).execute(action);
+    }
+
+    /**
+     * <pre>
+     * Execute an action in a lane, regardless of {@link MblRejectionPolicy}: action is never run in caller thread and caller is never blocked.
+     * Used by dispatchers which apply rejection policy when admitting actions to their own queues.
+     * </pre>
+     * @throws RejectedExecutionException if the lane is full
+     */
+    static void tryExecute(Lane lane, Runnable action) throws RejectedExecutionException {
+        getExecutor(lane).execute(new TryAction(action));
+    }
+
+    private static class TryAction implements Runnable {
+
+        final Runnable mAction;
+
+        TryAction(Runnable action) {
+            mAction = action;
+        }
+
+        @Override
+        public void run() {
+            mAction.run();
+        }
+    }
+
+    /**
+     * <pre>
+     * Run a short action after a delay, in a shared scheduler thread. Waiting does not hold any thread of lanes.
+     * Actions must not block, they should dispatch real work to a lane.
+     * </pre>
+     */
+    static ScheduledFuture<?> schedule(Runnable action, long delay) {
+        return getScheduler().schedule(action, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (sScheduler == null) {
+            sScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MblApi-Scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sScheduler;
+    }
+
+    static synchronized void setOptions(MblApiOptions options) {
+        sOptions = options;
+        // queued actions of old executors are still executed
+        if (sNetworkExecutor != null) {
+            sNetworkExecutor.shutdown();
+            sNetworkExecutor = null;
+        }
+        if (sCacheExecutor != null) {
+            sCacheExecutor.shutdown();
+            sCacheExecutor = null;
+        }
+        if (sPrefetchExecutor != null) {
+            sPrefetchExecutor.shutdown();
+            sPrefetchExecutor = null;
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor(Lane lane) {
+        if (lane == Lane.NETWORK) {
+            if (sNetworkExecutor == null) {
+                sNetworkExecutor = createExecutor(
+                        "MblApi-Network",
+                        sOptions.getNetworkCorePoolSize(),
+                        sOptions.getNetworkMaxPoolSize(),
+                        sOptions.getNetworkQueueCapacity(),
+                        Thread.NORM_PRIORITY);
+            }
+            return sNetworkExecutor;
+        } else if (lane == Lane.PREFETCH) {
+            if (sPrefetchExecutor == null) {
+                sPrefetchExecutor = createExecutor(
+                        "MblApi-Prefetch",
+                        sOptions.getPrefetchCorePoolSize(),
+                        sOptions.getPrefetchMaxPoolSize(),
+                        sOptions.getPrefetchQueueCapacity(),
+                        Thread.MIN_PRIORITY);
+            }
+            return sPrefetchExecutor;
+        } else {
+            if (sCacheExecutor == null) {
+                sCacheExecutor = createExecutor(
+                        "MblApi-Cache",
+                        sOptions.getCacheCorePoolSize(),
+                        sOptions.getCacheMaxPoolSize(),
+                        sOptions.getCacheQueueCapacity(),
+                        Thread.NORM_PRIORITY);
+            }
+            return sCacheExecutor;
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(final String name, int corePoolSize, int maxPoolSize, int queueCapacity, final int threadPriority) {
+        return new ThreadPoolExecutor(
+                corePoolSize,
+                maxPoolSize,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name + "-" + mCount.getAndIncrement());
+                        t.setDaemon(true);
+                        t.setPriority(threadPriority);
+                        return t;
+                    }
+                },
+                createRejectedExecutionHandler(sOptions.getRejectionPolicy()));
+    }
+
+    private static RejectedExecutionHandler createRejectedExecutionHandler(final MblRejectionPolicy policy) {
+        return new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("Executor has been shut down");
+                }
+                // never block or do I/O in main thread
+                if (policy == MblRejectionPolicy.FAIL_FAST || r instanceof TryAction || MblUtils.isMainThread()) {
+                    throw new RejectedExecutionException("Too many pending requests");
+                }
+                if (policy == MblRejectionPolicy.CALLER_RUNS) {
+                    r.run();
+                } else if (policy == MblRejectionPolicy.BLOCK) {
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for free slot");
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,164 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <pre>
+ * Process-wide aggregation of {@link MblRequestMetrics} of all requests sent via {@link MblApi}, to be forwarded to telemetry.
+ * Every attempt of a request is recorded once, including requests which are served from cache or coalesced into another request.
+ * Requests which fail before being sent (invalid params, rejected, timed out) are not recorded.
+ * Values of -1 are not recorded, so {@link #DNS_TIME}, {@link #CONNECT_TIME} and {@link #TLS_TIME} stay empty unless {@link MblUrlConnectionTransport} is used
+ * (see {@link MblRequestMetrics}).
+ *
+ * Sample code:
+ * {@code
+ * // per-request events
+ * MblApiMetrics.addListener(new MblMetricsListener() {
+ *      public void onRequestFinished(MblRequest request, int statusCode, MblRequestMetrics metrics) {
+ *          telemetry.send(request.getUrl(), statusCode, metrics);
+ *      }
+ * });
+ *
+ * // aggregated histograms, e.g. uploaded periodically
+ * for (Map.Entry<String, MblHistogram> e : MblApiMetrics.getHistograms(true).entrySet()) {
+ *      telemetry.send(e.getKey(), e.getValue().getPercentile(50), e.getValue().getPercentile(99));
+ * }
+ * }
+ * </pre>
+ */
+public class MblApiMetrics {
+
+    private static final String TAG = MblApiMetrics.class.getSimpleName();
+
+    public static final String QUEUE_TIME           = "queue_time";
+    public static final String DNS_TIME             = "dns_time";
+    public static final String CONNECT_TIME         = "connect_time";
+    public static final String TLS_TIME             = "tls_time";
+    public static final String FIRST_BYTE_TIME      = "first_byte_time";
+    public static final String DOWNLOAD_TIME        = "download_time";
+    public static final String TOTAL_TIME           = "total_time";
+    public static final String BYTES_SENT           = "bytes_sent";
+    public static final String BYTES_RECEIVED       = "bytes_received";
+    public static final String RETRY_COUNT          = "retry_count";
+
+    /**
+     * <pre>
+     * Prefix of histograms of total time by cache tier, e.g. "total_time.disk". Count of such histogram is number of requests served from that tier.
+     * </pre>
+     */
+    public static final String TOTAL_TIME_BY_TIER   = TOTAL_TIME + ".";
+
+    /**
+     * <pre>
+     * Listener of finished requests.
+     * </pre>
+     */
+    public static interface MblMetricsListener {
+        /**
+         * <pre>
+         * Invoked in background thread, must not block.
+         * </pre>
+         * @param statusCode -1 if response is served from cache, or request failed without a response from server
+         */
+        public void onRequestFinished(MblRequest request, int statusCode, MblRequestMetrics metrics);
+    }
+
+    private static final Map<String, MblHistogram>  sHistograms = new HashMap<String, MblHistogram>();
+    private static final List<MblMetricsListener>   sListeners  = new CopyOnWriteArrayList<MblMetricsListener>();
+
+    private MblApiMetrics() {}
+
+    public static void addListener(MblMetricsListener listener) {
+        if (listener != null) {
+            sListeners.add(listener);
+        }
+    }
+
+    public static void removeListener(MblMetricsListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * <pre>
+     * Snapshot of a histogram.
+     * </pre>
+     * @param name one of constants of this class
+     * @return NULL if nothing is recorded
+     */
+    public static synchronized MblHistogram getHistogram(String name) {
+        MblHistogram h = sHistograms.get(name);
+        return h != null ? h.copy() : null;
+    }
+
+    /**
+     * <pre>
+     * Snapshots of all histograms.
+     * </pre>
+     * @param reset clear histograms after taking snapshots, so that next call only returns what is recorded in between
+     */
+    public static synchronized Map<String, MblHistogram> getHistograms(boolean reset) {
+        Map<String, MblHistogram> ret = new HashMap<String, MblHistogram>();
+        for (String name : sHistograms.keySet()) {
+            ret.put(name, sHistograms.get(name).copy());
+        }
+        if (reset) {
+            sHistograms.clear();
+        }
+        return ret;
+    }
+
+    public static synchronized void reset() {
+        sHistograms.clear();
+    }
+
+    /**
+     * <pre>
+     * Aggregate metrics of a finished request and notify listeners.
+     * </pre>
+     */
+    static void record(MblRequest request, int statusCode, MblRequestMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        synchronized (MblApiMetrics.class) {
+            add(QUEUE_TIME,         metrics.getQueueTime());
+            add(DNS_TIME,           metrics.getDnsTime());
+            add(CONNECT_TIME,       metrics.getConnectTime());
+            add(TLS_TIME,           metrics.getTlsTime());
+            add(FIRST_BYTE_TIME,    metrics.getFirstByteTime());
+            add(DOWNLOAD_TIME,      metrics.getDownloadTime());
+            add(TOTAL_TIME,         metrics.getTotalTime());
+            add(BYTES_SENT,         metrics.getBytesSent());
+            add(BYTES_RECEIVED,     metrics.getBytesReceived());
+            add(RETRY_COUNT,        metrics.getRetryCount());
+            if (metrics.getCacheTier() != null) {
+                add(TOTAL_TIME_BY_TIER + metrics.getCacheTier().name().toLowerCase(Locale.US), metrics.getTotalTime());
+            }
+        }
+        for (MblMetricsListener l : sListeners) {
+            try {
+                l.onRequestFinished(request, statusCode, metrics);
+            } catch (Throwable e) {
+                Log.e(TAG, "Metrics listener failed", e);
+            }
+        }
+    }
+
+    private static void add(String name, long value) {
+        if (value < 0) {
+            return;
+        }
+        MblHistogram h = sHistograms.get(name);
+        if (h == null) {
+            h = new MblHistogram();
+            sHistograms.put(name, h);
+        }
+        h.record(value);
+    }
+}
@@ -0,0 +1,521 @@
+package com.datdo.mobilib.api;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <pre>
+ * Global configurations for {@link com.datdo.mobilib.api.MblApi}.
+ * Configurations should be set before sending any request, typically in {@link android.app.Application#onCreate()}.
+ *
+ * Sample code:
+ * {@code
+ * MblApi.setOptions(new MblApiOptions()
+ *      .setMaxConnections(32)
+ *      .setMaxConnectionsPerRoute(8));
+ * }
+ * </pre>
+ * @see com.datdo.mobilib.api.MblApi#setOptions(MblApiOptions)
+ */
+public class MblApiOptions {
+
+    /**
+     * <pre>
+     * Behavior when a thread pool of {@link com.datdo.mobilib.api.MblApi} is full (all threads are busy and queue is full).
+     * </pre>
+     */
+    public static enum MblRejectionPolicy {
+        /**
+         * Request fails immediately, {@link com.datdo.mobilib.api.MblApi.MblApiCallback#onFailure(MblResponse)} is invoked.
+         */
+        FAIL_FAST,
+        /**
+         * Request is executed in the thread which sends it. Requests sent from main thread fail immediately instead.
+         */
+        CALLER_RUNS,
+        /**
+         * Thread which sends request is blocked until queue has free slot. Requests sent from main thread fail immediately instead.
+         */
+        BLOCK
+    }
+
+    /**
+     * <pre>
+     * When cache files of GET responses are flushed to storage device (fsync) before they replace old files.
+     * Cache files are always written to a temporary file then renamed, so a crash of app never leaves a truncated cache file.
+     * Sync only matters when device loses power: unsynced files may be lost, they are detected and dropped at next start.
+     * </pre>
+     */
+    public static enum MblCacheSyncPolicy {
+        /**
+         * Never sync, data is flushed by OS. Cheapest, recently cached responses may be downloaded again after power loss.
+         */
+        NONE,
+        /**
+         * Sync every cache file before it is published. Each cache write waits for storage device.
+         */
+        ALWAYS
+    }
+
+    /**
+     * <pre>
+     * Behavior of {@link com.datdo.mobilib.api.MblApi.Priority#PREFETCH} requests while app is in background.
+     * Requests already sent are not affected, only pending requests are held.
+     * </pre>
+     */
+    public static enum MblBackgroundPolicy {
+        /**
+         * Prefetch requests are sent as usual.
+         */
+        CONTINUE,
+        /**
+         * At most 1 prefetch request is sent to each host at a time.
+         */
+        THROTTLE,
+        /**
+         * Prefetch requests are held until app goes back to foreground.
+         */
+        PAUSE
+    }
+
+    private int     mMaxConnections             = 20;
+    private int     mMaxConnectionsPerRoute     = 6;
+    private long    mKeepAliveDuration          = 30 * 1000;
+    private long    mIdleConnectionTimeout      = 30 * 1000;
+    private int     mNetworkCorePoolSize        = 4;
+    private int     mNetworkMaxPoolSize         = 8;
+    private int     mNetworkQueueCapacity       = 128;
+    private int     mCacheCorePoolSize          = 2;
+    private int     mCacheMaxPoolSize           = 2;
+    private int     mCacheQueueCapacity         = 256;
+    private int     mPrefetchCorePoolSize       = 2;
+    private int     mPrefetchMaxPoolSize        = 2;
+    private int     mPrefetchQueueCapacity      = 256;
+    private MblBackgroundPolicy mBackgroundPolicy = MblBackgroundPolicy.PAUSE;
+    private boolean mPrefetchWifiOnly           = true;
+    private int     mPrefetchMinBatteryLevel    = 20;
+    private boolean mResponseCompressionEnabled = true;
+    private boolean mCacheCompressionEnabled    = false;
+    private int     mParsedCacheSize            = 32;
+    private MblCacheSyncPolicy mCacheSyncPolicy = MblCacheSyncPolicy.NONE;
+    private MblRejectionPolicy mRejectionPolicy = MblRejectionPolicy.FAIL_FAST;
+    private Set<String> mExcludedCacheKeyParams = new HashSet<String>();
+    private long    mMaxCacheSize               = 20 * 1024 * 1024;
+    private long    mConnectTimeout             = 15 * 1000;
+    private long    mReadTimeout                = 30 * 1000;
+    private long    mOutboxMaxAge               = 7 * 24 * 60 * 60 * 1000L;
+    private int     mOutboxBatchSize            = 10;
+    private int     mOutboxMaxAttempts          = 10;
+    private int     mMaxRequestsPerHost         = 6;
+    private double  mRateLimit                  = 0;
+    private int     mRateLimitBurst             = 1;
+    private MblTransport mTransport             = new MblApacheTransport();
+
+    public MblApiOptions() {}
+
+    /**
+     * <pre>
+     * Configure max number of connections kept in connection pool, for all hosts. Default 20.
+     * </pre>
+     */
+    public MblApiOptions setMaxConnections(int maxConnections) {
+        mMaxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure max number of connections kept in connection pool for each host (route). Default 6.
+     * </pre>
+     */
+    public MblApiOptions setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        mMaxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure how long, in milliseconds, a connection is kept alive for reuse when server does not specify "Keep-Alive" header. Default 30000.
+     * </pre>
+     */
+    public MblApiOptions setKeepAliveDuration(long keepAliveDuration) {
+        mKeepAliveDuration = keepAliveDuration;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure how long, in milliseconds, a connection can stay idle in connection pool before it is closed. Default 30000.
+     * </pre>
+     */
+    public MblApiOptions setIdleConnectionTimeout(long idleConnectionTimeout) {
+        mIdleConnectionTimeout = idleConnectionTimeout;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure thread pool which sends requests to server.
+     * Threads are created up to core size first, then requests are queued, then threads are created up to max size when queue is full.
+     * Queue capacity also bounds pending requests of each host (see {@link #setMaxRequestsPerHost(int)}), {@link MblRejectionPolicy} is applied when it is exceeded.
+     * Default: core size 4, max size 8, queue capacity 128.
+     * </pre>
+     */
+    public MblApiOptions setNetworkThreadPool(int corePoolSize, int maxPoolSize, int queueCapacity) {
+        mNetworkCorePoolSize    = corePoolSize;
+        mNetworkMaxPoolSize     = maxPoolSize;
+        mNetworkQueueCapacity   = queueCapacity;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure thread pool which reads/writes cache of GET requests, so that cache hits are not blocked by slow network requests.
+     * Default: core size 2, max size 2, queue capacity 256.
+     * </pre>
+     */
+    public MblApiOptions setCacheThreadPool(int corePoolSize, int maxPoolSize, int queueCapacity) {
+        mCacheCorePoolSize      = corePoolSize;
+        mCacheMaxPoolSize       = maxPoolSize;
+        mCacheQueueCapacity     = queueCapacity;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure thread pool which sends {@link com.datdo.mobilib.api.MblApi.Priority#PREFETCH} requests. Its threads have lowest priority.
+     * Default: core size 2, max size 2, queue capacity 256.
+     * </pre>
+     */
+    public MblApiOptions setPrefetchThreadPool(int corePoolSize, int maxPoolSize, int queueCapacity) {
+        mPrefetchCorePoolSize   = corePoolSize;
+        mPrefetchMaxPoolSize    = maxPoolSize;
+        mPrefetchQueueCapacity  = queueCapacity;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure behavior of prefetch requests while app is in background. Default {@link MblBackgroundPolicy#PAUSE}.
+     * </pre>
+     */
+    public MblApiOptions setBackgroundPolicy(MblBackgroundPolicy backgroundPolicy) {
+        mBackgroundPolicy = backgroundPolicy;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure whether {@link com.datdo.mobilib.api.MblApi#prefetch(java.util.List)} is skipped when device is not connected via Wi-Fi. Default true.
+     * </pre>
+     */
+    public MblApiOptions setPrefetchWifiOnly(boolean prefetchWifiOnly) {
+        mPrefetchWifiOnly = prefetchWifiOnly;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure min battery level in percent to run {@link com.datdo.mobilib.api.MblApi#prefetch(java.util.List)}. Ignored while device is charging.
+     * Set 0 to ignore battery level. Default 20.
+     * </pre>
+     */
+    public MblApiOptions setPrefetchMinBatteryLevel(int prefetchMinBatteryLevel) {
+        mPrefetchMinBatteryLevel = prefetchMinBatteryLevel;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure whether responses are requested with "Accept-Encoding: gzip, deflate" and decompressed transparently. Default true.
+     * Requests which set their own "Accept-Encoding" header receive raw response.
+     * </pre>
+     */
+    public MblApiOptions setResponseCompressionEnabled(boolean responseCompressionEnabled) {
+        mResponseCompressionEnabled = responseCompressionEnabled;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure whether cache files of GET responses are stored gzip-compressed, and decompressed when read. Default false.
+     * Responses which are already compressed (images, audio, video, archives) are stored as is.
+     * Note that file returned by {@link com.datdo.mobilib.api.MblApi#getCacheFilePath(MblRequest)} is compressed when this option is enabled.
+     * </pre>
+     */
+    public MblApiOptions setCacheCompressionEnabled(boolean cacheCompressionEnabled) {
+        mCacheCompressionEnabled = cacheCompressionEnabled;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure max number of parsed responses of cached GET requests kept in memory. Default 32. Set 0 to disable.
+     * A cache hit whose parsed result is in memory is delivered without reading cache file, objects are shared by all requests of the same URL and parser instance.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setParser(MblApi.MblResponseParser)
+     */
+    public MblApiOptions setParsedCacheSize(int parsedCacheSize) {
+        mParsedCacheSize = parsedCacheSize;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure whether cache files of GET responses are synced to storage device before being published. Default {@link MblCacheSyncPolicy#NONE}.
+     * </pre>
+     */
+    public MblApiOptions setCacheSyncPolicy(MblCacheSyncPolicy cacheSyncPolicy) {
+        mCacheSyncPolicy = cacheSyncPolicy;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure behavior when a thread pool is full. Default {@link MblRejectionPolicy#FAIL_FAST}.
+     * </pre>
+     */
+    public MblApiOptions setRejectionPolicy(MblRejectionPolicy rejectionPolicy) {
+        mRejectionPolicy = rejectionPolicy;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure names of volatile params (timestamps, tracking ids, ...) which are ignored when generating cache key of GET requests.
+     * Applied to all requests, in addition to params set via {@link com.datdo.mobilib.api.MblRequest#setExcludedCacheKeyParams(String...)}. Default empty.
+     * </pre>
+     */
+    public MblApiOptions setExcludedCacheKeyParams(String... names) {
+        mExcludedCacheKeyParams = new HashSet<String>(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure max total size in bytes of cached GET responses. Least recently used responses are evicted when cache exceeds this size.
+     * Set 0 or negative value for unbounded cache. Default 20MB.
+     * </pre>
+     */
+    public MblApiOptions setMaxCacheSize(long maxCacheSize) {
+        mMaxCacheSize = maxCacheSize;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure default timeout in milliseconds to establish connection. Set 0 for no timeout. Default 15000.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setConnectTimeout(long)
+     */
+    public MblApiOptions setConnectTimeout(long connectTimeout) {
+        mConnectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure default max inactivity in milliseconds while waiting for data from socket. Set 0 for no timeout. Default 30000.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setReadTimeout(long)
+     */
+    public MblApiOptions setReadTimeout(long readTimeout) {
+        mReadTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure max age in milliseconds of requests in {@link MblOutbox}. Older requests are dropped without being sent. Default 7 days.
+     * </pre>
+     */
+    public MblApiOptions setOutboxMaxAge(long outboxMaxAge) {
+        mOutboxMaxAge = outboxMaxAge;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure number of requests loaded from database at a time when {@link MblOutbox} is flushed. Default 10.
+     * </pre>
+     */
+    public MblApiOptions setOutboxBatchSize(int outboxBatchSize) {
+        mOutboxBatchSize = outboxBatchSize;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure max number of attempts of a request in {@link MblOutbox} which fails for reasons other than being rejected by server (4xx status code). Default 10.
+     * </pre>
+     */
+    public MblApiOptions setOutboxMaxAttempts(int outboxMaxAttempts) {
+        mOutboxMaxAttempts = outboxMaxAttempts;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure max number of in-flight requests to each host. Other requests wait in priority order. Set 0 for no limit. Default 6.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setMaxRequestsPerHost(int)
+     */
+    public MblApiOptions setMaxRequestsPerHost(int maxRequestsPerHost) {
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure token-bucket rate limit of each host: at most "permitsPerSecond" requests per second, with bursts of at most "burst" requests.
+     * Set 0 to disable. Default disabled.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setRateLimit(double, int)
+     */
+    public MblApiOptions setRateLimit(double permitsPerSecond, int burst) {
+        mRateLimit      = permitsPerSecond;
+        mRateLimitBurst = burst;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure HTTP stack which sends requests. Default {@link MblApacheTransport}.
+     * Use {@link MblUrlConnectionTransport} to send requests via {@link java.net.HttpURLConnection} (see its document for differences).
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setTransport(MblTransport)
+     */
+    public MblApiOptions setTransport(MblTransport transport) {
+        mTransport = transport;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return mMaxConnectionsPerRoute;
+    }
+
+    public long getKeepAliveDuration() {
+        return mKeepAliveDuration;
+    }
+
+    public long getIdleConnectionTimeout() {
+        return mIdleConnectionTimeout;
+    }
+
+    public int getNetworkCorePoolSize() {
+        return mNetworkCorePoolSize;
+    }
+
+    public int getNetworkMaxPoolSize() {
+        return mNetworkMaxPoolSize;
+    }
+
+    public int getNetworkQueueCapacity() {
+        return mNetworkQueueCapacity;
+    }
+
+    public int getCacheCorePoolSize() {
+        return mCacheCorePoolSize;
+    }
+
+    public int getCacheMaxPoolSize() {
+        return mCacheMaxPoolSize;
+    }
+
+    public int getCacheQueueCapacity() {
+        return mCacheQueueCapacity;
+    }
+
+    public int getPrefetchCorePoolSize() {
+        return mPrefetchCorePoolSize;
+    }
+
+    public int getPrefetchMaxPoolSize() {
+        return mPrefetchMaxPoolSize;
+    }
+
+    public int getPrefetchQueueCapacity() {
+        return mPrefetchQueueCapacity;
+    }
+
+    public MblBackgroundPolicy getBackgroundPolicy() {
+        return mBackgroundPolicy;
+    }
+
+    public boolean isPrefetchWifiOnly() {
+        return mPrefetchWifiOnly;
+    }
+
+    public int getPrefetchMinBatteryLevel() {
+        return mPrefetchMinBatteryLevel;
+    }
+
+    public boolean isResponseCompressionEnabled() {
+        return mResponseCompressionEnabled;
+    }
+
+    public boolean isCacheCompressionEnabled() {
+        return mCacheCompressionEnabled;
+    }
+
+    public int getParsedCacheSize() {
+        return mParsedCacheSize;
+    }
+
+    public MblCacheSyncPolicy getCacheSyncPolicy() {
+        return mCacheSyncPolicy;
+    }
+
+    public MblRejectionPolicy getRejectionPolicy() {
+        return mRejectionPolicy;
+    }
+
+    public Set<String> getExcludedCacheKeyParams() {
+        return mExcludedCacheKeyParams;
+    }
+
+    public long getMaxCacheSize() {
+        return mMaxCacheSize;
+    }
+
+    public long getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    public long getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    public long getOutboxMaxAge() {
+        return mOutboxMaxAge;
+    }
+
+    public int getOutboxBatchSize() {
+        return mOutboxBatchSize;
+    }
+
+    public int getOutboxMaxAttempts() {
+        return mOutboxMaxAttempts;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+
+    public double getRateLimit() {
+        return mRateLimit;
+    }
+
+    public int getRateLimitBurst() {
+        return mRateLimitBurst;
+    }
+
+    public MblTransport getTransport() {
+        return mTransport;
+    }
+}
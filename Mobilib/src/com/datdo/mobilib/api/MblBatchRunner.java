@@ -0,0 +1,136 @@
+package com.datdo.mobilib.api;
+
+import android.os.Handler;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.MblBatchCallback;
+import com.datdo.mobilib.util.MblUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <pre>
+ * Run a list of requests with bounded parallelism.
+ * A new request is started only when a running one is done, so that at most "maxConcurrency" requests are in progress at a time.
+ * </pre>
+ */
+class MblBatchRunner {
+
+    private final List<MblRequest>  mRequests;
+    private final int               mMaxConcurrency;
+    private final MblBatchCallback  mCallback;
+    private final Handler           mCallbackHandler;
+
+    private final MblResponse[]     mResponses;
+    private final boolean[]         mSuccesses;
+    private final boolean[]         mDone;
+    private int                     mNext;
+    private int                     mDoneCount;
+
+    MblBatchRunner(List<MblRequest> requests, int maxConcurrency, MblBatchCallback callback, Handler callbackHandler) {
+        mRequests           = new ArrayList<MblRequest>(requests);
+        mMaxConcurrency     = maxConcurrency;
+        mCallback           = callback;
+        mCallbackHandler    = callbackHandler;
+        mResponses          = new MblResponse[mRequests.size()];
+        mSuccesses          = new boolean[mRequests.size()];
+        mDone               = new boolean[mRequests.size()];
+    }
+
+    void start() {
+        if (mRequests.isEmpty()) {
+            notifyComplete();
+            return;
+        }
+        int n = Math.min(mMaxConcurrency, mRequests.size());
+        for (int i = 0; i < n; i++) {
+            runNext();
+        }
+    }
+
+    private void runNext() {
+        final int index;
+        synchronized (this) {
+            if (mNext >= mRequests.size()) {
+                return;
+            }
+            index = mNext++;
+        }
+
+        final MblRequest request = mRequests.get(index);
+        final MblApiCallback requestCallback = request.getCallback();
+        MblApi.run(request, new MblApiCallback() {
+            @Override
+            public void onSuccess(MblResponse response) {
+                if (requestCallback != null) {
+                    requestCallback.onSuccess(response);
+                }
+                onDone(index, response, true);
+            }
+
+            @Override
+            public void onFailure(MblResponse response) {
+                if (requestCallback != null) {
+                    requestCallback.onFailure(response);
+                }
+                onDone(index, response, false);
+            }
+        });
+    }
+
+    private void onDone(final int index, final MblResponse response, final boolean success) {
+        final boolean complete;
+        synchronized (this) {
+            // a request can deliver more than once (e.g. stale-while-revalidate), only its first result counts
+            if (mDone[index]) {
+                return;
+            }
+            mDone[index]        = true;
+            mResponses[index]   = response;
+            mSuccesses[index]   = success;
+            mDoneCount++;
+            complete = mDoneCount == mRequests.size();
+        }
+
+        if (mCallback != null) {
+            MblUtils.executeOnHandlerThread(mCallbackHandler, new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onRequestDone(index, response, success);
+                }
+            });
+        }
+
+        runNext();
+
+        if (complete) {
+            notifyComplete();
+        }
+    }
+
+    private void notifyComplete() {
+        if (mCallback == null) {
+            return;
+        }
+        final List<MblResponse> responses;
+        final int successCount;
+        synchronized (this) {
+            responses = Arrays.asList(mResponses.clone());
+            int count = 0;
+            for (boolean s : mSuccesses) {
+                if (s) {
+                    count++;
+                }
+            }
+            successCount = count;
+        }
+        MblUtils.executeOnHandlerThread(mCallbackHandler, new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onComplete(responses, successCount);
+            }
+        });
+    }
+}
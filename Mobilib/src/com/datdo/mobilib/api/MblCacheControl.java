@@ -0,0 +1,154 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import com.datdo.mobilib.api.MblApi.CachePolicy;
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <pre>
+ * Caching directives of a HTTP response ("Cache-Control", "Expires") and freshness calculation of cached GET requests.
+ * </pre>
+ */
+@SuppressWarnings("deprecation")
+class MblCacheControl {
+
+    private static final String TAG = MblCacheControl.class.getSimpleName();
+
+    private static final String HEADER_CACHE_CONTROL    = "Cache-Control";
+    private static final String HEADER_EXPIRES          = "Expires";
+    private static final String HEADER_DATE             = "Date";
+
+    private boolean mNoStore;
+    private boolean mMustRevalidate;
+    private long    mMaxAge = -1;
+
+    private MblCacheControl() {}
+
+    /**
+     * <pre>
+     * Parse caching directives from response headers.
+     * "max-age" takes precedence over "Expires". "no-cache" is treated as "max-age=0, must-revalidate".
+     * </pre>
+     */
+    static MblCacheControl parse(Map<String, String> headers) {
+        MblCacheControl cc = new MblCacheControl();
+
+        String cacheControl = MblApi.getHeader(headers, HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-store")) {
+                    cc.mNoStore = true;
+                } else if (directive.equals("no-cache")) {
+                    cc.mMaxAge = 0;
+                    cc.mMustRevalidate = true;
+                } else if (directive.equals("must-revalidate")) {
+                    cc.mMustRevalidate = true;
+                } else if (directive.startsWith("max-age=") && cc.mMaxAge < 0) {
+                    try {
+                        cc.mMaxAge = Long.parseLong(directive.substring("max-age=".length()).replace("\"", "")) * 1000;
+                    } catch (NumberFormatException e) {
+                        Log.e(TAG, "Invalid max-age: " + directive, e);
+                    }
+                }
+            }
+        }
+
+        if (cc.mMaxAge < 0) {
+            String expires = MblApi.getHeader(headers, HEADER_EXPIRES);
+            if (expires != null) {
+                try {
+                    Date expiresDate = DateUtils.parseDate(expires);
+                    String date = MblApi.getHeader(headers, HEADER_DATE);
+                    long now = date != null ? DateUtils.parseDate(date).getTime() : System.currentTimeMillis();
+                    cc.mMaxAge = Math.max(0, expiresDate.getTime() - now);
+                } catch (DateParseException e) {
+                    // invalid date (e.g. "Expires: 0") means already expired
+                    cc.mMaxAge = 0;
+                }
+            }
+        }
+
+        return cc;
+    }
+
+    boolean isNoStore() {
+        return mNoStore;
+    }
+
+    boolean isMustRevalidate() {
+        return mMustRevalidate;
+    }
+
+    long getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * <pre>
+     * Store directives to cache record.
+     * </pre>
+     */
+    void applyTo(MblDatabaseCache c) {
+        c.setMaxAge(mMaxAge);
+        c.setMustRevalidate(mMustRevalidate);
+    }
+
+    /**
+     * <pre>
+     * Determine whether cache is enabled for a request.
+     * </pre>
+     */
+    static boolean isCacheEnabled(CachePolicy policy, long cacheDuration) {
+        return cacheDuration > 0 || policy == CachePolicy.SERVER || policy == CachePolicy.MAX;
+    }
+
+    /**
+     * <pre>
+     * Combine duration specified by client and freshness lifetime specified by server.
+     * </pre>
+     * @return duration in milliseconds, negative value means cache is never fresh
+     */
+    static long getEffectiveCacheDuration(CachePolicy policy, long cacheDuration, MblDatabaseCache c) {
+        long serverMaxAge = c.getMaxAge();
+        if (policy == null || policy == CachePolicy.CLIENT || serverMaxAge < 0) {
+            return cacheDuration;
+        }
+        switch (policy) {
+            case SERVER:
+                return serverMaxAge;
+            case MIN:
+                return Math.min(cacheDuration, serverMaxAge);
+            case MAX:
+                return Math.max(cacheDuration, serverMaxAge);
+            default:
+                return cacheDuration;
+        }
+    }
+
+    /**
+     * <pre>
+     * Determine whether cache is fresh enough to be returned without contacting server.
+     * </pre>
+     */
+    static boolean isFresh(CachePolicy policy, long cacheDuration, MblDatabaseCache c) {
+        return System.currentTimeMillis() - c.getDate() <= getEffectiveCacheDuration(policy, cacheDuration, c);
+    }
+
+    /**
+     * <pre>
+     * Determine whether expired cache can be returned when network is not available.
+     * </pre>
+     */
+    static boolean canServeStale(CachePolicy policy, MblDatabaseCache c) {
+        return policy == null || policy == CachePolicy.CLIENT || !c.isMustRevalidate();
+    }
+}
@@ -0,0 +1,219 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <pre>
+ * Handle of a cache file returned instead of a byte array, so that consumers (image decoders, media players, parsers) can read it without copying it into memory.
+ * Cache file is pinned while this handle is open: it is not evicted, and a newer response of the same URL is written to a new file instead of overwriting it.
+ * Handle MUST be closed when it is not needed anymore, otherwise cache file can never be evicted.
+ *
+ * Sample code:
+ * {@code
+ * public void onSuccess(MblResponse response) {
+ *      MblCacheFile cacheFile = response.getCacheFile();
+ *      try {
+ *          Bitmap bm = BitmapFactory.decodeFileDescriptor(cacheFile.getFileDescriptor());
+ *      } finally {
+ *          cacheFile.close();
+ *      }
+ * }
+ * }
+ * </pre>
+ * @see com.datdo.mobilib.api.MblRequest#setReturnCacheFile(boolean)
+ */
+public class MblCacheFile implements Closeable {
+
+    private static final String TAG = MblCacheFile.class.getSimpleName();
+
+    private final String            mKey;
+    private final File              mFile;
+    private final FileInputStream   mIn;
+    private boolean                 mClosed;
+
+    private MblCacheFile(String key, File file, FileInputStream in) {
+        mKey    = key;
+        mFile   = file;
+        mIn     = in;
+    }
+
+    /**
+     * <pre>
+     * Pin cache file of a record and open it.
+     * Compressed cache file can not be read without decompressing it, so it is rewritten uncompressed first.
+     * </pre>
+     * @throws FileNotFoundException if cache file does not exist
+     */
+    static MblCacheFile open(MblDatabaseCache c) throws IOException {
+        if (c.isCompressed()) {
+            c = decompress(c);
+        }
+        MblDiskCache.pin(c.getKey());
+        File file = MblDiskCache.getFile(c);
+        try {
+            // file is opened immediately so that its content stays readable even if it is replaced later
+            return new MblCacheFile(c.getKey(), file, new FileInputStream(file));
+        } catch (IOException e) {
+            MblDiskCache.unpin(c.getKey());
+            throw e;
+        }
+    }
+
+    // synchronized so that a file is decompressed only once when several requests open it at the same time
+    private static synchronized MblDatabaseCache decompress(MblDatabaseCache c) throws IOException {
+        MblDatabaseCache current = MblDiskCache.lookup(c.getKey());
+        if (current != null && !current.isCompressed()) {
+            return current;
+        }
+        MblDatabaseCache plain = new MblDatabaseCache(c.getKey(), c.getDate());
+        plain.setETag(c.getETag());
+        plain.setLastModified(c.getLastModified());
+        plain.setMaxAge(c.getMaxAge());
+        plain.setMustRevalidate(c.isMustRevalidate());
+        plain.setCompressed(false);
+        InputStream in = MblDiskCache.openInputStream(c);
+        try {
+            MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(plain);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                MblDiskCache.commit(plain, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return plain;
+    }
+
+    /**
+     * <pre>
+     * Cache file, e.g. to be passed to APIs which only accept a path.
+     * Path is valid until this handle is closed, unless cache is cleared via {@link MblApi#clearCache()}.
+     * Prefer {@link #getFileDescriptor()}, {@link #getChannel()} or {@link #map()}: they always refer to content at the time this handle was opened.
+     * </pre>
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * <pre>
+     * Length of file in bytes.
+     * </pre>
+     */
+    public long getLength() throws IOException {
+        return mIn.getChannel().size();
+    }
+
+    /**
+     * <pre>
+     * Descriptor of opened file, e.g. for {@link android.graphics.BitmapFactory#decodeFileDescriptor(FileDescriptor)} or {@link android.media.MediaPlayer#setDataSource(FileDescriptor)}.
+     * </pre>
+     */
+    public FileDescriptor getFileDescriptor() throws IOException {
+        return mIn.getFD();
+    }
+
+    /**
+     * <pre>
+     * Read-only channel of opened file. Channel is shared by all callers of this method, use positional reads if it is read by multiple threads.
+     * Channel is closed together with this handle.
+     * </pre>
+     */
+    public FileChannel getChannel() {
+        return mIn.getChannel();
+    }
+
+    /**
+     * <pre>
+     * Map whole file into memory as a read-only buffer. Pages are loaded by OS on demand, nothing is copied to Java heap.
+     * Buffer must not be used after this handle is closed.
+     * </pre>
+     */
+    public MappedByteBuffer map() throws IOException {
+        FileChannel channel = mIn.getChannel();
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    /**
+     * <pre>
+     * Open a new stream from beginning of file. Each stream has its own position, closing it does not close this handle.
+     * </pre>
+     */
+    public InputStream openStream() {
+        final FileChannel channel = mIn.getChannel();
+        return new InputStream() {
+
+            private long mPosition;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                if (count == 0) {
+                    return 0;
+                }
+                int n = channel.read(ByteBuffer.wrap(buffer, offset, count), mPosition);
+                if (n > 0) {
+                    mPosition += n;
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = Math.max(0, Math.min(n, channel.size() - mPosition));
+                mPosition += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.max(0, Math.min(Integer.MAX_VALUE, channel.size() - mPosition));
+            }
+        };
+    }
+
+    /**
+     * <pre>
+     * Close file and unpin it. Calling this method more than once has no effect.
+     * </pre>
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        try {
+            mIn.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close cache file: " + mFile, e);
+        }
+        MblDiskCache.unpin(mKey);
+    }
+}
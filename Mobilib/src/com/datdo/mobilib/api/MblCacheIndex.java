@@ -0,0 +1,172 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import com.datdo.mobilib.api.MblApiExecutor.Lane;
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <pre>
+ * In-memory mirror of cache records of GET responses (key, date, size, validators, ...).
+ * Records are loaded from database once in cache lane (see {@link MblApi#init()}), then kept in sync on writes, so that cache hit/miss can be decided without disk I/O.
+ * Until loading is done, lookups fall back to querying a single record from database, no thread waits for whole table to be loaded.
+ * Database remains the durable store.
+ * </pre>
+ */
+class MblCacheIndex {
+
+    private static final String TAG = MblCacheIndex.class.getSimpleName();
+
+    private static final Map<String, MblDatabaseCache> sEntries = new ConcurrentHashMap<String, MblDatabaseCache>();
+    private static final AtomicBoolean  sLoadScheduled  = new AtomicBoolean(false);
+    private static volatile boolean     sLoaded;
+
+    // keys written while table is being loaded, their loaded records are outdated
+    private static Set<String>          sChangedKeys;
+    private static boolean              sClearedWhileLoading;
+
+    private MblCacheIndex() {}
+
+    /**
+     * <pre>
+     * Load records from database in cache lane, if they are not loaded or being loaded yet.
+     * </pre>
+     */
+    static void loadAsync() {
+        if (sLoaded || !sLoadScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            MblApiExecutor.execute(Lane.CACHE, new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Failed to schedule loading of cache index", e);
+            sLoadScheduled.set(false);
+        }
+    }
+
+    private static void load() {
+        synchronized (MblCacheIndex.class) {
+            if (sLoaded) {
+                return;
+            }
+            sChangedKeys = new HashSet<String>();
+            sClearedWhileLoading = false;
+        }
+        List<MblDatabaseCache> all;
+        try {
+            all = MblDatabaseCache.getAll();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load cache index", e);
+            synchronized (MblCacheIndex.class) {
+                sChangedKeys = null;
+            }
+            sLoadScheduled.set(false);
+            return;
+        }
+        synchronized (MblCacheIndex.class) {
+            if (!sClearedWhileLoading) {
+                for (MblDatabaseCache c : all) {
+                    // records without cache file belong to other users of cache table (e.g. MblCacheMaster)
+                    if (c.getSize() > 0 && !sChangedKeys.contains(c.getKey())) {
+                        sEntries.put(c.getKey(), c);
+                    }
+                }
+            }
+            sChangedKeys = null;
+            sLoaded = true;
+        }
+        // first access to cache in this process, compare records with files
+        MblDiskCache.scheduleTrim();
+    }
+
+    static boolean isLoaded() {
+        return sLoaded;
+    }
+
+    /**
+     * <pre>
+     * Get a copy of cache record, which can be modified freely.
+     * </pre>
+     * @return NULL if record does not exist
+     */
+    static MblDatabaseCache get(String key) {
+        if (sLoaded) {
+            MblDatabaseCache c = sEntries.get(key);
+            return c != null ? copy(c) : null;
+        }
+        loadAsync();
+        MblDatabaseCache c = MblDatabaseCache.get(key);
+        return c != null && c.getSize() > 0 ? c : null;
+    }
+
+    /**
+     * <pre>
+     * Get copies of all cache records. Result is complete only after {@link #isLoaded()} returns true.
+     * </pre>
+     */
+    static List<MblDatabaseCache> getAll() {
+        List<MblDatabaseCache> ret = new ArrayList<MblDatabaseCache>();
+        for (MblDatabaseCache c : sEntries.values()) {
+            ret.add(copy(c));
+        }
+        return ret;
+    }
+
+    static void put(MblDatabaseCache c) {
+        synchronized (MblCacheIndex.class) {
+            if (sChangedKeys != null) {
+                sChangedKeys.add(c.getKey());
+            }
+            sEntries.put(c.getKey(), copy(c));
+        }
+    }
+
+    static void updateLastAccess(String key, long lastAccess) {
+        MblDatabaseCache c = sEntries.get(key);
+        if (c != null) {
+            c.setLastAccess(lastAccess);
+        }
+    }
+
+    static void remove(String key) {
+        synchronized (MblCacheIndex.class) {
+            if (sChangedKeys != null) {
+                sChangedKeys.add(key);
+            }
+            sEntries.remove(key);
+        }
+    }
+
+    static void clear() {
+        synchronized (MblCacheIndex.class) {
+            sClearedWhileLoading = sChangedKeys != null;
+            sEntries.clear();
+        }
+    }
+
+    private static MblDatabaseCache copy(MblDatabaseCache c) {
+        MblDatabaseCache ret = new MblDatabaseCache(c.getKey(), c.getDate());
+        ret.setETag(c.getETag());
+        ret.setLastModified(c.getLastModified());
+        ret.setMaxAge(c.getMaxAge());
+        ret.setMustRevalidate(c.isMustRevalidate());
+        ret.setSize(c.getSize());
+        ret.setLastAccess(c.getLastAccess());
+        ret.setCompressed(c.isCompressed());
+        return ret;
+    }
+}
@@ -0,0 +1,106 @@
+package com.datdo.mobilib.api;
+
+import android.net.Uri;
+
+import com.datdo.mobilib.util.MblUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <pre>
+ * Canonical cache key of GET requests, so that logically identical requests share the same cache record and cache file.
+ * Query parameters (in URL and in params) are decoded, re-encoded and sorted by name then by value.
+ * Scheme and host are lower-cased, fragment is dropped, volatile params (timestamps, tracking ids, ...) can be excluded.
+ * </pre>
+ */
+class MblCacheKey {
+
+    private MblCacheKey() {}
+
+    /**
+     * <pre>
+     * Generate cache key of a request.
+     * Custom generator of request takes precedence over canonical key.
+     * </pre>
+     */
+    static String generate(MblRequest request, Map<String, ? extends Object> params) {
+        if (request.getCacheKeyGenerator() != null) {
+            String key = request.getCacheKeyGenerator().generateCacheKey(request);
+            if (!MblUtils.isEmpty(key)) {
+                return key;
+            }
+        }
+
+        Set<String> excludedParams = new HashSet<String>(MblApi.getOptions().getExcludedCacheKeyParams());
+        excludedParams.addAll(request.getExcludedCacheKeyParams());
+        return generate(request.getUrl(), params, excludedParams);
+    }
+
+    /**
+     * <pre>
+     * Generate canonical cache key of an URL and its params.
+     * </pre>
+     */
+    static String generate(String url, Map<String, ? extends Object> params, Set<String> excludedParams) {
+
+        String base = url;
+        String query = null;
+        int fragmentIndex = base.indexOf('#');
+        if (fragmentIndex >= 0) {
+            base = base.substring(0, fragmentIndex);
+        }
+        int queryIndex = base.indexOf('?');
+        if (queryIndex >= 0) {
+            query = base.substring(queryIndex + 1);
+            base = base.substring(0, queryIndex);
+        }
+
+        List<String> pairs = new ArrayList<String>();
+        if (!MblUtils.isEmpty(query)) {
+            for (String pair : query.split("&")) {
+                if (pair.length() == 0) {
+                    continue;
+                }
+                int eqIndex = pair.indexOf('=');
+                String name  = Uri.decode(eqIndex >= 0 ? pair.substring(0, eqIndex) : pair);
+                String value = eqIndex >= 0 ? Uri.decode(pair.substring(eqIndex + 1)) : "";
+                if (!excludedParams.contains(name)) {
+                    pairs.add(Uri.encode(name) + "=" + Uri.encode(value));
+                }
+            }
+        }
+        if (!MblUtils.isEmpty(params)) {
+            for (String name : params.keySet()) {
+                if (!excludedParams.contains(name)) {
+                    pairs.add(Uri.encode(name) + "=" + Uri.encode(params.get(name).toString()));
+                }
+            }
+        }
+        Collections.sort(pairs);
+
+        StringBuilder sb = new StringBuilder(normalizeBase(base));
+        for (int i = 0; i < pairs.size(); i++) {
+            sb.append(i == 0 ? '?' : '&').append(pairs.get(i));
+        }
+        return sb.toString();
+    }
+
+    // scheme and host are case-insensitive, path is not
+    private static String normalizeBase(String base) {
+        int schemeEnd = base.indexOf("://");
+        if (schemeEnd < 0) {
+            return base;
+        }
+        int hostEnd = base.indexOf('/', schemeEnd + 3);
+        if (hostEnd < 0) {
+            return base.toLowerCase(Locale.US);
+        }
+        return base.substring(0, hostEnd).toLowerCase(Locale.US) + base.substring(hostEnd);
+    }
+}
@@ -0,0 +1,185 @@
+package com.datdo.mobilib.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <pre>
+ * HTTP content coding of {@link MblApi}, independent from {@link MblTransport}.
+ * Responses are requested with "Accept-Encoding: gzip, deflate" and decompressed transparently, so that callbacks, stream handlers and cache always see identity content.
+ * Request bodies are gzip-compressed on demand.
+ * </pre>
+ */
+class MblCompression {
+
+    static final String HEADER_ACCEPT_ENCODING  = "Accept-Encoding";
+    static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    static final String HEADER_CONTENT_LENGTH   = "Content-Length";
+    static final String ACCEPT_ENCODING         = "gzip, deflate";
+    static final String GZIP                    = "gzip";
+    static final String X_GZIP                  = "x-gzip";
+    static final String DEFLATE                 = "deflate";
+
+    private MblCompression() {}
+
+    /**
+     * <pre>
+     * Decompress response body according to its "Content-Encoding" header.
+     * Headers are updated to describe decompressed content.
+     * </pre>
+     */
+    static MblTransportResponse decompress(MblTransportResponse response) {
+        String coding = response.getHeader(HEADER_CONTENT_ENCODING);
+        if (coding == null) {
+            return response;
+        }
+        coding = coding.trim().toLowerCase(Locale.US);
+        boolean gzip = GZIP.equals(coding) || X_GZIP.equals(coding);
+        if (!gzip && !DEFLATE.equals(coding)) {
+            return response;
+        }
+        response.setBody(new DecompressingInputStream(response.getBody(), gzip));
+        removeHeader(response.getHeaders(), HEADER_CONTENT_ENCODING);
+        removeHeader(response.getHeaders(), HEADER_CONTENT_LENGTH);
+        return response;
+    }
+
+    /**
+     * <pre>
+     * Wrap request body so that it is gzip-compressed while being sent. Content length becomes unknown, body is sent with chunked transfer encoding.
+     * </pre>
+     */
+    static MblTransportBody gzip(final MblTransportBody body) {
+        return new MblTransportBody() {
+            @Override
+            public String getContentType() {
+                return body.getContentType();
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return GZIP;
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return body.isRepeatable();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                body.writeTo(gzip);
+                // finish compressed stream without closing underlying connection stream
+                gzip.finish();
+            }
+        };
+    }
+
+    /**
+     * <pre>
+     * Whether content of a MIME type is worth compressing. Images, audio, video and archives are already compressed.
+     * </pre>
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+        String type = contentType.toLowerCase(Locale.US);
+        return !(type.startsWith("image/")
+                || type.startsWith("audio/")
+                || type.startsWith("video/")
+                || type.contains("zip")
+                || type.contains("compress"));
+    }
+
+    private static void removeHeader(Map<String, String> headers, String name) {
+        Iterator<String> it = headers.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().equalsIgnoreCase(name)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * Decompressing stream which reads compression header on first read, so that empty bodies (e.g. of 304 responses) do not fail.
+     * </pre>
+     */
+    private static class DecompressingInputStream extends InputStream {
+
+        private final InputStream   mRaw;
+        private final boolean       mGzip;
+        private InputStream         mIn;
+
+        DecompressingInputStream(InputStream raw, boolean gzip) {
+            mRaw    = raw;
+            mGzip   = gzip;
+        }
+
+        private InputStream getStream() throws IOException {
+            if (mIn != null) {
+                return mIn;
+            }
+            PushbackInputStream pushback = new PushbackInputStream(mRaw, 2);
+            byte[] header = new byte[2];
+            int n = 0;
+            while (n < 2) {
+                int read = pushback.read(header, n, 2 - n);
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+            }
+            if (n == 0) {
+                mIn = pushback;
+                return mIn;
+            }
+            pushback.unread(header, 0, n);
+            if (mGzip) {
+                mIn = new GZIPInputStream(pushback);
+            } else {
+                // "deflate" is supposed to be zlib format, but some servers send raw deflate data
+                boolean zlib = n == 2
+                        && (header[0] & 0x0F) == 8
+                        && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+                mIn = new InflaterInputStream(pushback, new Inflater(!zlib));
+            }
+            return mIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return getStream().read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            return getStream().read(buffer, offset, count);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mIn != null) {
+                mIn.close();
+            } else {
+                mRaw.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.datdo.mobilib.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.datdo.mobilib.db.DBBase;
+
+/**
+ * <pre>
+ * Database table of {@link MblOutbox}, each record is a serialized request waiting to be sent.
+ * </pre>
+ */
+public class MblDatabaseOutbox extends DBBase {
+
+    private static final String TABLE           = "outbox";
+    private static final String COL_ID          = "id";
+    private static final String COL_QUEUE       = "queue";
+    private static final String COL_DEDUPE_KEY  = "dedupe_key";
+    private static final String COL_CREATED_AT  = "created_at";
+    private static final String COL_ATTEMPTS    = "attempts";
+    private static final String COL_REQUEST     = "request";
+
+    private static final String[] ALL_COLUMNS = new String[] {
+            COL_ID, COL_QUEUE, COL_DEDUPE_KEY, COL_CREATED_AT, COL_ATTEMPTS, COL_REQUEST };
+
+    private long        mId;
+    private String      mQueue;
+    private String      mDedupeKey;
+    private long        mCreatedAt;
+    private int         mAttempts;
+    private String      mRequest;
+
+    public static void createTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + "("
+                + COL_ID            + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + COL_QUEUE         + " TEXT NOT NULL,"
+                + COL_DEDUPE_KEY    + " TEXT,"
+                + COL_CREATED_AT    + " LONG,"
+                + COL_ATTEMPTS      + " INTEGER,"
+                + COL_REQUEST       + " TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE + "_index ON " + TABLE + "(" + COL_QUEUE + "," + COL_ID + ")");
+    }
+
+    public static void dropTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+    }
+
+    MblDatabaseOutbox() {}
+
+    MblDatabaseOutbox(String queue, String dedupeKey, long createdAt, String request) {
+        mQueue      = queue;
+        mDedupeKey  = dedupeKey;
+        mCreatedAt  = createdAt;
+        mRequest    = request;
+    }
+
+    /**
+     * <pre>
+     * Insert a record. If dedupe key is not empty, pending record of the same queue and dedupe key is updated in place instead,
+     * so that it keeps its id and its position in queue.
+     * </pre>
+     */
+    static void insert(MblDatabaseOutbox o) {
+        ContentValues values = new ContentValues();
+        values.put(COL_CREATED_AT, o.getCreatedAt());
+        values.put(COL_ATTEMPTS, o.getAttempts());
+        values.put(COL_REQUEST, o.getRequest());
+        if (o.getDedupeKey() != null) {
+            int updated = getDatabase().update(
+                    TABLE,
+                    values,
+                    COL_QUEUE + " = ? AND " + COL_DEDUPE_KEY + " = ?",
+                    new String[] { o.getQueue(), o.getDedupeKey() });
+            if (updated > 0) {
+                return;
+            }
+        }
+        values.put(COL_QUEUE, o.getQueue());
+        values.put(COL_DEDUPE_KEY, o.getDedupeKey());
+        o.mId = getDatabase().insert(TABLE, null, values);
+    }
+
+    /**
+     * <pre>
+     * Delete a record, only if it has not been replaced by {@link #insert(MblDatabaseOutbox)} since it was read.
+     * </pre>
+     */
+    static void delete(MblDatabaseOutbox o) {
+        getDatabase().delete(
+                TABLE,
+                COL_ID + " = ? AND " + COL_REQUEST + " = ?",
+                new String[] { String.valueOf(o.getId()), o.getRequest() });
+    }
+
+    static void deleteAll() {
+        getDatabase().delete(TABLE, null, null);
+    }
+
+    /**
+     * <pre>
+     * Update number of attempts of a record, only if it has not been replaced since it was read.
+     * </pre>
+     */
+    static void updateAttempts(MblDatabaseOutbox o) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ATTEMPTS, o.getAttempts());
+        getDatabase().update(
+                TABLE,
+                values,
+                COL_ID + " = ? AND " + COL_REQUEST + " = ?",
+                new String[] { String.valueOf(o.getId()), o.getRequest() });
+    }
+
+    /**
+     * <pre>
+     * Get current state of a record, NULL if it has been removed.
+     * </pre>
+     */
+    static MblDatabaseOutbox get(long id) {
+        Cursor cur = getDatabase().query(
+                TABLE,
+                ALL_COLUMNS,
+                COL_ID + " = ?",
+                new String[] { String.valueOf(id) },
+                null, null, null);
+        MblDatabaseOutbox ret = null;
+        if (cur.moveToNext()) {
+            ret = fromCursor(cur);
+        }
+        cur.close();
+        return ret;
+    }
+
+    /**
+     * <pre>
+     * Get oldest records of a queue, in insertion order.
+     * </pre>
+     */
+    static List<MblDatabaseOutbox> getPending(String queue, int limit) {
+        Cursor cur = getDatabase().query(
+                TABLE,
+                ALL_COLUMNS,
+                COL_QUEUE + " = ?",
+                new String[] { queue },
+                null, null,
+                COL_ID + " ASC",
+                String.valueOf(limit));
+        List<MblDatabaseOutbox> ret = new ArrayList<MblDatabaseOutbox>();
+        while (cur.moveToNext()) {
+            ret.add(fromCursor(cur));
+        }
+        cur.close();
+        return ret;
+    }
+
+    private static MblDatabaseOutbox fromCursor(Cursor cur) {
+        MblDatabaseOutbox o = new MblDatabaseOutbox();
+        o.mId           = cur.getLong(0);
+        o.mQueue        = cur.getString(1);
+        o.mDedupeKey    = cur.getString(2);
+        o.mCreatedAt    = cur.getLong(3);
+        o.mAttempts     = cur.getInt(4);
+        o.mRequest      = cur.getString(5);
+        return o;
+    }
+
+    static List<String> getQueues() {
+        Cursor cur = getDatabase().rawQuery("SELECT DISTINCT " + COL_QUEUE + " FROM " + TABLE, null);
+        List<String> ret = new ArrayList<String>();
+        while (cur.moveToNext()) {
+            ret.add(cur.getString(0));
+        }
+        cur.close();
+        return ret;
+    }
+
+    static int count() {
+        Cursor cur = getDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE, null);
+        int ret = 0;
+        if (cur.moveToNext()) {
+            ret = cur.getInt(0);
+        }
+        cur.close();
+        return ret;
+    }
+
+    long getId() {
+        return mId;
+    }
+
+    String getQueue() {
+        return mQueue;
+    }
+
+    String getDedupeKey() {
+        return mDedupeKey;
+    }
+
+    long getCreatedAt() {
+        return mCreatedAt;
+    }
+
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    void setAttempts(int attempts) {
+        mAttempts = attempts;
+    }
+
+    /**
+     * <pre>
+     * Request serialized as JSON.
+     * </pre>
+     */
+    String getRequest() {
+        return mRequest;
+    }
+}
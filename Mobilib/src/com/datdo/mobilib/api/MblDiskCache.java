@@ -0,0 +1,489 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import com.datdo.mobilib.api.MblApiOptions.MblCacheSyncPolicy;
+import com.datdo.mobilib.cache.MblDatabaseCache;
+import com.datdo.mobilib.util.MblUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <pre>
+ * Size-bounded disk cache of GET responses.
+ * Cache files are stored in a dedicated sub-folder of app 's cache folder, their size and last access time are tracked in cache table.
+ * When total size exceeds {@link MblApiOptions#getMaxCacheSize()}, least recently used files are evicted in background, batch by batch.
+ * Lookups are served by {@link MblCacheIndex}, database is only written.
+ * Cache files are gzip-compressed if {@link MblDatabaseCache#isCompressed()}, they must be accessed via {@link #openOutputStream(MblDatabaseCache)}, {@link #openInputStream(MblDatabaseCache)} and {@link #read(MblDatabaseCache)}.
+ * Files handed out via {@link MblCacheFile} are pinned: they are skipped by eviction until they are unpinned.
+ *
+ * Writes are crash-safe: data is written to a temporary file, synced according to {@link MblApiOptions#getCacheSyncPolicy()}, renamed over cache file,
+ * and only then cache record is saved. A cache file is therefore either complete or absent, never truncated.
+ * Records whose file does not match them (e.g. lost by power failure) and files without record are cleaned up once at start.
+ * </pre>
+ */
+class MblDiskCache {
+
+    private static final String TAG = MblDiskCache.class.getSimpleName();
+
+    static final String DIR_NAME            = "mblapi";
+    private static final String TRASH_PREFIX = DIR_NAME + "-trash-";
+    private static final int EVICTION_BATCH = 20;
+    private static final String TEMP_INFIX  = ".tmp-";
+
+    // temporary files of this process are in progress, those of previous processes are leftovers of crashes
+    private static final String             sSession            = Long.toHexString(new Random().nextLong());
+    private static final AtomicLong         sTempCounter        = new AtomicLong();
+
+    private static final AtomicBoolean      sTrimScheduled      = new AtomicBoolean(false);
+    private static final AtomicBoolean      sTrashCleaned       = new AtomicBoolean(false);
+    private static final AtomicBoolean      sVerified           = new AtomicBoolean(false);
+    private static final Map<String, Integer> sPins             = new HashMap<String, Integer>();
+    private static final ExecutorService    sEvictor            = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "MblApi-CacheEvictor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    private MblDiskCache() {}
+
+    /**
+     * <pre>
+     * Get cache file name relative to app 's cache folder.
+     * </pre>
+     */
+    static String getFileName(MblDatabaseCache c) {
+        if (c != null && !MblUtils.isEmpty(c.getKey())) {
+            return DIR_NAME + "/" + MblUtils.md5(c.getKey());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * <pre>
+     * Get cache file, creating cache folder if it does not exist.
+     * </pre>
+     */
+    static File getFile(MblDatabaseCache c) {
+        getDir().mkdirs();
+        return new File(MblUtils.getCacheAsbPath(getFileName(c)));
+    }
+
+    /**
+     * <pre>
+     * Open a temporary file for writing cache file, compressing data if cache record is compressed.
+     * Data replaces cache file only when it is committed via {@link #commit(MblDatabaseCache, CacheOutputStream)}, stream must be closed in any case.
+     * </pre>
+     */
+    static CacheOutputStream openOutputStream(MblDatabaseCache c) throws IOException {
+        File file = getFile(c);
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_INFIX + sSession + "-" + sTempCounter.incrementAndGet());
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        if (!c.isCompressed()) {
+            return new CacheOutputStream(tempFile, fileOut, fileOut);
+        }
+        try {
+            return new CacheOutputStream(tempFile, fileOut, new GZIPOutputStream(fileOut, 8192));
+        } catch (IOException e) {
+            fileOut.close();
+            tempFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * <pre>
+     * Open cache file for reading, decompressing data if cache record is compressed.
+     * </pre>
+     */
+    static InputStream openInputStream(MblDatabaseCache c) throws IOException {
+        InputStream in = new FileInputStream(MblUtils.getCacheAsbPath(getFileName(c)));
+        if (!c.isCompressed()) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, 8192);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * <pre>
+     * Read whole content of cache file.
+     * </pre>
+     * @throws FileNotFoundException if cache file does not exist (e.g. cache folder is cleared by OS), caller should invalidate cache record
+     */
+    static byte[] read(MblDatabaseCache c) throws IOException {
+        InputStream in = openInputStream(c);
+        try {
+            long sizeHint = c.isCompressed() ? c.getSize() * 4 : c.getSize();
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(Math.min(Integer.MAX_VALUE, sizeHint), 32));
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * <pre>
+     * Check that cache file exists, without reading it.
+     * </pre>
+     * @throws FileNotFoundException if cache file does not exist, caller should invalidate cache record
+     */
+    static void checkFile(MblDatabaseCache c) throws FileNotFoundException {
+        File file = new File(MblUtils.getCacheAsbPath(getFileName(c)));
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Cache file does not exist: " + file);
+        }
+    }
+
+    /**
+     * <pre>
+     * Protect cache file of a key from eviction. Pins are counted, each pin must be released by {@link #unpin(String)}.
+     * </pre>
+     */
+    static void pin(String key) {
+        synchronized (sPins) {
+            Integer count = sPins.get(key);
+            sPins.put(key, count != null ? count + 1 : 1);
+        }
+    }
+
+    static void unpin(String key) {
+        synchronized (sPins) {
+            Integer count = sPins.get(key);
+            if (count == null || count <= 1) {
+                sPins.remove(key);
+            } else {
+                sPins.put(key, count - 1);
+            }
+        }
+    }
+
+    static boolean isPinned(String key) {
+        synchronized (sPins) {
+            return sPins.containsKey(key);
+        }
+    }
+
+    private static int getPinnedCount() {
+        synchronized (sPins) {
+            return sPins.size();
+        }
+    }
+
+    private static File getDir() {
+        return new File(MblUtils.getCurrentContext().getCacheDir(), DIR_NAME);
+    }
+
+    /**
+     * <pre>
+     * Get cache record which has cache file, without disk I/O.
+     * </pre>
+     * @return NULL if cache does not exist
+     */
+    static MblDatabaseCache lookup(String key) {
+        return MblCacheIndex.get(key);
+    }
+
+    /**
+     * <pre>
+     * Publish written cache file, then save its cache record and trim cache if needed.
+     * Concurrent writers of the same key do not interleave: last committed file wins together with its record.
+     * </pre>
+     */
+    static void commit(MblDatabaseCache c, CacheOutputStream out) throws IOException {
+        long size = out.finish(MblApi.getOptions().getCacheSyncPolicy() == MblCacheSyncPolicy.ALWAYS);
+        synchronized (MblDiskCache.class) {
+            out.publish(getFile(c));
+            c.setSize(size);
+            save(c);
+        }
+        scheduleTrim();
+    }
+
+    /**
+     * <pre>
+     * Save updated cache record whose file is not changed (e.g. revalidated by server), then trim cache if needed.
+     * </pre>
+     */
+    static void commit(MblDatabaseCache c) {
+        synchronized (MblDiskCache.class) {
+            save(c);
+        }
+        scheduleTrim();
+    }
+
+    private static void save(MblDatabaseCache c) {
+        MblParsedCache.remove(c.getKey());
+        c.setLastAccess(System.currentTimeMillis());
+        MblDatabaseCache.upsert(c);
+        if (c.getSize() > 0) {
+            MblCacheIndex.put(c);
+        } else {
+            MblCacheIndex.remove(c.getKey());
+        }
+    }
+
+    /**
+     * <pre>
+     * Mark cache record as recently used. Database is updated in background.
+     * </pre>
+     */
+    static void touch(final MblDatabaseCache c) {
+        final long now = System.currentTimeMillis();
+        c.setLastAccess(now);
+        MblCacheIndex.updateLastAccess(c.getKey(), now);
+        sEvictor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MblDatabaseCache.updateLastAccess(c.getKey(), now);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to update last access of cache: " + c.getKey(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * <pre>
+     * Delete a cache record whose file turns out to be missing or broken.
+     * </pre>
+     */
+    static void invalidate(MblDatabaseCache c) {
+        MblParsedCache.remove(c.getKey());
+        MblCacheIndex.remove(c.getKey());
+        new File(MblUtils.getCacheAsbPath(getFileName(c))).delete();
+        MblDatabaseCache.deleteByKey(c.getKey());
+    }
+
+    /**
+     * <pre>
+     * Delete all cache files and records.
+     * Cache folder is renamed so that it is cleared immediately, files are deleted in background.
+     * </pre>
+     */
+    static synchronized void clear() {
+        File dir = getDir();
+        if (dir.exists()) {
+            File trash = new File(dir.getParentFile(), TRASH_PREFIX + System.currentTimeMillis());
+            if (!dir.renameTo(trash)) {
+                MblUtils.clearDir(dir);
+            }
+        }
+        MblDatabaseCache.deleteAll();
+        MblCacheIndex.clear();
+        MblParsedCache.clear();
+        sTrashCleaned.set(false);
+        scheduleTrim();
+    }
+
+    static void scheduleTrim() {
+        if (sTrimScheduled.compareAndSet(false, true)) {
+            sEvictor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sTrimScheduled.set(false);
+                    try {
+                        cleanTrash();
+                        verify();
+                        trim();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to trim cache", e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void cleanTrash() {
+        if (!sTrashCleaned.compareAndSet(false, true)) {
+            return;
+        }
+        File[] files = getDir().getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory() && f.getName().startsWith(TRASH_PREFIX)) {
+                MblUtils.clearDir(f);
+                f.delete();
+            }
+        }
+    }
+
+    // held with class lock so that no cache file is published while records and files are compared
+    private static synchronized void verify() {
+        // records are compared with files only when all of them are loaded, otherwise files of unloaded records look orphaned
+        if (!MblCacheIndex.isLoaded() || !sVerified.compareAndSet(false, true)) {
+            return;
+        }
+        Set<String> validNames = new HashSet<String>();
+        for (MblDatabaseCache c : MblCacheIndex.getAll()) {
+            File file = new File(MblUtils.getCacheAsbPath(getFileName(c)));
+            if (file.length() != c.getSize()) {
+                Log.w(TAG, "Drop cache whose file is missing or incomplete: " + c.getKey());
+                invalidate(c);
+            } else {
+                validNames.add(file.getName());
+            }
+        }
+        File[] files = getDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        String sessionTempInfix = TEMP_INFIX + sSession + "-";
+        for (File f : files) {
+            String name = f.getName();
+            if (name.contains(sessionTempInfix) || validNames.contains(name)) {
+                continue;
+            }
+            // orphan file, or temporary file of a write interrupted by crash
+            f.delete();
+        }
+    }
+
+    // evict one batch at a time so that other cache I/O is not blocked for long
+    private static void trim() {
+        long maxSize = MblApi.getOptions().getMaxCacheSize();
+        if (maxSize <= 0) {
+            return;
+        }
+        long totalSize = MblDatabaseCache.getTotalSize();
+        if (totalSize <= maxSize) {
+            return;
+        }
+
+        // pinned files are skipped, query enough records so that a batch can still be evicted
+        List<MblDatabaseCache> caches = MblDatabaseCache.getLeastRecentlyUsed(EVICTION_BATCH + getPinnedCount());
+        int evicted = 0;
+        for (MblDatabaseCache c : caches) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (isPinned(c.getKey())) {
+                continue;
+            }
+            invalidate(c);
+            totalSize -= c.getSize();
+            evicted++;
+        }
+
+        if (totalSize > maxSize && evicted > 0) {
+            scheduleTrim();
+        }
+    }
+
+    /**
+     * <pre>
+     * Stream writing to a temporary file of a cache file. Closing it without committing discards written data.
+     * </pre>
+     */
+    static class CacheOutputStream extends OutputStream {
+
+        private final File              mTempFile;
+        private final FileOutputStream  mFileOut;
+        private final OutputStream      mOut;
+        private boolean                 mPublished;
+
+        private CacheOutputStream(File tempFile, FileOutputStream fileOut, OutputStream out) {
+            mTempFile   = tempFile;
+            mFileOut    = fileOut;
+            mOut        = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOut.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        /**
+         * <pre>
+         * Complete file, optionally sync it to storage device.
+         * </pre>
+         * @return size of file
+         */
+        private long finish(boolean sync) throws IOException {
+            if (mOut instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) mOut).finish();
+            }
+            mOut.flush();
+            if (sync) {
+                mFileOut.getFD().sync();
+            }
+            mFileOut.close();
+            return mTempFile.length();
+        }
+
+        /**
+         * <pre>
+         * Atomically replace cache file. Old file is unlinked rather than truncated, pinned readers (including memory mappings) keep its content.
+         * </pre>
+         */
+        private void publish(File file) throws IOException {
+            if (!mTempFile.renameTo(file)) {
+                file.delete();
+                if (!mTempFile.renameTo(file)) {
+                    throw new IOException("Failed to rename " + mTempFile + " to " + file);
+                }
+            }
+            mPublished = true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                // also releases native memory of compressor
+                mOut.close();
+            } catch (IOException e) {
+                // data is discarded anyway
+            }
+            if (!mPublished) {
+                mTempFile.delete();
+            }
+        }
+    }
+}
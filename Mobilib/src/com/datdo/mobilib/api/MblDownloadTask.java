@@ -0,0 +1,338 @@
+package com.datdo.mobilib.api;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.MblDownloadProgressListener;
+import com.datdo.mobilib.util.MblUtils;
+
+import org.apache.http.HttpStatus;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <pre>
+ * Network task which downloads response body of a GET request to file.
+ * Data is appended to "[file].part", validators of resource are kept in "[file].part.meta" so that download can be resumed by next attempts, even after process death.
+ * Resumed download is sent with "Range" and "If-Range" headers: server either returns remaining bytes (206) or whole resource if it has changed (200).
+ * </pre>
+ */
+class MblDownloadTask implements Runnable {
+
+    private static final String TAG = MblDownloadTask.class.getSimpleName();
+
+    private static final String PART_SUFFIX             = ".part";
+    private static final String META_SUFFIX            = ".part.meta";
+
+    private static final String HEADER_ETAG             = "ETag";
+    private static final String HEADER_LAST_MODIFIED    = "Last-Modified";
+    private static final String HEADER_RANGE            = "Range";
+    private static final String HEADER_IF_RANGE         = "If-Range";
+    private static final String HEADER_CONTENT_RANGE    = "Content-Range";
+    private static final String HEADER_CONTENT_LENGTH   = "Content-Length";
+
+    // "bytes 100-199/1000" or "bytes 100-199/*"
+    private static final Pattern CONTENT_RANGE_PATTERN  = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final String                mFullUrl;
+    private final MblRequest            mRequest;
+    private final MblApiCallback        mCallback;
+    private final Handler               mCallbackHandler;
+    private final MblRequestHandle      mHandle;
+    private final MblRequestMetrics     mMetrics;
+    private long                        mLastReportedAt;
+
+    MblDownloadTask(String fullUrl, MblRequest request, MblApiCallback callback, Handler callbackHandler, MblRequestHandle handle, MblRequestMetrics metrics) {
+        mFullUrl            = fullUrl;
+        mRequest            = request;
+        mCallback           = callback;
+        mCallbackHandler    = callbackHandler;
+        mHandle             = handle;
+        mMetrics            = metrics;
+    }
+
+    @Override
+    public void run() {
+
+        mMetrics.onStart();
+
+        File target     = mRequest.getDownloadFile();
+        File part       = new File(target.getPath() + PART_SUFFIX);
+        File metaFile   = new File(target.getPath() + META_SUFFIX);
+
+        MblTransportRequest httpGet = MblApi.newTransportRequest(mRequest, "GET", mFullUrl).setMetrics(mMetrics);
+        MblTransportResponse response = null;
+        int statusCode;
+        String statusCodeReason;
+        Map<String, String> headers = null;
+        byte[] data = null;
+        boolean networkError = false;
+        boolean success = false;
+        boolean sent = false;
+        boolean transferred = false;
+        try {
+            mHandle.attach(httpGet);
+
+            // byte ranges refer to encoded content, therefore response must not be compressed
+            httpGet.setHeader(MblCompression.HEADER_ACCEPT_ENCODING, "identity");
+
+            // resume only if downloaded part can be validated
+            Meta meta = Meta.load(metaFile);
+            long offset = 0;
+            if (meta != null && mFullUrl.equals(meta.mUrl) && meta.getIfRangeValidator() != null && part.exists()) {
+                offset = part.length();
+                if (meta.mTotal >= 0 && offset > meta.mTotal) {
+                    offset = 0;
+                }
+            }
+            if (offset > 0) {
+                httpGet.setHeader(HEADER_RANGE, "bytes=" + offset + "-");
+                httpGet.setHeader(HEADER_IF_RANGE, meta.getIfRangeValidator());
+            } else {
+                part.delete();
+                metaFile.delete();
+                meta = null;
+            }
+
+            sent = true;
+            response = MblApi.execute(mRequest, httpGet);
+            mMetrics.setCacheTier(MblRequestMetrics.CacheTier.NETWORK);
+
+            statusCode = response.getStatusCode();
+            statusCodeReason = response.getStatusCodeReason();
+            headers = response.getHeaders();
+
+            long total;
+            if (statusCode == HttpStatus.SC_PARTIAL_CONTENT && offset > 0) {
+                long[] range = parseContentRange(MblApi.getHeader(headers, HEADER_CONTENT_RANGE));
+                String eTag = MblApi.getHeader(headers, HEADER_ETAG);
+                if (range == null
+                        || range[0] != offset
+                        || (meta.mTotal >= 0 && range[1] >= 0 && range[1] != meta.mTotal)
+                        || (meta.mETag != null && eTag != null && !meta.mETag.equals(eTag))) {
+                    // start over in next attempt
+                    part.delete();
+                    metaFile.delete();
+                    throw new IOException("Partial content does not match downloaded part: " + MblApi.getHeader(headers, HEADER_CONTENT_RANGE));
+                }
+                total = range[1] >= 0 ? range[1] : meta.mTotal;
+            } else if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+                part.delete();
+                metaFile.delete();
+                throw new IOException("Downloaded part is not valid anymore");
+            } else if (mRequest.getStatusCodeValidator().isSuccess(statusCode)) {
+                // whole resource: first attempt, or resource has changed
+                offset = 0;
+                total = parseLength(MblApi.getHeader(headers, HEADER_CONTENT_LENGTH));
+                meta = new Meta(
+                        mFullUrl,
+                        MblApi.getHeader(headers, HEADER_ETAG),
+                        MblApi.getHeader(headers, HEADER_LAST_MODIFIED),
+                        total);
+                meta.save(metaFile);
+            } else {
+                data = response.readBody();
+                total = -1;
+            }
+
+            if (data == null) {
+                write(response.getBody(), part, offset, total);
+                if (total >= 0 && part.length() != total) {
+                    throw new IOException("Incomplete download: " + part.length() + "/" + total + " bytes");
+                }
+                // failures from here on are local, retrying does not help
+                transferred = true;
+                if (target.exists() && !target.delete()) {
+                    throw new IOException("Can not replace " + target);
+                }
+                if (!part.renameTo(target)) {
+                    throw new IOException("Can not rename " + part + " to " + target);
+                }
+                metaFile.delete();
+                success = true;
+            }
+        } catch (Exception e) {
+            httpGet.abort();
+            Log.e(TAG, "Download failed: " + mFullUrl, e);
+            statusCode = -1;
+            statusCodeReason = "Unexpected exception: " + e.getMessage();
+            networkError = sent && !transferred && MblApi.isNetworkError(e);
+        } finally {
+            MblApi.closeQuietly(response);
+        }
+
+        mMetrics.finish();
+        MblApiMetrics.record(mRequest, statusCode, mMetrics);
+
+        if (mCallback != null) {
+            final boolean fSuccess = success;
+            final MblResponse mblResponse = new MblResponse()
+                    .setRequest(mRequest)
+                    .setStatusCode(statusCode)
+                    .setStatusCodeReason(statusCodeReason)
+                    .setNetworkError(networkError)
+                    .setHeaders(headers)
+                    .setData(data)
+                    .setMetrics(mMetrics);
+            MblUtils.executeOnHandlerThread(mCallbackHandler, new Runnable() {
+                @Override
+                public void run() {
+                    if (fSuccess) {
+                        mCallback.onSuccess(mblResponse);
+                    } else {
+                        mCallback.onFailure(mblResponse);
+                    }
+                }
+            });
+        }
+    }
+
+    private void write(InputStream in, File part, long offset, long total) throws IOException {
+        long downloaded = offset;
+        report(downloaded, total, true);
+        OutputStream out = new FileOutputStream(part, offset > 0);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                downloaded += n;
+                report(downloaded, total, false);
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+        report(downloaded, total, true);
+    }
+
+    private void report(final long downloaded, final long total, boolean force) {
+        final MblDownloadProgressListener listener = mRequest.getDownloadProgressListener();
+        if (listener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!force && now - mLastReportedAt < mRequest.getDownloadProgressInterval()) {
+            return;
+        }
+        mLastReportedAt = now;
+        MblUtils.executeOnHandlerThread(mCallbackHandler, new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(downloaded, total);
+            }
+        });
+    }
+
+    /**
+     * @return length, or -1 if header is missing or invalid
+     */
+    private static long parseLength(String contentLength) {
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return {first byte position, complete length or -1 if unknown}, or NULL if header is invalid
+     */
+    static long[] parseContentRange(String contentRange) {
+        if (contentRange == null) {
+            return null;
+        }
+        Matcher m = CONTENT_RANGE_PATTERN.matcher(contentRange.trim());
+        if (!m.matches()) {
+            return null;
+        }
+        try {
+            return new long[] {
+                    Long.parseLong(m.group(1)),
+                    "*".equals(m.group(3)) ? -1 : Long.parseLong(m.group(3))
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <pre>
+     * Validators and length of resource being downloaded, persisted next to downloaded part.
+     * </pre>
+     */
+    private static class Meta {
+
+        private static final String JSON_URL            = "url";
+        private static final String JSON_ETAG           = "etag";
+        private static final String JSON_LAST_MODIFIED  = "last_modified";
+        private static final String JSON_TOTAL          = "total";
+
+        final String    mUrl;
+        final String    mETag;
+        final String    mLastModified;
+        final long      mTotal;
+
+        Meta(String url, String eTag, String lastModified, long total) {
+            mUrl            = url;
+            mETag           = eTag;
+            mLastModified   = lastModified;
+            mTotal          = total;
+        }
+
+        /**
+         * <pre>
+         * Weak ETags can not be used for "If-Range", "Last-Modified" is used instead.
+         * </pre>
+         */
+        String getIfRangeValidator() {
+            if (mETag != null && !mETag.startsWith("W/")) {
+                return mETag;
+            }
+            return mLastModified;
+        }
+
+        static Meta load(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                JSONObject json = new JSONObject(new String(MblUtils.readFile(file.getAbsolutePath()), "UTF-8"));
+                return new Meta(
+                        json.getString(JSON_URL),
+                        json.isNull(JSON_ETAG) ? null : json.optString(JSON_ETAG),
+                        json.isNull(JSON_LAST_MODIFIED) ? null : json.optString(JSON_LAST_MODIFIED),
+                        json.optLong(JSON_TOTAL, -1));
+            } catch (Exception e) {
+                Log.e(TAG, "Broken download meta: " + file, e);
+                return null;
+            }
+        }
+
+        void save(File file) throws IOException {
+            try {
+                JSONObject json = new JSONObject();
+                json.put(JSON_URL, mUrl);
+                json.put(JSON_ETAG, mETag);
+                json.put(JSON_LAST_MODIFIED, mLastModified);
+                json.put(JSON_TOTAL, mTotal);
+                MblUtils.saveFile(json.toString().getBytes("UTF-8"), file.getAbsolutePath());
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.datdo.mobilib.api;
+
+/**
+ * <pre>
+ * Distribution of non-negative values (times, sizes) with bounded memory.
+ * Values are counted in exponential buckets (bucket i holds values in [2^(i-1), 2^i)), percentiles are interpolated within a bucket.
+ * Objects returned by {@link MblApiMetrics} are snapshots, they are not updated later.
+ * </pre>
+ */
+public class MblHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final long[]    mBuckets = new long[BUCKET_COUNT];
+    private long            mCount;
+    private long            mSum;
+    private long            mMin = Long.MAX_VALUE;
+    private long            mMax = Long.MIN_VALUE;
+
+    MblHistogram() {}
+
+    @Override
+    public synchronized String toString() {
+        return "{COUNT=" + mCount
+                + ", MIN=" + getMin()
+                + ", MEAN=" + getMean()
+                + ", P50=" + getPercentile(50)
+                + ", P90=" + getPercentile(90)
+                + ", P99=" + getPercentile(99)
+                + ", MAX=" + getMax() + "}";
+    }
+
+    synchronized void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        mBuckets[bucketOf(value)]++;
+        mCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    synchronized MblHistogram copy() {
+        MblHistogram h = new MblHistogram();
+        System.arraycopy(mBuckets, 0, h.mBuckets, 0, BUCKET_COUNT);
+        h.mCount    = mCount;
+        h.mSum      = mSum;
+        h.mMin      = mMin;
+        h.mMax      = mMax;
+        return h;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getSum() {
+        return mSum;
+    }
+
+    /**
+     * <pre>
+     * -1 if histogram is empty.
+     * </pre>
+     */
+    public synchronized long getMin() {
+        return mCount > 0 ? mMin : -1;
+    }
+
+    /**
+     * <pre>
+     * -1 if histogram is empty.
+     * </pre>
+     */
+    public synchronized long getMax() {
+        return mCount > 0 ? mMax : -1;
+    }
+
+    /**
+     * <pre>
+     * -1 if histogram is empty.
+     * </pre>
+     */
+    public synchronized double getMean() {
+        return mCount > 0 ? (double) mSum / mCount : -1;
+    }
+
+    /**
+     * <pre>
+     * Approximate value below which a percentage of values fall.
+     * </pre>
+     * @param percentile from 0 to 100
+     * @return -1 if histogram is empty
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return -1;
+        }
+        double rank = Math.max(0, Math.min(100, percentile)) / 100 * mCount;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (mBuckets[i] == 0) {
+                continue;
+            }
+            if (seen + mBuckets[i] >= rank) {
+                long lower = Math.max(i == 0 ? 0 : 1L << (i - 1), mMin);
+                long upper = i == 0 ? 0 : (i == BUCKET_COUNT - 1 ? mMax : Math.min((1L << i) - 1, mMax));
+                double fraction = (rank - seen) / mBuckets[i];
+                return lower + Math.round((upper - lower) * fraction);
+            }
+            seen += mBuckets[i];
+        }
+        return mMax;
+    }
+
+    private static int bucketOf(long value) {
+        // 0 -> 0, 1 -> 1, 2..3 -> 2, 4..7 -> 3, ...
+        return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+    }
+}
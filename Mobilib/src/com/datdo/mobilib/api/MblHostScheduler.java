@@ -0,0 +1,421 @@
+package com.datdo.mobilib.api;
+
+import android.net.Uri;
+
+import com.datdo.mobilib.api.MblApi.Priority;
+import com.datdo.mobilib.api.MblApiExecutor.Lane;
+import com.datdo.mobilib.api.MblApiOptions.MblBackgroundPolicy;
+import com.datdo.mobilib.api.MblApiOptions.MblRejectionPolicy;
+import com.datdo.mobilib.event.MblCommonEvents;
+import com.datdo.mobilib.event.MblEventCenter;
+import com.datdo.mobilib.event.MblStrongEventListener;
+import com.datdo.mobilib.util.MblUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <pre>
+ * Admission control of network tasks, per host.
+ * A task is dispatched to network lane only when its host has fewer in-flight requests than the limit and, if rate limit is enabled, a token is available.
+ * Pending tasks of a host are ordered by priority, then by submission order.
+ * {@link Priority#PREFETCH} tasks are dispatched to prefetch lane, and are held or throttled while app is in background according to {@link MblBackgroundPolicy}.
+ * At most {@link MblApiOptions#getPrefetchMaxPoolSize()} prefetch tasks of a host are dispatched at once, and they count as in-flight only while running,
+ * so that prefetch tasks waiting for a thread of prefetch lane do not block other requests of the same host.
+ *
+ * Pending tasks of a host are bounded by {@link MblApiOptions#getNetworkQueueCapacity()}, {@link MblRejectionPolicy} is applied when a task is submitted to a full queue.
+ * Dispatching never blocks and never runs a task in the dispatching thread: tasks which do not fit in their lane stay in queue of host and are dispatched later.
+ * </pre>
+ */
+class MblHostScheduler {
+
+    /**
+     * <pre>
+     * Callback when task can not be admitted because queue of its host is full, according to {@link MblRejectionPolicy}.
+     * </pre>
+     */
+    static interface RejectionHandler {
+        void onRejected(RejectedExecutionException e);
+    }
+
+    private static class Task implements Comparable<Task> {
+
+        final Priority          mPriority;
+        final int               mMaxInFlight;
+        final Runnable          mAction;
+        // submission order, assigned when task is added to queue
+        long                    mSeq;
+
+        Task(Priority priority, int maxInFlight, Runnable action) {
+            mPriority           = priority;
+            mMaxInFlight        = maxInFlight;
+            mAction             = action;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (mPriority != another.mPriority) {
+                return mPriority.ordinal() - another.mPriority.ordinal();
+            }
+            return mSeq < another.mSeq ? -1 : (mSeq > another.mSeq ? 1 : 0);
+        }
+    }
+
+    static class Host {
+
+        final PriorityQueue<Task>   mQueue = new PriorityQueue<Task>();
+        // running tasks, prefetch tasks are counted only when they start
+        int                         mInFlight;
+        // dispatched prefetch tasks, running or waiting in prefetch lane
+        int                         mPrefetchInFlight;
+
+        // token bucket, disabled when rate <= 0
+        double                      mRate;
+        int                         mBurst;
+        double                      mTokens;
+        long                        mLastRefillAt;
+        boolean                     mPumpScheduled;
+
+        // host-wide configuration from MblApiOptions, bucket is refilled when it changes
+        double                      mOptionsRate;
+        int                         mOptionsBurst;
+
+        /**
+         * <pre>
+         * Apply rate limit of a request. Tokens are kept when rate changes, so that requests with different rates can not bypass limit.
+         * </pre>
+         * @param reset TRUE to refill bucket, when host-wide configuration changes
+         */
+        void configureRate(double rate, int burst, boolean reset) {
+            burst = Math.max(1, burst);
+            if (rate <= 0) {
+                mRate = rate;
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (reset || mRate <= 0) {
+                mTokens = burst;
+            } else {
+                refill(now);
+                mTokens = Math.min(burst, mTokens);
+            }
+            mRate           = rate;
+            mBurst          = burst;
+            mLastRefillAt   = now;
+        }
+
+        private void refill(long now) {
+            mTokens = Math.min(mBurst, mTokens + (now - mLastRefillAt) * mRate / 1000);
+            mLastRefillAt = now;
+        }
+
+        /**
+         * <pre>
+         * Give back a token taken for a task which could not be dispatched.
+         * </pre>
+         */
+        void refundToken() {
+            if (mRate > 0) {
+                mTokens = Math.min(mBurst, mTokens + 1);
+            }
+        }
+
+        /**
+         * @return 0 if a token is taken, otherwise milliseconds to wait for next token
+         */
+        long tryAcquireToken() {
+            if (mRate <= 0) {
+                return 0;
+            }
+            refill(System.currentTimeMillis());
+            if (mTokens >= 1) {
+                mTokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - mTokens) * 1000 / mRate));
+        }
+    }
+
+    private static final long               REJECTED_RETRY_DELAY = 100;
+
+    private static final Map<String, Host>  sHosts = new HashMap<String, Host>();
+    private static long                     sSeq;
+    private static boolean                  sInBackground;
+    private static boolean                  sInitialized;
+
+    private MblHostScheduler() {}
+
+    /**
+     * <pre>
+     * Start listening to {@link MblCommonEvents#GO_TO_BACKGROUND} and {@link MblCommonEvents#GO_TO_FOREGROUND}, which control prefetch tasks.
+     * Called by {@link MblApi#init()}, and again before the first task is submitted in case app does not call it. Calling it more than once has no effect.
+     * </pre>
+     */
+    static synchronized void init() {
+        if (sInitialized) {
+            return;
+        }
+        sInitialized = true;
+        MblEventCenter.addListener(new MblStrongEventListener() {
+            @Override
+            public void onEvent(Object sender, String name, Object... args) {
+                List<String> hostNames;
+                synchronized (MblHostScheduler.class) {
+                    sInBackground = MblCommonEvents.GO_TO_BACKGROUND.equals(name);
+                    if (sInBackground) {
+                        return;
+                    }
+                    hostNames = new ArrayList<String>(sHosts.keySet());
+                }
+                // resume prefetch tasks held while app was in background
+                for (String hostName : hostNames) {
+                    pump(hostName);
+                }
+            }
+        }, new String[] {
+                MblCommonEvents.GO_TO_BACKGROUND,
+                MblCommonEvents.GO_TO_FOREGROUND
+        });
+    }
+
+    /**
+     * @return true if background/foreground listener is registered
+     */
+    static synchronized boolean isInitialized() {
+        return sInitialized;
+    }
+
+    /**
+     * <pre>
+     * Submit a network task of a request.
+     * </pre>
+     */
+    static void submit(String url, MblRequest request, Runnable action, RejectionHandler rejectionHandler) {
+        init();
+        MblApiOptions options = MblApi.getOptions();
+        final String hostName = getHostName(url);
+
+        int maxInFlight = request.getMaxRequestsPerHost() > 0 ? request.getMaxRequestsPerHost() : options.getMaxRequestsPerHost();
+        double rate;
+        int burst;
+        if (request.getRateLimit() > 0) {
+            rate    = request.getRateLimit();
+            burst   = request.getRateLimitBurst();
+        } else {
+            rate    = options.getRateLimit();
+            burst   = options.getRateLimitBurst();
+        }
+
+        Task task = new Task(
+                request.getPriority() != null ? request.getPriority() : Priority.NORMAL,
+                maxInFlight > 0 ? maxInFlight : Integer.MAX_VALUE,
+                action);
+        boolean callerRuns = false;
+        RejectedExecutionException rejected = null;
+        synchronized (MblHostScheduler.class) {
+            Host host = getOrCreateHost(hostName);
+            boolean optionsChanged = host.mOptionsRate != options.getRateLimit() || host.mOptionsBurst != options.getRateLimitBurst();
+            if (optionsChanged) {
+                host.mOptionsRate   = options.getRateLimit();
+                host.mOptionsBurst  = options.getRateLimitBurst();
+            }
+            host.configureRate(rate, burst, optionsChanged);
+
+            // queue of host is bounded, rejection policy is applied here because dispatching from queue never blocks or runs task in caller thread
+            int capacity = Math.max(1, options.getNetworkQueueCapacity());
+            MblRejectionPolicy policy = options.getRejectionPolicy();
+            while (host.mQueue.size() >= capacity) {
+                if (policy == MblRejectionPolicy.FAIL_FAST || MblUtils.isMainThread()) {
+                    rejected = new RejectedExecutionException("Too many pending requests of host " + hostName);
+                    break;
+                }
+                if (policy == MblRejectionPolicy.CALLER_RUNS) {
+                    callerRuns = true;
+                    markDispatched(host, task);
+                    break;
+                }
+                try {
+                    MblHostScheduler.class.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected = new RejectedExecutionException("Interrupted while waiting for free slot");
+                    break;
+                }
+                // host may have been removed while waiting
+                host = getOrCreateHost(hostName);
+            }
+            if (rejected != null) {
+                removeIfIdle(hostName, host);
+            } else if (!callerRuns) {
+                task.mSeq = sSeq++;
+                host.mQueue.add(task);
+            }
+        }
+
+        if (rejected != null) {
+            rejectionHandler.onRejected(rejected);
+        } else if (callerRuns) {
+            run(hostName, task);
+        } else {
+            pump(hostName);
+        }
+    }
+
+    // must be called in synchronized block
+    private static Host getOrCreateHost(String hostName) {
+        Host host = sHosts.get(hostName);
+        if (host == null) {
+            host = new Host();
+            sHosts.put(hostName, host);
+        }
+        return host;
+    }
+
+    // must be called in synchronized block
+    private static void removeIfIdle(String hostName, Host host) {
+        if (host.mInFlight == 0 && host.mPrefetchInFlight == 0 && host.mQueue.isEmpty() && !host.mPumpScheduled && host.mRate <= 0) {
+            sHosts.remove(hostName);
+        }
+    }
+
+    // must be called in synchronized block
+    private static void markDispatched(Host host, Task task) {
+        if (task.mPriority == Priority.PREFETCH) {
+            host.mPrefetchInFlight++;
+        } else {
+            host.mInFlight++;
+        }
+    }
+
+    // must be called in synchronized block
+    private static void schedulePump(final String hostName, Host host, long delay) {
+        if (host.mPumpScheduled) {
+            return;
+        }
+        host.mPumpScheduled = true;
+        MblApiExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MblHostScheduler.class) {
+                    sHosts.get(hostName).mPumpScheduled = false;
+                }
+                pump(hostName);
+            }
+        }, delay);
+    }
+
+    /**
+     * <pre>
+     * Dispatch tasks of a host which are allowed to run. Tasks are never run in the calling thread, which may be a thread of network lane or scheduler thread.
+     * If lane is full, tasks are put back to queue of host and dispatched again later.
+     * </pre>
+     */
+    private static void pump(final String hostName) {
+        List<Task> ready = new ArrayList<Task>();
+        synchronized (MblHostScheduler.class) {
+            Host host = sHosts.get(hostName);
+            if (host == null) {
+                return;
+            }
+            while (!host.mQueue.isEmpty() && host.mInFlight < host.mQueue.peek().mMaxInFlight) {
+                // prefetch tasks are always at the end of queue, so holding head task holds only prefetch tasks
+                if (host.mQueue.peek().mPriority == Priority.PREFETCH && !canDispatchPrefetch(host)) {
+                    break;
+                }
+                long wait = host.tryAcquireToken();
+                if (wait > 0) {
+                    schedulePump(hostName, host, wait);
+                    break;
+                }
+                Task task = host.mQueue.poll();
+                markDispatched(host, task);
+                ready.add(task);
+            }
+            if (!ready.isEmpty()) {
+                // wake up submitters blocked by full queue
+                MblHostScheduler.class.notifyAll();
+            }
+        }
+
+        for (final Task task : ready) {
+            try {
+                Lane lane = task.mPriority == Priority.PREFETCH ? Lane.PREFETCH : Lane.NETWORK;
+                MblApiExecutor.tryExecute(lane, new Runnable() {
+                    @Override
+                    public void run() {
+                        MblHostScheduler.run(hostName, task);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (MblHostScheduler.class) {
+                    Host host = sHosts.get(hostName);
+                    if (task.mPriority == Priority.PREFETCH) {
+                        host.mPrefetchInFlight--;
+                    } else {
+                        host.mInFlight--;
+                    }
+                    host.refundToken();
+                    host.mQueue.add(task);
+                    schedulePump(hostName, host, REJECTED_RETRY_DELAY);
+                }
+            }
+        }
+    }
+
+    private static void run(String hostName, Task task) {
+        start(hostName, task);
+        try {
+            task.mAction.run();
+        } finally {
+            release(hostName, task);
+        }
+    }
+
+    // must be called in synchronized block
+    private static boolean canDispatchPrefetch(Host host) {
+        if (host.mPrefetchInFlight >= Math.max(1, MblApi.getOptions().getPrefetchMaxPoolSize())) {
+            return false;
+        }
+        if (!sInBackground) {
+            return true;
+        }
+        MblBackgroundPolicy policy = MblApi.getOptions().getBackgroundPolicy();
+        if (policy == MblBackgroundPolicy.PAUSE) {
+            return false;
+        }
+        if (policy == MblBackgroundPolicy.THROTTLE) {
+            return host.mPrefetchInFlight == 0;
+        }
+        return true;
+    }
+
+    private static void start(String hostName, Task task) {
+        if (task.mPriority == Priority.PREFETCH) {
+            synchronized (MblHostScheduler.class) {
+                sHosts.get(hostName).mInFlight++;
+            }
+        }
+    }
+
+    private static void release(String hostName, Task task) {
+        synchronized (MblHostScheduler.class) {
+            Host host = sHosts.get(hostName);
+            if (task.mPriority == Priority.PREFETCH) {
+                host.mPrefetchInFlight--;
+            }
+            host.mInFlight--;
+            removeIfIdle(hostName, host);
+        }
+        pump(hostName);
+    }
+
+    private static String getHostName(String url) {
+        String host = Uri.parse(url).getHost();
+        return host != null ? host.toLowerCase(Locale.US) : "";
+    }
+}
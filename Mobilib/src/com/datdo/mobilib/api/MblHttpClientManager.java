@@ -0,0 +1,211 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * Process-wide holder of {@link HttpClient} objects used by {@link MblApi}.
+ * Each client is backed by a bounded connection pool so that connections (and SSL sessions) are reused across requests.
+ * Idle and expired connections are evicted periodically by a daemon thread.
+ * Clients are leased by requests, a client replaced by new options is shut down once its last lease is released.
+ * </pre>
+ */
+@SuppressWarnings("deprecation")
+class MblHttpClientManager {
+
+    private static final String TAG = MblHttpClientManager.class.getSimpleName();
+
+    private static MblApiOptions                sOptions = new MblApiOptions();
+    private static DefaultHttpClient            sHttpClient;
+    private static DefaultHttpClient            sHttpClientIgnoreSSLCertificate;
+    private static ScheduledExecutorService     sIdleConnectionMonitor;
+
+    // number of in-flight requests of each client, including replaced clients which are waiting to be shut down
+    private static final Map<HttpClient, Integer> sLeases = new HashMap<HttpClient, Integer>();
+
+    /**
+     * <pre>
+     * Get shared {@link HttpClient} for a URL, to send one request.
+     * Caller must call {@link #release(HttpClient)} when response is fully consumed or request fails.
+     * </pre>
+     */
+    static synchronized HttpClient acquire(String url, boolean ignoreSSLCertificate) {
+        HttpClient httpClient = getHttpClient(url, ignoreSSLCertificate);
+        Integer leases = sLeases.get(httpClient);
+        sLeases.put(httpClient, leases != null ? leases + 1 : 1);
+        return httpClient;
+    }
+
+    /**
+     * <pre>
+     * Release a client acquired by {@link #acquire(String, boolean)}. Shut it down if it was replaced and this is its last request.
+     * </pre>
+     */
+    static synchronized void release(HttpClient httpClient) {
+        Integer leases = sLeases.get(httpClient);
+        if (leases == null) {
+            return;
+        }
+        if (leases > 1) {
+            sLeases.put(httpClient, leases - 1);
+            return;
+        }
+        sLeases.remove(httpClient);
+        if (httpClient != sHttpClient && httpClient != sHttpClientIgnoreSSLCertificate) {
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpClient getHttpClient(String url, boolean ignoreSSLCertificate) {
+        if (MblSSLCertificateUtils.isHttpsUrl(url) && ignoreSSLCertificate) {
+            if (sHttpClientIgnoreSSLCertificate == null) {
+                sHttpClientIgnoreSSLCertificate = createHttpClient(MblSSLCertificateUtils.getSchemeRegistryIgnoreSSLCertificate());
+            }
+            return sHttpClientIgnoreSSLCertificate;
+        } else {
+            if (sHttpClient == null) {
+                sHttpClient = createHttpClient(MblSSLCertificateUtils.getSchemeRegistry());
+            }
+            return sHttpClient;
+        }
+    }
+
+    /**
+     * <pre>
+     * Create new {@link HttpContext} for a request.
+     * Each request has its own cookie store so that cookies are not leaked between requests via shared clients.
+     * </pre>
+     */
+    static HttpContext newHttpContext() {
+        HttpContext httpContext = new BasicHttpContext();
+        httpContext.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+        return httpContext;
+    }
+
+    /**
+     * <pre>
+     * Apply new options. Current clients are released so that new ones are created with new options for next requests.
+     * </pre>
+     */
+    static synchronized void setOptions(MblApiOptions options) {
+        sOptions = options;
+        DefaultHttpClient httpClient = sHttpClient;
+        DefaultHttpClient httpClientIgnoreSSLCertificate = sHttpClientIgnoreSSLCertificate;
+        sHttpClient = null;
+        sHttpClientIgnoreSSLCertificate = null;
+        retire(httpClient);
+        retire(httpClientIgnoreSSLCertificate);
+    }
+
+    private static void retire(HttpClient httpClient) {
+        if (httpClient == null) {
+            return;
+        }
+        if (sLeases.containsKey(httpClient)) {
+            // in-flight requests still hold their connections, pool is shut down when last of them is released
+            httpClient.getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        } else {
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    private static DefaultHttpClient createHttpClient(SchemeRegistry registry) {
+
+        final MblApiOptions options = sOptions;
+
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setSocketBufferSize(params, 8192);
+        ConnManagerParams.setMaxTotalConnections(params, options.getMaxConnections());
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(options.getMaxConnectionsPerRoute()));
+
+        ClientConnectionManager ccm = new ThreadSafeClientConnManager(params, registry);
+        DefaultHttpClient httpClient = new DefaultHttpClient(ccm, params);
+        httpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                // honor "Keep-Alive: timeout=xxx" if server specifies it
+                HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement he = it.nextElement();
+                    if ("timeout".equalsIgnoreCase(he.getName()) && he.getValue() != null) {
+                        try {
+                            return Long.parseLong(he.getValue()) * 1000;
+                        } catch (NumberFormatException e) {
+                            Log.e(TAG, "Invalid Keep-Alive timeout: " + he.getValue(), e);
+                        }
+                    }
+                }
+                return options.getKeepAliveDuration();
+            }
+        });
+
+        startIdleConnectionMonitor();
+
+        return httpClient;
+    }
+
+    private static void startIdleConnectionMonitor() {
+        if (sIdleConnectionMonitor != null) {
+            return;
+        }
+        sIdleConnectionMonitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MblApi-IdleConnectionMonitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(1000, sOptions.getIdleConnectionTimeout() / 2);
+        sIdleConnectionMonitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                closeIdleConnections();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void closeIdleConnections() {
+        for (HttpClient httpClient : new HttpClient[] { sHttpClient, sHttpClientIgnoreSSLCertificate }) {
+            if (httpClient != null) {
+                ClientConnectionManager ccm = httpClient.getConnectionManager();
+                ccm.closeExpiredConnections();
+                ccm.closeIdleConnections(sOptions.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.datdo.mobilib.api;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+
+import com.datdo.mobilib.api.MblApi.MblResponseParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * Streaming parser of a JSON array, based on {@link JsonReader} (requires API 11, constructor throws {@link UnsupportedOperationException} on older versions).
+ * Elements are decoded one by one while response body is being read, neither the body nor a {@link org.json.JSONArray} is loaded into memory as a whole.
+ *
+ * Sample code:
+ * {@code
+ * request.setParser(new MblJsonArrayParser<User>() {
+ *      protected User parseElement(JsonReader reader) throws IOException {
+ *          User user = new User();
+ *          reader.beginObject();
+ *          while (reader.hasNext()) {
+ *              String name = reader.nextName();
+ *              if (name.equals("name")) {
+ *                  user.setName(reader.nextString());
+ *              } else {
+ *                  reader.skipValue();
+ *              }
+ *          }
+ *          reader.endObject();
+ *          return user;
+ *      }
+ * });
+ * }
+ * </pre>
+ * @param <E> class of elements
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public abstract class MblJsonArrayParser<E> implements MblResponseParser<List<E>> {
+
+    public MblJsonArrayParser() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            throw new UnsupportedOperationException("MblJsonArrayParser requires API 11, use MblParsers.JSON_ARRAY instead");
+        }
+    }
+
+    @Override
+    public List<E> parse(MblResponse response, InputStream in) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, MblParsers.getCharset(response)));
+        List<E> ret = new ArrayList<E>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            E element = parseElement(reader);
+            if (element != null) {
+                ret.add(element);
+            }
+        }
+        reader.endArray();
+        return ret;
+    }
+
+    /**
+     * <pre>
+     * Decode an element of array, in background thread. Reader is positioned at beginning of element, element must be fully consumed.
+     * </pre>
+     * @return element, or NULL to skip it
+     */
+    protected abstract E parseElement(JsonReader reader) throws IOException;
+}
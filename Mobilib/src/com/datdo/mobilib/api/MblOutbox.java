@@ -0,0 +1,392 @@
+package com.datdo.mobilib.api;
+
+import android.util.Log;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.Method;
+import com.datdo.mobilib.api.MblApiExecutor.Lane;
+import com.datdo.mobilib.event.MblCommonEvents;
+import com.datdo.mobilib.event.MblEventCenter;
+import com.datdo.mobilib.event.MblStrongEventListener;
+import com.datdo.mobilib.util.MblUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <pre>
+ * Durable queue of POST/PUT/DELETE requests which must be sent even if network is not available at the moment.
+ * Requests are persisted in database, then sent in order when network is available (on {@link MblCommonEvents#NETWORK_ON}).
+ *
+ * Each queue is sent sequentially: a request is sent only after previous request of the same queue is done. Different queues are sent in parallel.
+ * Enqueuing a request with a dedupe key replaces pending request of the same queue and dedupe key (e.g. only latest "update profile" request is kept).
+ * Requests older than {@link MblApiOptions#getOutboxMaxAge()} are dropped.
+ *
+ * Result of each request is posted via {@link MblEventCenter}: {@link #EVENT_SENT}, {@link #EVENT_FAILED}, {@link #EVENT_EXPIRED}.
+ * Event args are: queue, dedupe key, {@link MblResponse} (NULL for {@link #EVENT_EXPIRED}).
+ *
+ * Only serializable requests can be enqueued: params are String, Long, Integer, Double, Float (same as {@link MblApi}), body is String, callback is ignored.
+ * Requests rejected by server (4xx status code except 408, 429) are removed.
+ * Requests which fail for other reasons (network error, 5xx status code, thread pool is full, time out) are kept and the queue is retried after a backoff delay,
+ * until {@link MblApiOptions#getOutboxMaxAttempts()} is reached.
+ * Call {@link #start()} in {@link android.app.Application#onCreate()} so that requests persisted in previous sessions are sent.
+ *
+ * Sample code:
+ * {@code
+ * MblOutbox.enqueue(new MblRequest()
+ *      .setMethod(Method.POST)
+ *      .setUrl(url)
+ *      .setParams("name", name),
+ *      "profile",
+ *      "update_name");
+ * }
+ * </pre>
+ */
+public class MblOutbox {
+
+    private static final String TAG = MblOutbox.class.getSimpleName();
+
+    /**
+     * <pre>
+     * A request of outbox is sent successfully.
+     * </pre>
+     */
+    public static final String EVENT_SENT       = MblOutbox.class + "#sent";
+
+    /**
+     * <pre>
+     * A request of outbox is rejected by server, or keeps failing until max attempts. It is removed from outbox.
+     * </pre>
+     */
+    public static final String EVENT_FAILED     = MblOutbox.class + "#failed";
+
+    /**
+     * <pre>
+     * A request of outbox is older than max age and is removed without being sent.
+     * </pre>
+     */
+    public static final String EVENT_EXPIRED    = MblOutbox.class + "#expired";
+
+    private static final String JSON_METHOD             = "method";
+    private static final String JSON_URL                = "url";
+    private static final String JSON_PARAMS            = "params";
+    private static final String JSON_HEADERS            = "headers";
+    private static final String JSON_DATA               = "data";
+    private static final String JSON_VERIFY_SSL         = "verify_ssl";
+    private static final String JSON_REDIRECT_ENABLED   = "redirect_enabled";
+
+    private static final long REJECTED_RETRY_DELAY = 1000;
+
+    private static final Set<String> sFlushingQueues = new HashSet<String>();
+
+    private static final MblRetryPolicy sRetryPolicy = new MblRetryPolicy().setBackoff(1000, 5 * 60 * 1000);
+
+    static {
+        MblEventCenter.addListener(new MblStrongEventListener() {
+            @Override
+            public void onEvent(Object sender, String name, Object... args) {
+                flush();
+            }
+        }, new String[] {
+                MblCommonEvents.NETWORK_ON
+        });
+    }
+
+    private MblOutbox() {}
+
+    /**
+     * <pre>
+     * Start listening to network status and send requests persisted in previous sessions.
+     * </pre>
+     */
+    public static void start() {
+        flush();
+    }
+
+    /**
+     * <pre>
+     * Persist a request, then send it if network is available.
+     * </pre>
+     * @param queue name of queue, requests of the same queue are sent in order
+     * @param dedupeKey NULL or key to replace pending request of the same queue
+     * @throws RuntimeException if request can not be serialized
+     */
+    public static void enqueue(MblRequest request, final String queue, final String dedupeKey) {
+        if (MblUtils.isEmpty(queue)) {
+            throw new RuntimeException("queue must not be empty");
+        }
+        final String json = serialize(request);
+        executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                MblDatabaseOutbox.insert(new MblDatabaseOutbox(
+                        queue,
+                        MblUtils.isEmpty(dedupeKey) ? null : dedupeKey,
+                        System.currentTimeMillis(),
+                        json));
+                flushQueue(queue);
+            }
+        });
+    }
+
+    /**
+     * <pre>
+     * Send pending requests of all queues if network is available.
+     * </pre>
+     */
+    public static void flush() {
+        executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                for (String queue : MblDatabaseOutbox.getQueues()) {
+                    flushQueue(queue);
+                }
+            }
+        });
+    }
+
+    /**
+     * <pre>
+     * Remove all pending requests.
+     * </pre>
+     */
+    public static void clear() {
+        executeInBackground(new Runnable() {
+            @Override
+            public void run() {
+                MblDatabaseOutbox.deleteAll();
+            }
+        });
+    }
+
+    /**
+     * <pre>
+     * Get number of pending requests. Must be called in background thread.
+     * </pre>
+     */
+    public static int getPendingCount() {
+        return MblDatabaseOutbox.count();
+    }
+
+    private static void flushQueue(String queue) {
+        if (!MblUtils.isNetworkConnected()) {
+            return;
+        }
+        synchronized (sFlushingQueues) {
+            if (!sFlushingQueues.add(queue)) {
+                return;
+            }
+        }
+        sendNextBatch(queue);
+    }
+
+    private static void finishFlushing(String queue) {
+        synchronized (sFlushingQueues) {
+            sFlushingQueues.remove(queue);
+        }
+    }
+
+    private static void sendNextBatch(String queue) {
+        List<MblDatabaseOutbox> batch = MblDatabaseOutbox.getPending(queue, MblApi.getOptions().getOutboxBatchSize());
+        if (batch.isEmpty()) {
+            finishFlushing(queue);
+            return;
+        }
+        send(queue, batch, 0);
+    }
+
+    // send records of batch one by one, in background thread
+    private static void send(final String queue, final List<MblDatabaseOutbox> batch, final int index) {
+        if (index >= batch.size()) {
+            sendNextBatch(queue);
+            return;
+        }
+
+        // batch may be out of date: record can be removed by clear() or replaced by a newer request of the same dedupe key
+        final MblDatabaseOutbox o = MblDatabaseOutbox.get(batch.get(index).getId());
+        if (o == null) {
+            send(queue, batch, index + 1);
+            return;
+        }
+
+        if (System.currentTimeMillis() - o.getCreatedAt() > MblApi.getOptions().getOutboxMaxAge()) {
+            MblDatabaseOutbox.delete(o);
+            MblEventCenter.postEvent(MblOutbox.class, EVENT_EXPIRED, queue, o.getDedupeKey(), null);
+            send(queue, batch, index + 1);
+            return;
+        }
+
+        if (!MblUtils.isNetworkConnected()) {
+            finishFlushing(queue);
+            return;
+        }
+
+        MblRequest request;
+        try {
+            request = deserialize(o.getRequest());
+        } catch (JSONException e) {
+            Log.e(TAG, "Broken request in outbox: " + o.getRequest(), e);
+            MblDatabaseOutbox.delete(o);
+            send(queue, batch, index + 1);
+            return;
+        }
+
+        MblApi.run(request, new MblApiCallback() {
+            @Override
+            public void onSuccess(final MblResponse response) {
+                executeInBackground(new Runnable() {
+                    @Override
+                    public void run() {
+                        MblDatabaseOutbox.delete(o);
+                        MblEventCenter.postEvent(MblOutbox.class, EVENT_SENT, queue, o.getDedupeKey(), response);
+                        send(queue, batch, index + 1);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final MblResponse response) {
+                executeInBackground(new Runnable() {
+                    @Override
+                    public void run() {
+                        int attempts = o.getAttempts() + 1;
+                        if (!isRejectedByServer(response) && attempts < MblApi.getOptions().getOutboxMaxAttempts()) {
+                            // keep request and stop this queue to preserve order, it is retried after backoff or on next flush
+                            o.setAttempts(attempts);
+                            MblDatabaseOutbox.updateAttempts(o);
+                            finishFlushing(queue);
+                            scheduleFlush(queue, sRetryPolicy.getDelay(response, attempts));
+                        } else {
+                            MblDatabaseOutbox.delete(o);
+                            MblEventCenter.postEvent(MblOutbox.class, EVENT_FAILED, queue, o.getDedupeKey(), response);
+                            send(queue, batch, index + 1);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // only a 4xx status means server will never accept the request, other failures (network error, 5xx,
+    // request rejected by thread pool or timed out before being sent) may succeed later
+    static boolean isRejectedByServer(MblResponse response) {
+        int statusCode = response.getStatusCode();
+        return statusCode >= 400 && statusCode < 500 && !MblRetryPolicy.isTransient(response);
+    }
+
+    private static void scheduleFlush(final String queue, long delay) {
+        MblApiExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executeInBackground(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushQueue(queue);
+                    }
+                });
+            }
+        }, delay);
+    }
+
+    // database work of outbox runs in cache lane of MblApiExecutor, it is retried later instead of being lost when the lane is full
+    private static void executeInBackground(final Runnable action) {
+        try {
+            MblApiExecutor.execute(Lane.CACHE, action);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Cache lane is full, outbox action is retried later");
+            MblApiExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executeInBackground(action);
+                }
+            }, REJECTED_RETRY_DELAY);
+        }
+    }
+
+    static String serialize(MblRequest request) {
+        if (request.getMethod() == null || request.getMethod() == Method.GET) {
+            throw new RuntimeException("Only POST, PUT, DELETE requests can be enqueued");
+        }
+        if (request.getUrl() == null) {
+            throw new RuntimeException("request.url must not be NULL");
+        }
+        if (request.getBody() != null) {
+            throw new RuntimeException("Request whose body is not String can not be enqueued");
+        }
+        try {
+            JSONObject json = new JSONObject();
+            json.put(JSON_METHOD, request.getMethod().name());
+            json.put(JSON_URL, request.getUrl());
+            if (!MblUtils.isEmpty(request.getParams())) {
+                JSONObject params = new JSONObject();
+                for (String key : request.getParams().keySet()) {
+                    Object val = request.getParams().get(key);
+                    if (val != null && !MblApi.isSimpleParam(val)) {
+                        throw new RuntimeException("params " + key + " must be String, Long, Integer, Double, Float, current value is " + val.getClass().getSimpleName());
+                    }
+                    params.put(key, val);
+                }
+                json.put(JSON_PARAMS, params);
+            }
+            if (!MblUtils.isEmpty(request.getHeaderParams())) {
+                JSONObject headers = new JSONObject();
+                for (String key : request.getHeaderParams().keySet()) {
+                    headers.put(key, request.getHeaderParams().get(key));
+                }
+                json.put(JSON_HEADERS, headers);
+            }
+            if (request.getData() != null) {
+                json.put(JSON_DATA, request.getData());
+            }
+            json.put(JSON_VERIFY_SSL, request.isVerifySSL());
+            json.put(JSON_REDIRECT_ENABLED, request.isRedirectEnabled());
+            return json.toString();
+        } catch (JSONException e) {
+            throw new RuntimeException("Request can not be serialized", e);
+        }
+    }
+
+    private static MblRequest deserialize(String s) throws JSONException {
+        JSONObject json = new JSONObject(s);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        JSONObject jsonParams = json.optJSONObject(JSON_PARAMS);
+        if (jsonParams != null) {
+            Iterator<?> it = jsonParams.keys();
+            while (it.hasNext()) {
+                String key = (String) it.next();
+                params.put(key, jsonParams.opt(key));
+            }
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        JSONObject jsonHeaders = json.optJSONObject(JSON_HEADERS);
+        if (jsonHeaders != null) {
+            Iterator<?> it = jsonHeaders.keys();
+            while (it.hasNext()) {
+                String key = (String) it.next();
+                headers.put(key, jsonHeaders.optString(key));
+            }
+        }
+
+        MblRequest request = new MblRequest()
+                .setMethod(Method.valueOf(json.getString(JSON_METHOD)))
+                .setUrl(json.getString(JSON_URL))
+                .setParams(params)
+                .setHeaderParams(headers)
+                .setVerifySSL(json.optBoolean(JSON_VERIFY_SSL))
+                .setRedirectEnabled(json.optBoolean(JSON_REDIRECT_ENABLED));
+        if (json.has(JSON_DATA)) {
+            request.setData(json.getString(JSON_DATA));
+        }
+        return request;
+    }
+}
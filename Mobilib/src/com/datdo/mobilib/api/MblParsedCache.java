@@ -0,0 +1,74 @@
+package com.datdo.mobilib.api;
+
+import android.support.v4.util.LruCache;
+
+import com.datdo.mobilib.api.MblApi.MblResponseParser;
+
+/**
+ * <pre>
+ * In-memory LRU cache of parsed responses of cached GET requests, so that a cache hit does not read and decode cache file again.
+ * An entry is bound to content of cache file: it is dropped as soon as cache file is rewritten or deleted by {@link MblDiskCache}.
+ * Only the last parser of a cache key is remembered, parsers are compared by instance (two instances of the same class may be configured differently).
+ * Parsed objects are shared by all cache hits of the same parser, callers must not modify them.
+ * </pre>
+ * @see com.datdo.mobilib.api.MblApiOptions#setParsedCacheSize(int)
+ */
+class MblParsedCache {
+
+    private static class Entry {
+
+        final MblResponseParser<?>  mParser;
+        final Object                mParsed;
+
+        Entry(MblResponseParser<?> parser, Object parsed) {
+            mParser = parser;
+            mParsed = parsed;
+        }
+    }
+
+    private static LruCache<String, Entry>  sCache;
+    private static int                      sMaxSize;
+
+    private MblParsedCache() {}
+
+    /**
+     * @return NULL if there is no parsed result of the same parser
+     */
+    static synchronized Object get(String key, MblResponseParser<?> parser) {
+        LruCache<String, Entry> cache = getCache();
+        if (cache == null) {
+            return null;
+        }
+        Entry e = cache.get(key);
+        return e != null && e.mParser == parser ? e.mParsed : null;
+    }
+
+    static synchronized void put(String key, MblResponseParser<?> parser, Object parsed) {
+        LruCache<String, Entry> cache = getCache();
+        if (cache != null && parsed != null) {
+            cache.put(key, new Entry(parser, parsed));
+        }
+    }
+
+    static synchronized void remove(String key) {
+        if (sCache != null) {
+            sCache.remove(key);
+        }
+    }
+
+    static synchronized void clear() {
+        if (sCache != null) {
+            sCache.evictAll();
+        }
+    }
+
+    // cache is re-created when its size is re-configured
+    private static LruCache<String, Entry> getCache() {
+        int maxSize = MblApi.getOptions().getParsedCacheSize();
+        if (maxSize != sMaxSize) {
+            sMaxSize = maxSize;
+            sCache = maxSize > 0 ? new LruCache<String, Entry>(maxSize) : null;
+        }
+        return sCache;
+    }
+}
@@ -0,0 +1,114 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.api.MblApi.MblResponseParser;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <pre>
+ * Built-in parsers for {@link MblRequest#setParser(MblResponseParser)}.
+ * Charset of text is taken from "Content-Type" header, UTF-8 by default.
+ *
+ * Sample code:
+ * {@code
+ * MblApi.run(new MblRequest()
+ *      .setMethod(MblApi.Method.GET)
+ *      .setUrl("http://example.com/profile")
+ *      .setParser(MblParsers.JSON_OBJECT)
+ *      .setCallback(new MblApiCallback() {
+ *          public void onSuccess(MblResponse response) {
+ *              JSONObject profile = response.getParsedData();
+ *          }
+ *          public void onFailure(MblResponse response) {}
+ *      }));
+ * }
+ * </pre>
+ * @see com.datdo.mobilib.api.MblJsonArrayParser
+ */
+public class MblParsers {
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String CHARSET_PARAM       = "charset=";
+    private static final Charset DEFAULT_CHARSET    = Charset.forName("UTF-8");
+
+    /**
+     * <pre>
+     * Decode response body to {@link String}.
+     * </pre>
+     */
+    public static final MblResponseParser<String> STRING = new MblResponseParser<String>() {
+        @Override
+        public String parse(MblResponse response, InputStream in) throws Exception {
+            return readString(response, in);
+        }
+    };
+
+    /**
+     * <pre>
+     * Decode response body to {@link JSONObject}.
+     * </pre>
+     */
+    public static final MblResponseParser<JSONObject> JSON_OBJECT = new MblResponseParser<JSONObject>() {
+        @Override
+        public JSONObject parse(MblResponse response, InputStream in) throws Exception {
+            return new JSONObject(readString(response, in));
+        }
+    };
+
+    /**
+     * <pre>
+     * Decode response body to {@link JSONArray}. Use {@link MblJsonArrayParser} to decode big arrays without loading them as a whole.
+     * </pre>
+     */
+    public static final MblResponseParser<JSONArray> JSON_ARRAY = new MblResponseParser<JSONArray>() {
+        @Override
+        public JSONArray parse(MblResponse response, InputStream in) throws Exception {
+            return new JSONArray(readString(response, in));
+        }
+    };
+
+    private MblParsers() {}
+
+    /**
+     * <pre>
+     * Get charset of response body from "Content-Type" header.
+     * </pre>
+     */
+    static Charset getCharset(MblResponse response) {
+        Map<String, String> headers = response.getHeaders();
+        String contentType = headers != null ? MblApi.getHeader(headers, HEADER_CONTENT_TYPE) : null;
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.toLowerCase(Locale.US).startsWith(CHARSET_PARAM)) {
+                    try {
+                        return Charset.forName(param.substring(CHARSET_PARAM.length()).replace("\"", "").trim());
+                    } catch (Exception e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    private static String readString(MblResponse response, InputStream in) throws IOException {
+        Reader reader = new InputStreamReader(in, getCharset(response));
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package com.datdo.mobilib.api;
+
+import android.os.Handler;
+
+import com.datdo.mobilib.api.MblApi.MblUploadProgressListener;
+import com.datdo.mobilib.util.MblUtils;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <pre>
+ * Wrapper of request entity which reports number of bytes sent to server.
+ * Progress is reported in callback handler, at most once per interval, and always once when entity is fully sent.
+ * </pre>
+ */
+class MblProgressHttpEntity extends HttpEntityWrapper {
+
+    private final MblUploadProgressListener mListener;
+    private final Handler                   mCallbackHandler;
+    private final long                      mInterval;
+
+    MblProgressHttpEntity(HttpEntity entity, MblUploadProgressListener listener, Handler callbackHandler, long interval) {
+        super(entity);
+        mListener           = listener;
+        mCallbackHandler    = callbackHandler;
+        mInterval           = interval;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        final long total = getContentLength();
+        CountingOutputStream counting = new CountingOutputStream(out, total);
+        wrappedEntity.writeTo(counting);
+        counting.flush();
+        report(counting.mCount, total);
+    }
+
+    private void report(final long written, final long total) {
+        MblUtils.executeOnHandlerThread(mCallbackHandler, new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(written, total);
+            }
+        });
+    }
+
+    private class CountingOutputStream extends FilterOutputStream {
+
+        private final long  mTotal;
+        private long        mCount;
+        private long        mLastReportedAt;
+
+        CountingOutputStream(OutputStream out, long total) {
+            super(out);
+            mTotal = total;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            onWritten(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            out.write(buffer, offset, count);
+            onWritten(count);
+        }
+
+        private void onWritten(int count) {
+            mCount += count;
+            long now = System.currentTimeMillis();
+            if (now - mLastReportedAt >= mInterval) {
+                mLastReportedAt = now;
+                report(mCount, mTotal);
+            }
+        }
+    }
+}
@@ -3,10 +3,15 @@ package com.datdo.mobilib.api;
 import android.os.Handler;
 import android.text.TextUtils;
 
+import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.datdo.mobilib.api.MblApi.*;
@@ -48,14 +53,37 @@ public class MblRequest {
     private Map<String, ? extends Object>   mParams                 = new HashMap<>();
     private Map<String, String>             mHeaderParams           = new HashMap<>();
     private long                            mCacheDuration          = -1;
+    private CachePolicy                     mCachePolicy            = CachePolicy.CLIENT;
+    private boolean                         mStaleWhileRevalidate   = false;
+    private boolean                         mDeliverRevalidatedResponse = false;
+    private Set<String>                     mExcludedCacheKeyParams = new HashSet<>();
+    private MblCacheKeyGenerator            mCacheKeyGenerator;
     private boolean                         mVerifySSL              = false;
     private MblApiCallback                  mCallback               = sDefaultCallback;
     private Handler                         mCallbackHandler        = MblUtils.getMainThreadHandler();
     private MblStatusCodeValidator          mStatusCodeValidator    = sDefaultStatusCodeValidator;
     private String                          mData;
+    private MblRequestBody                  mBody;
     private boolean                         mRedirectEnabled        = false;
     private long                            mTimeout                = -1;
+    private long                            mConnectTimeout         = -1;
+    private long                            mReadTimeout            = -1;
+    private MblRetryPolicy                  mRetryPolicy;
+    private Priority                        mPriority               = Priority.NORMAL;
+    private int                             mMaxRequestsPerHost     = -1;
+    private double                          mRateLimit              = -1;
+    private int                             mRateLimitBurst         = 1;
     private boolean                         mNotReturnByteArrayData = false;
+    private MblResponseStreamHandler        mResponseStreamHandler;
+    private MblResponseParser<?>            mParser;
+    private boolean                         mReturnCacheFile        = false;
+    private MblUploadProgressListener       mUploadProgressListener;
+    private long                            mUploadProgressInterval = 100;
+    private boolean                         mCompressRequestBody    = false;
+    private File                            mDownloadFile;
+    private MblDownloadProgressListener     mDownloadProgressListener;
+    private long                            mDownloadProgressInterval = 100;
+    private MblTransport                    mTransport;
 
     public MblRequest() {}
 
@@ -67,12 +95,60 @@ public class MblRequest {
         tokens.add("HEADERS="           + mHeaderParams);
         tokens.add("PARAMS="            + mParams);
         tokens.add("CACHE_DURATION="    + mCacheDuration);
+        tokens.add("CACHE_POLICY="      + mCachePolicy);
         tokens.add("VERIFY_SSL="        + mVerifySSL);
         tokens.add("DATA="              + mData);
         tokens.add("REDIRECT_ENABLED="  + mRedirectEnabled);
+        tokens.add("PRIORITY="          + mPriority);
         return "{" + TextUtils.join(", ", tokens) + "}";
     }
 
+    /**
+     * <pre>
+     * Shallow copy of this request. Params, headers and excluded cache key params are copied so that modifying them does not affect this request.
+     * </pre>
+     */
+    MblRequest copy() {
+        MblRequest copy = new MblRequest();
+        copy.mUrl                        = mUrl;
+        copy.mMethod                     = mMethod;
+        copy.mParams                     = mParams != null ? new HashMap<>(mParams) : null;
+        copy.mHeaderParams               = mHeaderParams != null ? new HashMap<>(mHeaderParams) : null;
+        copy.mCacheDuration              = mCacheDuration;
+        copy.mCachePolicy                = mCachePolicy;
+        copy.mStaleWhileRevalidate       = mStaleWhileRevalidate;
+        copy.mDeliverRevalidatedResponse = mDeliverRevalidatedResponse;
+        copy.mExcludedCacheKeyParams     = mExcludedCacheKeyParams != null ? new HashSet<>(mExcludedCacheKeyParams) : null;
+        copy.mCacheKeyGenerator          = mCacheKeyGenerator;
+        copy.mVerifySSL                  = mVerifySSL;
+        copy.mCallback                   = mCallback;
+        copy.mCallbackHandler            = mCallbackHandler;
+        copy.mStatusCodeValidator        = mStatusCodeValidator;
+        copy.mData                       = mData;
+        copy.mBody                       = mBody;
+        copy.mRedirectEnabled            = mRedirectEnabled;
+        copy.mTimeout                    = mTimeout;
+        copy.mConnectTimeout             = mConnectTimeout;
+        copy.mReadTimeout                = mReadTimeout;
+        copy.mRetryPolicy                = mRetryPolicy;
+        copy.mPriority                   = mPriority;
+        copy.mMaxRequestsPerHost         = mMaxRequestsPerHost;
+        copy.mRateLimit                  = mRateLimit;
+        copy.mRateLimitBurst             = mRateLimitBurst;
+        copy.mNotReturnByteArrayData     = mNotReturnByteArrayData;
+        copy.mResponseStreamHandler      = mResponseStreamHandler;
+        copy.mParser                     = mParser;
+        copy.mReturnCacheFile            = mReturnCacheFile;
+        copy.mUploadProgressListener     = mUploadProgressListener;
+        copy.mUploadProgressInterval     = mUploadProgressInterval;
+        copy.mCompressRequestBody        = mCompressRequestBody;
+        copy.mDownloadFile               = mDownloadFile;
+        copy.mDownloadProgressListener   = mDownloadProgressListener;
+        copy.mDownloadProgressInterval   = mDownloadProgressInterval;
+        copy.mTransport                  = mTransport;
+        return copy;
+    }
+
     public MblRequest setUrl(String url) {
         mUrl = url;
         return this;
@@ -139,6 +215,60 @@ public class MblRequest {
         return this;
     }
 
+    /**
+     * <pre>
+     * Configure how cache duration set via {@link #setCacheDuration(long)} is combined with caching headers of server. Default {@link CachePolicy#CLIENT}.
+     * </pre>
+     */
+    public MblRequest setCachePolicy(CachePolicy cachePolicy) {
+        mCachePolicy = cachePolicy;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * For GET requests with cache enabled: when cache exists but is expired, return it immediately via {@link MblApiCallback#onSuccess(MblResponse)} (with {@link MblResponse#isStale()} TRUE),
+     * then refresh cache in background. Default FALSE.
+     * </pre>
+     * @see #setDeliverRevalidatedResponse(boolean)
+     */
+    public MblRequest setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        mStaleWhileRevalidate = staleWhileRevalidate;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * In stale-while-revalidate mode, also deliver result of background refresh to callback (callback is invoked twice). Default FALSE.
+     * </pre>
+     * @see #setStaleWhileRevalidate(boolean)
+     */
+    public MblRequest setDeliverRevalidatedResponse(boolean deliverRevalidatedResponse) {
+        mDeliverRevalidatedResponse = deliverRevalidatedResponse;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Names of volatile params (timestamps, tracking ids, ...) which are sent to server but ignored when generating cache key. Default empty.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblApiOptions#setExcludedCacheKeyParams(String...)
+     */
+    public MblRequest setExcludedCacheKeyParams(String... names) {
+        mExcludedCacheKeyParams = new HashSet<>(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Use custom cache key instead of canonical key generated from URL and params. Default NULL.
+     * </pre>
+     */
+    public MblRequest setCacheKeyGenerator(MblCacheKeyGenerator cacheKeyGenerator) {
+        mCacheKeyGenerator = cacheKeyGenerator;
+        return this;
+    }
+
     public MblRequest setVerifySSL(boolean verifySSL) {
         mVerifySSL = verifySSL;
         return this;
@@ -181,6 +311,116 @@ public class MblRequest {
 
     public MblRequest setData(String data) {
         mData = data;
+        mBody = null;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Send content of a file as request body. File is streamed, not loaded into memory.
+     * Content type is "application/octet-stream" unless "Content-Type" header is set.
+     * </pre>
+     */
+    public MblRequest setData(File file) {
+        mData = null;
+        mBody = MblRequestBody.fromFile(file);
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Send content of a stream as request body, with chunked transfer encoding.
+     * Content type is "application/octet-stream" unless "Content-Type" header is set.
+     * </pre>
+     */
+    public MblRequest setData(InputStream in) {
+        mData = null;
+        mBody = MblRequestBody.fromInputStream(in);
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Send a part of byte array as request body, without copying it.
+     * Content type is "application/octet-stream" unless "Content-Type" header is set.
+     * </pre>
+     */
+    public MblRequest setData(byte[] data, int offset, int length) {
+        mData = null;
+        mBody = MblRequestBody.fromByteArray(data, offset, length);
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Generate request body on the fly by a writer, with chunked transfer encoding.
+     * Content type is "application/octet-stream" unless "Content-Type" header is set.
+     * </pre>
+     */
+    public MblRequest setData(MblRequestBodyWriter writer) {
+        mData = null;
+        mBody = MblRequestBody.fromWriter(writer);
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Track upload progress of request body (String data, form params, multipart params or streamed body).
+     * </pre>
+     * @param listener invoked in callback handler
+     * @param interval min interval between 2 progress reports, in milliseconds
+     */
+    public MblRequest setUploadProgressListener(MblUploadProgressListener listener, long interval) {
+        mUploadProgressListener = listener;
+        mUploadProgressInterval = interval;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Send request body (String data, form params or streamed body) gzip-compressed, with "Content-Encoding: gzip" header.
+     * Server must support compressed request bodies. Multipart bodies are never compressed. Default false.
+     * </pre>
+     */
+    public MblRequest setCompressRequestBody(boolean compressRequestBody) {
+        mCompressRequestBody = compressRequestBody;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Download response body of GET request directly to a file, without loading it into memory. Cache is not used.
+     * Data is written to "[file].part" first, and renamed to file when download is completed and its length is verified.
+     * If a download fails (network error, cancellation, process death), sending the same request again resumes it with "Range" and "If-Range" headers,
+     * provided that server returned "ETag" or "Last-Modified" header. Downloaded part is discarded if resource has changed.
+     * Combine with {@link #setRetryPolicy(MblRetryPolicy)} to resume automatically after network errors.
+     * </pre>
+     */
+    public MblRequest setDownloadFile(File file) {
+        mDownloadFile = file;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Track progress of download started by {@link #setDownloadFile(File)}.
+     * </pre>
+     * @param listener invoked in callback handler
+     * @param interval min interval between 2 progress reports, in milliseconds
+     */
+    public MblRequest setDownloadProgressListener(MblDownloadProgressListener listener, long interval) {
+        mDownloadProgressListener = listener;
+        mDownloadProgressInterval = interval;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Send this request via a specific HTTP stack instead of global one. Default NULL (use {@link MblApiOptions#getTransport()}).
+     * </pre>
+     */
+    public MblRequest setTransport(MblTransport transport) {
+        mTransport = transport;
         return this;
     }
 
@@ -189,16 +429,129 @@ public class MblRequest {
         return this;
     }
 
+    /**
+     * <pre>
+     * Total deadline of request in milliseconds, including connecting, sending and receiving.
+     * When deadline is exceeded, connection is aborted and {@link MblApiCallback#onFailure(MblResponse)} is invoked with reason "Time out". Default -1 (no deadline).
+     * </pre>
+     */
     public MblRequest setTimeout(long timeout) {
         mTimeout = timeout;
         return this;
     }
 
+    /**
+     * <pre>
+     * Timeout in milliseconds to establish connection (and to get a free connection from pool). Default -1 (use {@link MblApiOptions#getConnectTimeout()}).
+     * </pre>
+     */
+    public MblRequest setConnectTimeout(long connectTimeout) {
+        mConnectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Max inactivity in milliseconds while waiting for data from socket. Default -1 (use {@link MblApiOptions#getReadTimeout()}).
+     * </pre>
+     */
+    public MblRequest setReadTimeout(long readTimeout) {
+        mReadTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Retry request on transient failures. Default NULL (no retry).
+     * </pre>
+     */
+    public MblRequest setRetryPolicy(MblRetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Priority of request among pending requests of the same host. Default {@link Priority#NORMAL}.
+     * </pre>
+     */
+    public MblRequest setPriority(Priority priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Max number of in-flight requests to host of this request, which this request waits for. Default -1 (use {@link MblApiOptions#getMaxRequestsPerHost()}).
+     * </pre>
+     */
+    public MblRequest setMaxRequestsPerHost(int maxRequestsPerHost) {
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Token-bucket rate limit of host of this request: at most "permitsPerSecond" requests per second, with bursts of at most "burst" requests.
+     * Rate limit is shared by all requests of the same host, latest configuration wins but available tokens are kept (limited by new burst).
+     * Default -1 (use {@link MblApiOptions#getRateLimit()}).
+     * </pre>
+     */
+    public MblRequest setRateLimit(double permitsPerSecond, int burst) {
+        mRateLimit      = permitsPerSecond;
+        mRateLimitBurst = burst;
+        return this;
+    }
+
     public MblRequest setNotReturnByteArrayData(boolean notReturnByteArrayData) {
         this.mNotReturnByteArrayData = notReturnByteArrayData;
         return this;
     }
 
+    /**
+     * <pre>
+     * Consume response body as a stream in background thread instead of receiving a byte array.
+     * If this handler is set, data of {@link MblResponse} passed to {@link MblApiCallback#onSuccess(MblResponse)} is NULL.
+     * For GET requests with cache enabled, response body is written to cache file while being streamed.
+     * Failure responses are not streamed, their data is still returned as byte array.
+     * </pre>
+     */
+    public MblRequest setResponseStreamHandler(MblResponseStreamHandler responseStreamHandler) {
+        mResponseStreamHandler = responseStreamHandler;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Decode response body in background thread, result is delivered via {@link MblResponse#getParsedData()}.
+     * If this parser is set, data of {@link MblResponse} passed to {@link MblApiCallback#onSuccess(MblResponse)} is NULL.
+     * For GET requests with cache enabled, response body is written to cache file while being parsed, and parsed result is kept in memory (see {@link MblApiOptions#setParsedCacheSize(int)}).
+     * Parsed result is shared by all requests which are coalesced or hit in-memory cache with the same parser instance, it must not be modified.
+     * Failure responses are not parsed, their data is still returned as byte array. Request fails if parser throws exception.
+     * Can not be used together with {@link #setResponseStreamHandler(MblResponseStreamHandler)} or {@link #setDownloadFile(File)}.
+     * </pre>
+     */
+    public MblRequest setParser(MblResponseParser<?> parser) {
+        mParser = parser;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * For GET requests with cache enabled, return successful response as a handle of its cache file ({@link MblResponse#getCacheFile()}) instead of a byte array, data of {@link MblResponse} is NULL.
+     * Handle can be passed to decoders as a file descriptor, channel or memory-mapped buffer without copying response to Java heap.
+     * Cache file is pinned against eviction until handle is closed, callback MUST close it.
+     * Falls back to byte array data if response can not be cached (e.g. "Cache-Control: no-store"), unless {@link #setNotReturnByteArrayData(boolean)} is set.
+     * Cache file stored compressed (see {@link MblApiOptions#setCacheCompressionEnabled(boolean)}) is rewritten uncompressed the first time it is returned.
+     * Can not be used together with {@link #setResponseStreamHandler(MblResponseStreamHandler)}, {@link #setParser(MblResponseParser)} or {@link #setDownloadFile(File)}.
+     * Default is false.
+     * </pre>
+     */
+    public MblRequest setReturnCacheFile(boolean returnCacheFile) {
+        mReturnCacheFile = returnCacheFile;
+        return this;
+    }
+
     public String getUrl() {
         return mUrl;
     }
@@ -219,6 +572,26 @@ public class MblRequest {
         return mCacheDuration;
     }
 
+    public CachePolicy getCachePolicy() {
+        return mCachePolicy;
+    }
+
+    public boolean isStaleWhileRevalidate() {
+        return mStaleWhileRevalidate;
+    }
+
+    public boolean isDeliverRevalidatedResponse() {
+        return mDeliverRevalidatedResponse;
+    }
+
+    public Set<String> getExcludedCacheKeyParams() {
+        return mExcludedCacheKeyParams;
+    }
+
+    public MblCacheKeyGenerator getCacheKeyGenerator() {
+        return mCacheKeyGenerator;
+    }
+
     public boolean isVerifySSL() {
         return mVerifySSL;
     }
@@ -239,6 +612,10 @@ public class MblRequest {
         return mData;
     }
 
+    MblRequestBody getBody() {
+        return mBody;
+    }
+
     public boolean isRedirectEnabled() {
         return mRedirectEnabled;
     }
@@ -247,7 +624,94 @@ public class MblRequest {
         return mTimeout;
     }
 
+    public long getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    public long getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+
+    public double getRateLimit() {
+        return mRateLimit;
+    }
+
+    public int getRateLimitBurst() {
+        return mRateLimitBurst;
+    }
+
+    public MblRetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * <pre>
+     * Whether request can be sent more than once. Request whose body is a stream can be sent only once.
+     * </pre>
+     */
+    boolean isRepeatable() {
+        if (mBody != null && !mBody.isRepeatable()) {
+            return false;
+        }
+        if (mParams != null) {
+            for (Object val : mParams.values()) {
+                if (val instanceof InputStream) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public boolean isNotReturnByteArrayData() {
         return mNotReturnByteArrayData;
     }
+
+    public MblResponseStreamHandler getResponseStreamHandler() {
+        return mResponseStreamHandler;
+    }
+
+    public MblResponseParser<?> getParser() {
+        return mParser;
+    }
+
+    public boolean isReturnCacheFile() {
+        return mReturnCacheFile;
+    }
+
+    public boolean isCompressRequestBody() {
+        return mCompressRequestBody;
+    }
+
+    public MblUploadProgressListener getUploadProgressListener() {
+        return mUploadProgressListener;
+    }
+
+    public long getUploadProgressInterval() {
+        return mUploadProgressInterval;
+    }
+
+    public File getDownloadFile() {
+        return mDownloadFile;
+    }
+
+    public MblDownloadProgressListener getDownloadProgressListener() {
+        return mDownloadProgressListener;
+    }
+
+    public long getDownloadProgressInterval() {
+        return mDownloadProgressInterval;
+    }
+
+    public MblTransport getTransport() {
+        return mTransport;
+    }
 }
@@ -0,0 +1,138 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.api.MblApi.MblRequestBodyWriter;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <pre>
+ * Non-String request body which is streamed to server instead of being loaded into memory.
+ * Bodies whose length is unknown ({@link InputStream}, {@link MblRequestBodyWriter}) are sent with chunked transfer encoding.
+ * </pre>
+ */
+abstract class MblRequestBody {
+
+    static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    abstract HttpEntity toHttpEntity();
+
+    /**
+     * <pre>
+     * Whether body can be sent more than once (e.g. when request is retried).
+     * </pre>
+     */
+    boolean isRepeatable() {
+        return true;
+    }
+
+    static MblRequestBody fromFile(final File file) {
+        return new MblRequestBody() {
+            @Override
+            HttpEntity toHttpEntity() {
+                return new FileEntity(file, DEFAULT_CONTENT_TYPE);
+            }
+        };
+    }
+
+    static MblRequestBody fromInputStream(final InputStream in) {
+        return new MblRequestBody() {
+            @Override
+            boolean isRepeatable() {
+                return false;
+            }
+
+            @Override
+            HttpEntity toHttpEntity() {
+                InputStreamEntity entity = new InputStreamEntity(in, -1);
+                entity.setContentType(DEFAULT_CONTENT_TYPE);
+                entity.setChunked(true);
+                return entity;
+            }
+        };
+    }
+
+    static MblRequestBody fromByteArray(final byte[] data, final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", data.length=" + data.length);
+        }
+        return new MblRequestBody() {
+            @Override
+            HttpEntity toHttpEntity() {
+                return new ByteArraySliceEntity(data, offset, length);
+            }
+        };
+    }
+
+    static MblRequestBody fromWriter(final MblRequestBodyWriter writer) {
+        return new MblRequestBody() {
+            @Override
+            HttpEntity toHttpEntity() {
+                EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        writer.writeTo(out);
+                    }
+                });
+                entity.setContentType(DEFAULT_CONTENT_TYPE);
+                entity.setChunked(true);
+                return entity;
+            }
+        };
+    }
+
+    /**
+     * <pre>
+     * Entity of a part of byte array, without copying it.
+     * </pre>
+     */
+    private static class ByteArraySliceEntity extends AbstractHttpEntity {
+
+        private final byte[]    mData;
+        private final int       mOffset;
+        private final int       mLength;
+
+        ByteArraySliceEntity(byte[] data, int offset, int length) {
+            mData   = data;
+            mOffset = offset;
+            mLength = length;
+            setContentType(DEFAULT_CONTENT_TYPE);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mLength;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(mData, mOffset, mLength);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(mData, mOffset, mLength);
+            out.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.datdo.mobilib.api;
+
+import android.os.Handler;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * Single-flight de-duplication of in-progress requests.
+ * First request of a key is sent to server, later requests of the same key just wait for its result.
+ * </pre>
+ */
+class MblRequestCoalescer {
+
+    /**
+     * <pre>
+     * A caller waiting for result of an in-progress request.
+     * </pre>
+     */
+    static class Waiter {
+
+        private final MblApiCallback    mCallback;
+        private final Handler           mCallbackHandler;
+        private final MblRequest        mRequest;
+        private final MblRequestMetrics mMetrics;
+
+        Waiter(MblApiCallback callback, Handler callbackHandler, MblRequest request, MblRequestMetrics metrics) {
+            mCallback           = callback;
+            mCallbackHandler    = callbackHandler;
+            mRequest            = request;
+            mMetrics            = metrics;
+        }
+
+        MblApiCallback getCallback() {
+            return mCallback;
+        }
+
+        Handler getCallbackHandler() {
+            return mCallbackHandler;
+        }
+
+        MblRequest getRequest() {
+            return mRequest;
+        }
+
+        MblRequestMetrics getMetrics() {
+            return mMetrics;
+        }
+    }
+
+    /**
+     * <pre>
+     * An in-progress request and its waiters.
+     * </pre>
+     */
+    static class InFlight {
+
+        private final List<Waiter>  mWaiters = new ArrayList<Waiter>();
+        private MblTransportRequest mHttpRequest;
+        private boolean             mCancelled;
+    }
+
+    private static final Map<String, InFlight> sInFlightRequests = new HashMap<String, InFlight>();
+
+    /**
+     * <pre>
+     * Generate key to determine whether two requests are identical.
+     * Header params are sorted so that their order does not matter.
+     * </pre>
+     */
+    static String generateKey(String method, String fullUrl, Map<String, String> headerParams, Object... options) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(fullUrl);
+        if (headerParams != null) {
+            sb.append(' ').append(new TreeMap<String, String>(headerParams));
+        }
+        for (Object o : options) {
+            sb.append(' ').append(o);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * <pre>
+     * Identify an object by instance rather than by value, to be used as option of {@link #generateKey(String, String, Map, Object...)}.
+     * </pre>
+     * @return NULL if object is NULL
+     */
+    static String identityOf(Object o) {
+        return o != null ? o.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(o)) : null;
+    }
+
+    /**
+     * <pre>
+     * Register a waiter for a key.
+     * </pre>
+     * @return true if there is no in-progress request of the key, which means caller must send the request and call {@link #finish(String, InFlight)} when it is done
+     */
+    static synchronized boolean join(String key, Waiter waiter) {
+        InFlight inFlight = sInFlightRequests.get(key);
+        if (inFlight != null) {
+            if (!inFlight.mCancelled) {
+                inFlight.mWaiters.add(waiter);
+                return false;
+            }
+            if (inFlight.mHttpRequest == null) {
+                // request is cancelled before being sent, revive it
+                inFlight.mCancelled = false;
+                inFlight.mWaiters.add(waiter);
+                return false;
+            }
+            // request is being aborted, a new one must be sent
+        }
+        inFlight = new InFlight();
+        inFlight.mWaiters.add(waiter);
+        sInFlightRequests.put(key, inFlight);
+        return true;
+    }
+
+    /**
+     * <pre>
+     * Bind HTTP request which is about to be sent for a key. HTTP request is aborted immediately if all waiters have cancelled.
+     * </pre>
+     * @return in-progress request of the key, to be passed to {@link #finish(String, InFlight)}
+     */
+    static InFlight attach(String key, MblTransportRequest httpRequest) {
+        boolean cancelled;
+        InFlight inFlight;
+        synchronized (MblRequestCoalescer.class) {
+            inFlight = sInFlightRequests.get(key);
+            if (inFlight == null) {
+                return null;
+            }
+            inFlight.mHttpRequest = httpRequest;
+            cancelled = inFlight.mCancelled;
+        }
+        if (cancelled) {
+            httpRequest.abort();
+        }
+        return inFlight;
+    }
+
+    /**
+     * <pre>
+     * Remove a waiter. HTTP request is aborted when there is no waiter left.
+     * </pre>
+     */
+    static void cancel(String key, Waiter waiter) {
+        MblTransportRequest httpRequest = null;
+        synchronized (MblRequestCoalescer.class) {
+            InFlight inFlight = sInFlightRequests.get(key);
+            if (inFlight == null || !inFlight.mWaiters.remove(waiter)) {
+                return;
+            }
+            if (inFlight.mWaiters.isEmpty()) {
+                inFlight.mCancelled = true;
+                httpRequest = inFlight.mHttpRequest;
+            }
+        }
+        if (httpRequest != null) {
+            httpRequest.abort();
+        }
+    }
+
+    /**
+     * <pre>
+     * Mark request of a key as done.
+     * </pre>
+     * @param inFlight value returned by {@link #attach(String, MblTransportRequest)}, or NULL if request is not sent
+     * @return all waiters of the request
+     */
+    static synchronized List<Waiter> finish(String key, InFlight inFlight) {
+        if (inFlight == null) {
+            inFlight = sInFlightRequests.get(key);
+            if (inFlight == null || inFlight.mHttpRequest != null) {
+                return new ArrayList<Waiter>();
+            }
+        }
+        if (sInFlightRequests.get(key) == inFlight) {
+            sInFlightRequests.remove(key);
+        }
+        return new ArrayList<Waiter>(inFlight.mWaiters);
+    }
+}
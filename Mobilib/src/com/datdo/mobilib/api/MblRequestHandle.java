@@ -0,0 +1,165 @@
+package com.datdo.mobilib.api;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <pre>
+ * Handle of a request sent via {@link MblApi#run(MblRequest)}, used to cancel it.
+ * Cancelling a request aborts its HTTP connection via {@link MblTransportRequest#setAbortAction(Runnable)}, so that worker thread and connection are released immediately.
+ * Callback of a cancelled request is never invoked.
+ *
+ * Sample code:
+ * {@code
+ * MblRequestHandle handle = MblApi.run(request);
+ * ...
+ * handle.cancel();
+ * }
+ * </pre>
+ */
+public class MblRequestHandle {
+
+    private static final int STATE_RUNNING      = 0;
+    private static final int STATE_DELIVERED    = 1;
+    private static final int STATE_CANCELLED    = 2;
+    private static final int STATE_TIMED_OUT    = 3;
+
+    private final AtomicInteger             mState = new AtomicInteger(STATE_RUNNING);
+    private volatile MblTransportRequest    mHttpRequest;
+    private volatile Runnable               mCancelAction;
+    private volatile ScheduledFuture<?>     mDeadline;
+    private volatile ScheduledFuture<?>     mRetry;
+
+    MblRequestHandle() {}
+
+    /**
+     * <pre>
+     * Cancel request. Do nothing if its result has already been delivered.
+     * </pre>
+     * @return true if request is cancelled by this call
+     */
+    public boolean cancel() {
+        if (mState.compareAndSet(STATE_RUNNING, STATE_CANCELLED)) {
+            cancelDeadline();
+            cancelRetry();
+            abort();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return mState.get() == STATE_CANCELLED;
+    }
+
+    /**
+     * <pre>
+     * Whether request was aborted because it exceeded its total deadline.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setTimeout(long)
+     */
+    public boolean isTimedOut() {
+        return mState.get() == STATE_TIMED_OUT;
+    }
+
+    /**
+     * <pre>
+     * Whether request is finished (delivered, cancelled or timed out).
+     * </pre>
+     */
+    public boolean isDone() {
+        return mState.get() != STATE_RUNNING;
+    }
+
+    /**
+     * <pre>
+     * Bind HTTP request being executed, which is aborted when this handle is cancelled.
+     * </pre>
+     */
+    void attach(MblTransportRequest httpRequest) {
+        mHttpRequest = httpRequest;
+        if (isCancelled() || isTimedOut()) {
+            httpRequest.abort();
+        }
+    }
+
+    /**
+     * <pre>
+     * Set action to release request when this handle is cancelled, instead of aborting HTTP request directly.
+     * Used by coalesced requests whose HTTP request is shared with other callers.
+     * </pre>
+     */
+    void setCancelAction(Runnable cancelAction) {
+        mCancelAction = cancelAction;
+    }
+
+    /**
+     * <pre>
+     * Called before delivering result to callback.
+     * </pre>
+     * @return true if result can be delivered (request is neither cancelled nor timed out)
+     */
+    boolean onDeliver() {
+        if (mState.compareAndSet(STATE_RUNNING, STATE_DELIVERED)) {
+            cancelDeadline();
+            return true;
+        }
+        return mState.get() == STATE_DELIVERED;
+    }
+
+    /**
+     * <pre>
+     * Abort request if it is not delivered after a period.
+     * </pre>
+     * @param onTimeout invoked in background thread when request is aborted
+     */
+    void scheduleDeadline(long timeout, final Runnable onTimeout) {
+        mDeadline = MblApiExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mState.compareAndSet(STATE_RUNNING, STATE_TIMED_OUT)) {
+                    cancelRetry();
+                    abort();
+                    onTimeout.run();
+                }
+            }
+        }, timeout);
+    }
+
+    /**
+     * <pre>
+     * Schedule next attempt of request. Waiting does not hold any thread.
+     * </pre>
+     */
+    void scheduleRetry(long delay, Runnable retry) {
+        mRetry = MblApiExecutor.schedule(retry, delay);
+        if (isDone()) {
+            cancelRetry();
+        }
+    }
+
+    private void cancelRetry() {
+        ScheduledFuture<?> retry = mRetry;
+        if (retry != null) {
+            retry.cancel(false);
+        }
+    }
+
+    private void cancelDeadline() {
+        ScheduledFuture<?> deadline = mDeadline;
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+    }
+
+    private void abort() {
+        Runnable cancelAction = mCancelAction;
+        if (cancelAction != null) {
+            cancelAction.run();
+        }
+        MblTransportRequest httpRequest = mHttpRequest;
+        if (httpRequest != null) {
+            httpRequest.abort();
+        }
+    }
+}
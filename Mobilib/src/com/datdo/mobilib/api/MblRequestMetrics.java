@@ -0,0 +1,393 @@
+package com.datdo.mobilib.api;
+
+import android.text.TextUtils;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * Timing breakdown and traffic of a request, attached to its {@link MblResponse}.
+ * All times are in milliseconds. A time is -1 if phase did not happen (e.g. TLS handshake of a reused connection) or can not be measured by transport.
+ *
+ * Connection phase times (DNS, connect, TLS) are measured only by {@link MblUrlConnectionTransport}.
+ * With {@link MblApacheTransport}, which is the default transport, they are always -1 and connecting is included in first byte time.
+ * DNS time is not measured by any built-in transport, {@link MblUrlConnectionTransport} includes it in connect time.
+ * Queue, first byte, download and total times, traffic, cache tier and retry count are measured with all transports.
+ *
+ * Sample code:
+ * {@code
+ * public void onSuccess(MblResponse response) {
+ *      MblRequestMetrics metrics = response.getMetrics();
+ *      Log.d(TAG, "TTFB: " + metrics.getFirstByteTime() + "ms, tier: " + metrics.getCacheTier());
+ * }
+ * }
+ * </pre>
+ * @see com.datdo.mobilib.api.MblApiMetrics
+ */
+public class MblRequestMetrics {
+
+    /**
+     * <pre>
+     * Where response was served from.
+     * </pre>
+     */
+    public static enum CacheTier {
+        /**
+         * Parsed response is taken from memory without reading cache file.
+         * @see com.datdo.mobilib.api.MblApiOptions#setParsedCacheSize(int)
+         */
+        MEMORY,
+        /**
+         * Response is read from cache file without touching network.
+         */
+        DISK,
+        /**
+         * Cache file is revalidated by server (304 Not Modified) then read.
+         */
+        REVALIDATED,
+        /**
+         * Response is downloaded from server.
+         */
+        NETWORK
+    }
+
+    private final long  mDispatchedAt;
+    private long        mStartedAt      = -1;
+    private long        mHeadersAt      = -1;
+    private long        mQueueTime      = -1;
+    private long        mDnsTime        = -1;
+    private long        mConnectTime    = -1;
+    private long        mTlsTime        = -1;
+    private long        mFirstByteTime  = -1;
+    private long        mDownloadTime   = -1;
+    private long        mTotalTime      = -1;
+    private long        mBytesSent;
+    private long        mBytesReceived;
+    private CacheTier   mCacheTier;
+    private int         mRetryCount;
+
+    MblRequestMetrics(int retryCount) {
+        mDispatchedAt   = now();
+        mRetryCount     = retryCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        List<String> tokens = new ArrayList<>();
+        tokens.add("QUEUE="             + mQueueTime);
+        tokens.add("DNS="               + mDnsTime);
+        tokens.add("CONNECT="           + mConnectTime);
+        tokens.add("TLS="               + mTlsTime);
+        tokens.add("FIRST_BYTE="        + mFirstByteTime);
+        tokens.add("DOWNLOAD="          + mDownloadTime);
+        tokens.add("TOTAL="             + mTotalTime);
+        tokens.add("BYTES_SENT="        + mBytesSent);
+        tokens.add("BYTES_RECEIVED="    + mBytesReceived);
+        tokens.add("CACHE_TIER="        + mCacheTier);
+        tokens.add("RETRY_COUNT="       + mRetryCount);
+        return "{" + TextUtils.join(", ", tokens) + "}";
+    }
+
+    /**
+     * <pre>
+     * Add time spent resolving host name. Called by {@link MblTransport}, once for each connection it opens.
+     * </pre>
+     */
+    public synchronized void addDnsTime(long dnsTime) {
+        mDnsTime = Math.max(mDnsTime, 0) + dnsTime;
+    }
+
+    /**
+     * <pre>
+     * Add time spent establishing TCP connection, excluding TLS, and excluding DNS if it is reported by {@link #addDnsTime(long)}. Called by {@link MblTransport}.
+     * </pre>
+     */
+    public synchronized void addConnectTime(long connectTime) {
+        mConnectTime = Math.max(mConnectTime, 0) + connectTime;
+    }
+
+    /**
+     * <pre>
+     * Add time spent on TLS handshake. Called by {@link MblTransport}.
+     * </pre>
+     */
+    public synchronized void addTlsTime(long tlsTime) {
+        mTlsTime = Math.max(mTlsTime, 0) + tlsTime;
+    }
+
+    /**
+     * <pre>
+     * Time from sending request until a worker thread starts processing it (waiting for thread pool, per-host limit, rate limit).
+     * </pre>
+     */
+    public synchronized long getQueueTime() {
+        return mQueueTime;
+    }
+
+    /**
+     * <pre>
+     * Time spent resolving host name. Always -1 with built-in transports.
+     * </pre>
+     */
+    public synchronized long getDnsTime() {
+        return mDnsTime;
+    }
+
+    /**
+     * <pre>
+     * Time spent establishing TCP connection. Measured only by {@link MblUrlConnectionTransport}, -1 with {@link MblApacheTransport}.
+     * </pre>
+     */
+    public synchronized long getConnectTime() {
+        return mConnectTime;
+    }
+
+    /**
+     * <pre>
+     * Time spent on TLS handshake. Measured only by {@link MblUrlConnectionTransport}, -1 with {@link MblApacheTransport}.
+     * </pre>
+     */
+    public synchronized long getTlsTime() {
+        return mTlsTime;
+    }
+
+    /**
+     * <pre>
+     * Time from sending request on an established connection until response headers are received, including upload of request body.
+     * With {@link MblApacheTransport}, time to establish connection is included.
+     * </pre>
+     */
+    public synchronized long getFirstByteTime() {
+        return mFirstByteTime;
+    }
+
+    /**
+     * <pre>
+     * Time from receiving response headers until response body is fully read.
+     * </pre>
+     */
+    public synchronized long getDownloadTime() {
+        return mDownloadTime;
+    }
+
+    /**
+     * <pre>
+     * Time from sending request until its result is ready to be delivered.
+     * </pre>
+     */
+    public synchronized long getTotalTime() {
+        return mTotalTime;
+    }
+
+    /**
+     * <pre>
+     * Bytes of request body written to network, after compression.
+     * </pre>
+     */
+    public synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * <pre>
+     * Bytes of response body read from network, before decompression.
+     * </pre>
+     */
+    public synchronized long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * <pre>
+     * NULL if request failed before a response is received.
+     * </pre>
+     */
+    public synchronized CacheTier getCacheTier() {
+        return mCacheTier;
+    }
+
+    /**
+     * <pre>
+     * 0 for first attempt of request, 1 for first retry, ...
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setRetryPolicy(MblRetryPolicy)
+     */
+    public synchronized int getRetryCount() {
+        return mRetryCount;
+    }
+
+    synchronized MblRequestMetrics setCacheTier(CacheTier cacheTier) {
+        mCacheTier = cacheTier;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Mark that worker thread starts processing request.
+     * </pre>
+     */
+    synchronized void onStart() {
+        mStartedAt = now();
+        mQueueTime = mStartedAt - mDispatchedAt;
+    }
+
+    /**
+     * <pre>
+     * Mark that response headers are received, for a request which was handed to transport at "sentAt".
+     * </pre>
+     */
+    synchronized void onHeaders(long sentAt) {
+        mHeadersAt = now();
+        long firstByteTime = mHeadersAt - sentAt - Math.max(mDnsTime, 0) - Math.max(mConnectTime, 0) - Math.max(mTlsTime, 0);
+        mFirstByteTime = Math.max(firstByteTime, 0);
+    }
+
+    /**
+     * <pre>
+     * Mark that request is done and its result is about to be delivered.
+     * </pre>
+     */
+    synchronized MblRequestMetrics finish() {
+        mTotalTime = now() - mDispatchedAt;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Take network phases of a shared (coalesced) request, then finish.
+     * Queue time of this request lasts until shared request started.
+     * </pre>
+     */
+    MblRequestMetrics finish(MblRequestMetrics network) {
+        synchronized (network) {
+            synchronized (this) {
+                mQueueTime      = network.mStartedAt >= 0 ? Math.max(network.mStartedAt - mDispatchedAt, 0) : mQueueTime;
+                mDnsTime        = network.mDnsTime;
+                mConnectTime    = network.mConnectTime;
+                mTlsTime        = network.mTlsTime;
+                mFirstByteTime  = network.mFirstByteTime;
+                mDownloadTime   = network.mDownloadTime;
+                mBytesSent      = network.mBytesSent;
+                mBytesReceived  = network.mBytesReceived;
+                mCacheTier      = network.mCacheTier;
+            }
+        }
+        return finish();
+    }
+
+    private synchronized void onBytesSent(long count) {
+        mBytesSent += count;
+    }
+
+    private synchronized void onBytesReceived(long count) {
+        mBytesReceived += count;
+    }
+
+    private synchronized void onDownloaded() {
+        if (mHeadersAt >= 0 && mDownloadTime < 0) {
+            mDownloadTime = now() - mHeadersAt;
+        }
+    }
+
+    /**
+     * <pre>
+     * Wrap response body to count received bytes and measure download time.
+     * </pre>
+     */
+    InputStream meter(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b < 0) {
+                    onDownloaded();
+                } else {
+                    onBytesReceived(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int n = super.read(buffer, offset, count);
+                if (n < 0) {
+                    onDownloaded();
+                } else {
+                    onBytesReceived(n);
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    onDownloaded();
+                }
+            }
+        };
+    }
+
+    /**
+     * <pre>
+     * Wrap request body to count sent bytes.
+     * </pre>
+     */
+    MblTransportBody meter(final MblTransportBody body) {
+        return new MblTransportBody() {
+            @Override
+            public String getContentType() {
+                return body.getContentType();
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return body.getContentEncoding();
+            }
+
+            @Override
+            public long getContentLength() {
+                return body.getContentLength();
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return body.isRepeatable();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                body.writeTo(new FilterOutputStream(out) {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        onBytesSent(1);
+                    }
+
+                    @Override
+                    public void write(byte[] buffer, int offset, int count) throws IOException {
+                        out.write(buffer, offset, count);
+                        onBytesSent(count);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        // connection stream is closed by transport
+                        flush();
+                    }
+                });
+            }
+        };
+    }
+
+    static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
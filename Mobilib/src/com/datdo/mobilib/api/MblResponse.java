@@ -19,6 +19,11 @@ public class MblResponse {
     private String              mStatusCodeReason;
     private Map<String, String> mHeaders;
     private byte[]              mData;
+    private boolean             mStale;
+    private MblRequestMetrics   mMetrics;
+    private Object              mParsedData;
+    private MblCacheFile        mCacheFile;
+    private boolean             mNetworkError;
 
     public MblResponse() {}
 
@@ -28,6 +33,8 @@ public class MblResponse {
         tokens.add("STATUS_CODE="           + mStatusCode);
         tokens.add("STATUS_CODE_REASON="    + mStatusCodeReason);
         tokens.add("HEADERS="               + mHeaders);
+        tokens.add("STALE="                 + mStale);
+        tokens.add("METRICS="               + mMetrics);
         tokens.add("DATA="                  + (!MblUtils.isEmpty(mData) ? new String(mData) : ""));
         return "{" + TextUtils.join(", ", tokens) + "}";
     }
@@ -57,6 +64,31 @@ public class MblResponse {
         return this;
     }
 
+    public MblResponse setStale(boolean stale) {
+        mStale = stale;
+        return this;
+    }
+
+    public MblResponse setMetrics(MblRequestMetrics metrics) {
+        mMetrics = metrics;
+        return this;
+    }
+
+    public MblResponse setParsedData(Object parsedData) {
+        mParsedData = parsedData;
+        return this;
+    }
+
+    public MblResponse setCacheFile(MblCacheFile cacheFile) {
+        mCacheFile = cacheFile;
+        return this;
+    }
+
+    public MblResponse setNetworkError(boolean networkError) {
+        mNetworkError = networkError;
+        return this;
+    }
+
     public MblRequest getRequest() {
         return mRequest;
     }
@@ -76,4 +108,56 @@ public class MblResponse {
     public byte[] getData() {
         return mData;
     }
+
+    /**
+     * <pre>
+     * Result of parser of request, NULL if parser is not set or request failed.
+     * Parsed results of GET requests may be shared with other requests of the same URL and parser instance (coalesced requests, in-memory cache hits), they must not be modified.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setParser(MblApi.MblResponseParser)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getParsedData() {
+        return (T) mParsedData;
+    }
+
+    /**
+     * <pre>
+     * Whether request failed (status code -1) due to an I/O error while talking to server: connection failure, socket timeout, broken response.
+     * Other failures with status code -1 (invalid params, request rejected by thread pool, timed out by {@link MblRequest#setTimeout(long)}, parser error) are not network errors.
+     * </pre>
+     */
+    public boolean isNetworkError() {
+        return mNetworkError;
+    }
+
+    /**
+     * <pre>
+     * Handle of cache file holding response body, NULL if request did not ask for it or response could not be returned as a file.
+     * Receiver of this response owns the handle and MUST close it.
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setReturnCacheFile(boolean)
+     */
+    public MblCacheFile getCacheFile() {
+        return mCacheFile;
+    }
+
+    /**
+     * <pre>
+     * Whether data is returned from expired cache (offline mode or stale-while-revalidate mode).
+     * </pre>
+     * @see com.datdo.mobilib.api.MblRequest#setStaleWhileRevalidate(boolean)
+     */
+    public boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * <pre>
+     * Timing breakdown and traffic of request. NULL if request failed before being sent (invalid params, rejected, timed out).
+     * </pre>
+     */
+    public MblRequestMetrics getMetrics() {
+        return mMetrics;
+    }
 }
@@ -0,0 +1,181 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.api.MblApi.Method;
+
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import java.util.Random;
+
+/**
+ * <pre>
+ * Policy to retry requests which fail due to transient errors: network errors ({@link MblResponse#isNetworkError()}), status codes 408, 429, 500, 502, 503, 504.
+ * Requests which fail before reaching network (invalid params, rejected by thread pool) are not retried.
+ * Delay between attempts follows exponential backoff with full jitter: random(0, min(maxDelay, baseDelay * 2 ^ (attempt - 1))).
+ * "Retry-After" header of server takes precedence over backoff.
+ * By default, only idempotent requests (GET, PUT, DELETE) are retried. POST requests are retried only if {@link #setRetryNonIdempotent(boolean)} is TRUE.
+ * Requests whose body can be read only once (e.g. {@link com.datdo.mobilib.api.MblRequest#setData(java.io.InputStream)}) are never retried.
+ *
+ * Sample code:
+ * {@code
+ * MblApi.run(new MblRequest()
+ *      .setUrl(url)
+ *      .setRetryPolicy(new MblRetryPolicy()
+ *              .setMaxAttempts(5)
+ *              .setBackoff(1000, 60000))
+ *      .setCallback(callback));
+ * }
+ * </pre>
+ * @see com.datdo.mobilib.api.MblRequest#setRetryPolicy(MblRetryPolicy)
+ */
+@SuppressWarnings("deprecation")
+public class MblRetryPolicy {
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static final Random sRandom = new Random();
+
+    private int     mMaxAttempts            = 3;
+    private long    mBaseDelay              = 500;
+    private long    mMaxDelay               = 30 * 1000;
+    private boolean mRetryNonIdempotent     = false;
+    private boolean mRespectRetryAfter      = true;
+
+    public MblRetryPolicy() {}
+
+    /**
+     * <pre>
+     * Configure max number of attempts, including the first one. Default 3.
+     * </pre>
+     */
+    public MblRetryPolicy setMaxAttempts(int maxAttempts) {
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure base delay and max delay of exponential backoff, in milliseconds. Default 500 and 30000.
+     * </pre>
+     */
+    public MblRetryPolicy setBackoff(long baseDelay, long maxDelay) {
+        mBaseDelay  = baseDelay;
+        mMaxDelay   = maxDelay;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure whether non-idempotent requests (POST) are retried. Default FALSE.
+     * </pre>
+     */
+    public MblRetryPolicy setRetryNonIdempotent(boolean retryNonIdempotent) {
+        mRetryNonIdempotent = retryNonIdempotent;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Configure whether "Retry-After" header is used as delay (still limited by max delay). Default TRUE.
+     * </pre>
+     */
+    public MblRetryPolicy setRespectRetryAfter(boolean respectRetryAfter) {
+        mRespectRetryAfter = respectRetryAfter;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return mBaseDelay;
+    }
+
+    public long getMaxDelay() {
+        return mMaxDelay;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return mRetryNonIdempotent;
+    }
+
+    public boolean isRespectRetryAfter() {
+        return mRespectRetryAfter;
+    }
+
+    /**
+     * <pre>
+     * Determine whether a failed attempt should be retried.
+     * </pre>
+     * @param attempt number of attempts done, starting from 1
+     */
+    public boolean shouldRetry(MblRequest request, MblResponse response, int attempt) {
+        if (attempt >= mMaxAttempts) {
+            return false;
+        }
+        if (request.getMethod() == Method.POST && !mRetryNonIdempotent) {
+            return false;
+        }
+        if (!request.isRepeatable()) {
+            return false;
+        }
+        return isTransient(response);
+    }
+
+    /**
+     * <pre>
+     * Calculate delay in milliseconds before next attempt.
+     * </pre>
+     * @param attempt number of attempts done, starting from 1
+     */
+    public long getDelay(MblResponse response, int attempt) {
+        if (mRespectRetryAfter) {
+            long retryAfter = parseRetryAfter(MblApi.getHeader(response.getHeaders(), HEADER_RETRY_AFTER));
+            if (retryAfter >= 0) {
+                return Math.min(retryAfter, mMaxDelay);
+            }
+        }
+        long backoff = mBaseDelay << Math.min(attempt - 1, 30);
+        if (backoff <= 0 || backoff > mMaxDelay) {
+            backoff = mMaxDelay;
+        }
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * backoff);
+        }
+    }
+
+    // status code -1 is used for all local failures, only network errors among them are transient
+    static boolean isTransient(MblResponse response) {
+        switch (response.getStatusCode()) {
+            case -1:
+                return response.isNetworkError();
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // "Retry-After" is either number of seconds or HTTP date
+    private static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+            } catch (DateParseException e1) {
+                return -1;
+            }
+        }
+    }
+}
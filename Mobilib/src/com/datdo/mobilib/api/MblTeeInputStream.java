@@ -0,0 +1,69 @@
+package com.datdo.mobilib.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <pre>
+ * {@link InputStream} which copies all bytes read from source stream to an {@link OutputStream}.
+ * </pre>
+ */
+class MblTeeInputStream extends FilterInputStream {
+
+    private final OutputStream mBranch;
+
+    MblTeeInputStream(InputStream in, OutputStream branch) {
+        super(in);
+        mBranch = branch;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mBranch.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int n = super.read(buffer, offset, count);
+        if (n > 0) {
+            mBranch.write(buffer, offset, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes must be copied too
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // source stream is not closed here so that remaining bytes can still be copied by drain()
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * <pre>
+     * Read all remaining bytes so that branch receives full content of source stream.
+     * </pre>
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[8192];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // just copy to branch
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.datdo.mobilib.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * <pre>
+ * SSL socket factory which measures TLS handshake time of sockets created while a request is being connected.
+ * Sockets are created by delegate factory and returned as is, so that platform can still configure them (SNI, ALPN).
+ * </pre>
+ */
+class MblTimingSSLSocketFactory extends SSLSocketFactory {
+
+    private static final ThreadLocal<MblRequestMetrics> sMetrics = new ThreadLocal<MblRequestMetrics>();
+
+    private final SSLSocketFactory mDelegate;
+
+    /**
+     * @param delegate NULL to use platform default factory
+     */
+    MblTimingSSLSocketFactory(SSLSocketFactory delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * <pre>
+     * Report handshakes of sockets created by current thread to metrics, until {@link #end()} is called.
+     * </pre>
+     */
+    static void begin(MblRequestMetrics metrics) {
+        sMetrics.set(metrics);
+    }
+
+    static void end() {
+        sMetrics.remove();
+    }
+
+    private SSLSocketFactory getDelegate() {
+        // default factory is looked up every time because app may replace it (e.g. to update security provider)
+        return mDelegate != null ? mDelegate : HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return getDelegate().getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return getDelegate().getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return track(getDelegate().createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(getDelegate().createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return track(getDelegate().createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return track(getDelegate().createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return track(getDelegate().createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return track(getDelegate().createSocket(address, port, localAddress, localPort));
+    }
+
+    private static Socket track(Socket socket) {
+        MblRequestMetrics metrics = sMetrics.get();
+        if (metrics == null || !(socket instanceof SSLSocket)) {
+            return socket;
+        }
+        final long startedAt = MblRequestMetrics.now();
+        final AtomicReference<MblRequestMetrics> target = new AtomicReference<MblRequestMetrics>(metrics);
+        // listener can not be removed while listeners are being notified, it only reports the first handshake instead
+        ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            @Override
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                MblRequestMetrics m = target.getAndSet(null);
+                if (m != null) {
+                    m.addTlsTime(MblRequestMetrics.now() - startedAt);
+                }
+            }
+        });
+        return socket;
+    }
+}
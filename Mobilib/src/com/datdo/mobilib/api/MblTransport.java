@@ -0,0 +1,41 @@
+package com.datdo.mobilib.api;
+
+import java.io.IOException;
+
+/**
+ * <pre>
+ * HTTP stack used by {@link MblApi} to exchange a request with server.
+ * {@link MblApi} takes care of everything else (cache, coalescing, retry, compression, callbacks), a transport only sends request and returns response.
+ *
+ * Built-in transports:
+ *  {@link MblApacheTransport}: based on Apache HttpClient, default
+ *  {@link MblUrlConnectionTransport}: based on {@link java.net.HttpURLConnection}, opt-in
+ *
+ * Custom transports can be used to route requests to a local stand-in server in tests and benchmarks.
+ * Sample code:
+ * {@code
+ * MblApi.setOptions(new MblApiOptions().setTransport(new MblTransport() {
+ *      public MblTransportResponse execute(MblTransportRequest request) throws IOException {
+ *          Map<String, String> headers = new HashMap<String, String>();
+ *          headers.put("Content-Type", "application/json");
+ *          return new MblTransportResponse(200, "OK", headers, new ByteArrayInputStream("{}".getBytes()));
+ *      }
+ * }));
+ * }
+ * </pre>
+ * @see com.datdo.mobilib.api.MblApiOptions#setTransport(MblTransport)
+ * @see com.datdo.mobilib.api.MblRequest#setTransport(MblTransport)
+ */
+public interface MblTransport {
+
+    /**
+     * <pre>
+     * Send request and wait for response headers, in background thread.
+     * Transport must support {@link MblTransportRequest#setAbortAction(Runnable)}, so that request can be cancelled while it is blocked.
+     * Any status code, including error status codes, must be returned as a response instead of being thrown.
+     * </pre>
+     * @return response whose body is read then closed by caller
+     * @throws IOException if request can not be sent or response can not be received
+     */
+    public MblTransportResponse execute(MblTransportRequest request) throws IOException;
+}
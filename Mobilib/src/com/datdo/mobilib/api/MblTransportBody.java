@@ -0,0 +1,99 @@
+package com.datdo.mobilib.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <pre>
+ * Body of a {@link MblTransportRequest}, written to connection by {@link MblTransport}.
+ * </pre>
+ */
+public abstract class MblTransportBody {
+
+    /**
+     * <pre>
+     * Value of "Content-Type" header, NULL if not specified.
+     * </pre>
+     */
+    public abstract String getContentType();
+
+    /**
+     * <pre>
+     * Value of "Content-Encoding" header, NULL if body is not encoded.
+     * </pre>
+     */
+    public abstract String getContentEncoding();
+
+    /**
+     * <pre>
+     * Length in bytes, -1 if unknown (body must be sent with chunked transfer encoding).
+     * </pre>
+     */
+    public abstract long getContentLength();
+
+    /**
+     * <pre>
+     * Whether body can be written more than once (e.g. to follow redirect or retry request).
+     * </pre>
+     */
+    public abstract boolean isRepeatable();
+
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * <pre>
+     * Adapt Apache entity (form params, multipart params, ...) to transport body.
+     * </pre>
+     */
+    static MblTransportBody fromHttpEntity(HttpEntity entity) {
+        return new HttpEntityBody(entity);
+    }
+
+    /**
+     * <pre>
+     * Body backed by an Apache entity, which is passed as is to {@link MblApacheTransport}.
+     * </pre>
+     */
+    static class HttpEntityBody extends MblTransportBody {
+
+        private final HttpEntity mEntity;
+
+        HttpEntityBody(HttpEntity entity) {
+            mEntity = entity;
+        }
+
+        HttpEntity getEntity() {
+            return mEntity;
+        }
+
+        @Override
+        public String getContentType() {
+            Header h = mEntity.getContentType();
+            return h != null ? h.getValue() : null;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            Header h = mEntity.getContentEncoding();
+            return h != null ? h.getValue() : null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mEntity.isChunked() ? -1 : mEntity.getContentLength();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return mEntity.isRepeatable();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            mEntity.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.datdo.mobilib.api;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * HTTP request passed from {@link MblApi} to {@link MblTransport}.
+ * URL already contains query params of GET requests, headers already contain conditional and content coding headers.
+ * </pre>
+ */
+public class MblTransportRequest {
+
+    private final String                mMethod;
+    private final String                mUrl;
+    private final Map<String, String>   mHeaders = new LinkedHashMap<String, String>();
+    private MblTransportBody            mBody;
+    private boolean                     mVerifySSL;
+    private boolean                     mRedirectEnabled;
+    private long                        mConnectTimeout;
+    private long                        mReadTimeout;
+    private Runnable                    mAbortAction;
+    private boolean                     mAborted;
+    private MblRequestMetrics           mMetrics = new MblRequestMetrics(0);
+
+    MblTransportRequest(String method, String url) {
+        mMethod = method;
+        mUrl    = url;
+    }
+
+    /**
+     * <pre>
+     * Set a header, replacing header of the same name (case-insensitive).
+     * </pre>
+     */
+    MblTransportRequest setHeader(String name, String value) {
+        removeHeader(name);
+        mHeaders.put(name, value);
+        return this;
+    }
+
+    MblTransportRequest setHeaders(Map<String, String> headers) {
+        if (headers != null) {
+            for (String name : headers.keySet()) {
+                setHeader(name, headers.get(name));
+            }
+        }
+        return this;
+    }
+
+    MblTransportRequest removeHeader(String name) {
+        for (String key : mHeaders.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                mHeaders.remove(key);
+                break;
+            }
+        }
+        return this;
+    }
+
+    MblTransportRequest setBody(MblTransportBody body) {
+        mBody = body;
+        return this;
+    }
+
+    MblTransportRequest setVerifySSL(boolean verifySSL) {
+        mVerifySSL = verifySSL;
+        return this;
+    }
+
+    MblTransportRequest setRedirectEnabled(boolean redirectEnabled) {
+        mRedirectEnabled = redirectEnabled;
+        return this;
+    }
+
+    MblTransportRequest setConnectTimeout(long connectTimeout) {
+        mConnectTimeout = connectTimeout;
+        return this;
+    }
+
+    MblTransportRequest setReadTimeout(long readTimeout) {
+        mReadTimeout = readTimeout;
+        return this;
+    }
+
+    MblTransportRequest setMetrics(MblRequestMetrics metrics) {
+        mMetrics = metrics;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * Abort request: run abort action registered by transport, or mark request as aborted so that abort action is run as soon as it is registered.
+     * </pre>
+     */
+    void abort() {
+        Runnable abortAction;
+        synchronized (this) {
+            if (mAborted) {
+                return;
+            }
+            mAborted = true;
+            abortAction = mAbortAction;
+        }
+        if (abortAction != null) {
+            abortAction.run();
+        }
+    }
+
+    /**
+     * <pre>
+     * Register action which releases underlying connection, invoked when request is cancelled or timed out (in other thread).
+     * If request has already been aborted, action is invoked immediately.
+     * </pre>
+     */
+    public void setAbortAction(Runnable abortAction) {
+        boolean aborted;
+        synchronized (this) {
+            mAbortAction = abortAction;
+            aborted = mAborted;
+        }
+        if (aborted && abortAction != null) {
+            abortAction.run();
+        }
+    }
+
+    public synchronized boolean isAborted() {
+        return mAborted;
+    }
+
+    /**
+     * <pre>
+     * "GET", "POST", "PUT" or "DELETE".
+     * </pre>
+     */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * <pre>
+     * Headers to send, in insertion order. Read-only.
+     * </pre>
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(mHeaders);
+    }
+
+    /**
+     * <pre>
+     * Header value, looked up case-insensitively.
+     * </pre>
+     */
+    public String getHeader(String name) {
+        return MblApi.getHeader(mHeaders, name);
+    }
+
+    /**
+     * <pre>
+     * Request body, NULL if request does not have body.
+     * </pre>
+     */
+    public MblTransportBody getBody() {
+        return mBody;
+    }
+
+    /**
+     * <pre>
+     * If false, SSL certificate and host name of server are not verified.
+     * </pre>
+     */
+    public boolean isVerifySSL() {
+        return mVerifySSL;
+    }
+
+    public boolean isRedirectEnabled() {
+        return mRedirectEnabled;
+    }
+
+    /**
+     * <pre>
+     * Timeout in milliseconds to establish connection, 0 for no timeout.
+     * </pre>
+     */
+    public long getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    /**
+     * <pre>
+     * Max inactivity in milliseconds while waiting for data from socket, 0 for no timeout.
+     * </pre>
+     */
+    public long getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    /**
+     * <pre>
+     * Metrics of request. Transports report DNS, connect and TLS times here if they can measure them while connecting, without extra work.
+     * </pre>
+     */
+    public MblRequestMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    @Override
+    public String toString() {
+        return mMethod + " " + mUrl;
+    }
+}
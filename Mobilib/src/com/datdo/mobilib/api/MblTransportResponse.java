@@ -0,0 +1,91 @@
+package com.datdo.mobilib.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <pre>
+ * HTTP response returned by {@link MblTransport}. Body is streamed from connection, it must be closed to release connection.
+ * </pre>
+ */
+public class MblTransportResponse implements Closeable {
+
+    private final int                   mStatusCode;
+    private final String                mStatusCodeReason;
+    private final Map<String, String>   mHeaders;
+    private InputStream                 mBody;
+
+    /**
+     * @param headers response headers, one value per name
+     * @param body NULL if response does not have body
+     */
+    public MblTransportResponse(int statusCode, String statusCodeReason, Map<String, String> headers, InputStream body) {
+        mStatusCode         = statusCode;
+        mStatusCodeReason   = statusCodeReason;
+        mHeaders            = headers != null ? headers : new HashMap<String, String>();
+        mBody               = body != null ? body : new ByteArrayInputStream(new byte[0]);
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    public String getStatusCodeReason() {
+        return mStatusCodeReason;
+    }
+
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * <pre>
+     * Header value, looked up case-insensitively.
+     * </pre>
+     */
+    public String getHeader(String name) {
+        return MblApi.getHeader(mHeaders, name);
+    }
+
+    public InputStream getBody() {
+        return mBody;
+    }
+
+    void setBody(InputStream body) {
+        mBody = body;
+    }
+
+    /**
+     * <pre>
+     * Read whole body into memory, then close it.
+     * </pre>
+     */
+    byte[] readBody() throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = mBody.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * <pre>
+     * Close body. Transports should release or reuse connection when body is closed.
+     * </pre>
+     */
+    @Override
+    public void close() throws IOException {
+        mBody.close();
+    }
+}
@@ -0,0 +1,193 @@
+package com.datdo.mobilib.api;
+
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * <pre>
+ * {@link MblTransport} based on {@link HttpURLConnection}, which is maintained by Android platform (connection pooling, HTTP/2 on recent releases).
+ * This transport is opt-in, enable it by {@link MblApiOptions#setTransport(MblTransport)} or {@link MblRequest#setTransport(MblTransport)}.
+ *
+ * Differences from default {@link MblApacheTransport}:
+ *  Connections are pooled by platform, therefore connection pool configurations of {@link MblApiOptions} are not applied.
+ *  Connect timeout does not limit time waiting for a pooled connection.
+ *  System proxy settings are used.
+ *  Body of error responses may be NULL if server does not send one.
+ *  Protocol (HTTP/2) and TLS versions depend on platform version.
+ *  Connect and TLS times are reported in {@link MblRequestMetrics}.
+ *
+ * Redirects are followed by this class instead of {@link HttpURLConnection}, so that redirects between HTTP and HTTPS are followed like {@link MblApacheTransport}.
+ * </pre>
+ */
+public class MblUrlConnectionTransport implements MblTransport {
+
+    private static final String HEADER_CONTENT_TYPE     = "Content-Type";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_LOCATION         = "Location";
+    private static final int    HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int    MAX_REDIRECTS           = 20;
+
+    private static final SSLSocketFactory sSSLSocketFactory = new MblTimingSSLSocketFactory(null);
+    private static SSLSocketFactory sSSLSocketFactoryIgnoreSSLCertificate;
+
+    static {
+        // connection reuse is broken before Gingerbread
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
+            System.setProperty("http.keepAlive", "false");
+        }
+    }
+
+    @Override
+    public MblTransportResponse execute(MblTransportRequest request) throws IOException {
+
+        // redirects are followed manually, the same way as Apache HttpClient: any protocol, redirected request is sent as GET without body
+        String url = request.getUrl();
+        String method = request.getMethod();
+        MblTransportBody body = request.getBody();
+        for (int redirects = 0; ; redirects++) {
+            MblTransportResponse response = execute(request, url, method, body);
+            int statusCode = response.getStatusCode();
+            String location = response.getHeader(HEADER_LOCATION);
+            if (!request.isRedirectEnabled() || location == null || !isRedirect(statusCode, method)) {
+                return response;
+            }
+            response.close();
+            if (redirects >= MAX_REDIRECTS) {
+                throw new IOException("Too many redirects: " + request.getUrl());
+            }
+            url = new URL(new URL(url), location).toString();
+            method = "GET";
+            body = null;
+        }
+    }
+
+    private static boolean isRedirect(int statusCode, String method) {
+        switch (statusCode) {
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case HTTP_TEMPORARY_REDIRECT:
+                return "GET".equals(method) || "HEAD".equals(method);
+            case HttpURLConnection.HTTP_SEE_OTHER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private MblTransportResponse execute(MblTransportRequest request, String url, String method, MblTransportBody body) throws IOException {
+
+        MblRequestMetrics metrics = request.getMetrics();
+        final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        request.setAbortAction(new Runnable() {
+            @Override
+            public void run() {
+                conn.disconnect();
+            }
+        });
+
+        try {
+            // factories are shared so that connections and SSL sessions can be reused
+            if (conn instanceof HttpsURLConnection) {
+                HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+                if (request.isVerifySSL()) {
+                    httpsConn.setSSLSocketFactory(sSSLSocketFactory);
+                } else {
+                    httpsConn.setSSLSocketFactory(getSSLSocketFactoryIgnoreSSLCertificate());
+                    httpsConn.setHostnameVerifier(MblSSLCertificateUtils.getHostnameVerifierIgnoreSSLCertificate());
+                }
+            }
+            conn.setRequestMethod(method);
+            conn.setInstanceFollowRedirects(false);
+            conn.setConnectTimeout((int) request.getConnectTimeout());
+            conn.setReadTimeout((int) request.getReadTimeout());
+            conn.setUseCaches(false);
+
+            Map<String, String> headers = request.getHeaders();
+            for (String name : headers.keySet()) {
+                conn.setRequestProperty(name, headers.get(name));
+            }
+
+            // connection can not be configured after connect(), so body headers and streaming mode are set first
+            if (body != null) {
+                if (body.getContentType() != null && request.getHeader(HEADER_CONTENT_TYPE) == null) {
+                    conn.setRequestProperty(HEADER_CONTENT_TYPE, body.getContentType());
+                }
+                if (body.getContentEncoding() != null && request.getHeader(HEADER_CONTENT_ENCODING) == null) {
+                    conn.setRequestProperty(HEADER_CONTENT_ENCODING, body.getContentEncoding());
+                }
+                conn.setDoOutput(true);
+                long length = body.getContentLength();
+                if (length >= 0 && length <= Integer.MAX_VALUE) {
+                    conn.setFixedLengthStreamingMode((int) length);
+                } else {
+                    conn.setChunkedStreamingMode(0);
+                }
+            }
+
+            // connect explicitly to measure connect (including DNS) and TLS times, nothing happens if a pooled connection is reused
+            long connectStartedAt = MblRequestMetrics.now();
+            long tlsTime = Math.max(metrics.getTlsTime(), 0);
+            MblTimingSSLSocketFactory.begin(metrics);
+            try {
+                conn.connect();
+            } finally {
+                MblTimingSSLSocketFactory.end();
+            }
+            tlsTime = Math.max(metrics.getTlsTime(), 0) - tlsTime;
+            metrics.addConnectTime(Math.max(MblRequestMetrics.now() - connectStartedAt - tlsTime, 0));
+
+            if (body != null) {
+                OutputStream out = conn.getOutputStream();
+                try {
+                    body.writeTo(out);
+                } finally {
+                    out.close();
+                }
+            }
+
+            int statusCode;
+            try {
+                statusCode = conn.getResponseCode();
+            } catch (IOException e) {
+                // some platform versions throw on 401 without "WWW-Authenticate" header, status code is available on second call
+                statusCode = conn.getResponseCode();
+            }
+
+            Map<String, String> responseHeaders = new HashMap<String, String>();
+            for (Map.Entry<String, List<String>> e : conn.getHeaderFields().entrySet()) {
+                // status line is stored with NULL key
+                if (e.getKey() != null && e.getValue() != null && !e.getValue().isEmpty()) {
+                    responseHeaders.put(e.getKey(), e.getValue().get(e.getValue().size() - 1));
+                }
+            }
+
+            InputStream in = statusCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
+
+            return new MblTransportResponse(statusCode, conn.getResponseMessage(), responseHeaders, in);
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        } catch (RuntimeException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private static synchronized SSLSocketFactory getSSLSocketFactoryIgnoreSSLCertificate() {
+        if (sSSLSocketFactoryIgnoreSSLCertificate == null) {
+            sSSLSocketFactoryIgnoreSSLCertificate = new MblTimingSSLSocketFactory(MblSSLCertificateUtils.getSSLSocketFactoryIgnoreSSLCertificate());
+        }
+        return sSSLSocketFactoryIgnoreSSLCertificate;
+    }
+}
@@ -9,6 +9,7 @@ import android.net.ConnectivityManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.datdo.mobilib.api.MblApi;
 import com.datdo.mobilib.util.MblUtils;
 
 /**
@@ -27,6 +28,7 @@ public abstract class MblBaseApplication extends Application {
     public void onCreate() {
         super.onCreate();
         MblUtils.init(this);
+        MblApi.init();
 
         // check version-code changed
         int versionCode = MblUtils.getAppPackageInfo().versionCode;
@@ -1,5 +1,6 @@
 package com.datdo.mobilib.cache;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,22 +17,88 @@ public class MblDatabaseCache extends DBBase {
     private static final String TABLE       = "cache";
     private static final String COL_KEY     = "key";
     private static final String COL_DATE    = "date";
+    private static final String COL_ETAG    = "etag";
+    private static final String COL_LAST_MODIFIED = "last_modified";
+    private static final String COL_MAX_AGE = "max_age";
+    private static final String COL_MUST_REVALIDATE = "must_revalidate";
+    private static final String COL_SIZE    = "size";
+    private static final String COL_LAST_ACCESS = "last_access";
+    private static final String COL_COMPRESSED = "compressed";
+
+    private static final String[] ALL_COLUMNS = new String[] {
+            COL_KEY, COL_DATE, COL_ETAG, COL_LAST_MODIFIED, COL_MAX_AGE, COL_MUST_REVALIDATE, COL_SIZE, COL_LAST_ACCESS, COL_COMPRESSED };
 
     private String      mKey;
     private long        mDate;
+    private String      mETag;
+    private String      mLastModified;
+    private long        mMaxAge = -1;
+    private boolean     mMustRevalidate;
+    private long        mSize;
+    private long        mLastAccess;
+    private boolean     mCompressed;
 
     public static void createTable(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + TABLE);
         db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + "("
                 + COL_KEY   + " TEXT NOT NULL,"
-                + COL_DATE  + " LONG)");
-        db.execSQL("CREATE INDEX " + TABLE + "_index ON " + TABLE + "(" + COL_KEY + ")");
+                + COL_DATE  + " LONG,"
+                + COL_ETAG  + " TEXT,"
+                + COL_LAST_MODIFIED + " TEXT,"
+                + COL_MAX_AGE + " LONG,"
+                + COL_MUST_REVALIDATE + " INTEGER,"
+                + COL_SIZE  + " LONG,"
+                + COL_LAST_ACCESS + " LONG,"
+                + COL_COMPRESSED + " INTEGER DEFAULT 0)");
+        db.execSQL("CREATE UNIQUE INDEX " + TABLE + "_index ON " + TABLE + "(" + COL_KEY + ")");
+        db.execSQL("CREATE INDEX " + TABLE + "_last_access_index ON " + TABLE + "(" + COL_LAST_ACCESS + ")");
     }
 
     public static void dropTable(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + TABLE);
     }
 
+    /**
+     * <pre>
+     * Add column introduced in database version 7, keeping existing records (they are not compressed).
+     * </pre>
+     */
+    public static void addCompressedColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN " + COL_COMPRESSED + " INTEGER DEFAULT 0");
+    }
+
+    /**
+     * <pre>
+     * Delete cache files of records written before database version 5, when cache files were saved directly in cache folder, named by MD5 of key.
+     * Must be called before table is dropped. Files are deleted in background.
+     * </pre>
+     */
+    public static void deleteLegacyFiles(SQLiteDatabase db) {
+        final List<String> paths = new ArrayList<String>();
+        Cursor cur = db.query(TABLE, new String[] { COL_KEY }, null, null, null, null, null);
+        try {
+            while (cur.moveToNext()) {
+                String key = cur.getString(0);
+                if (!MblUtils.isEmpty(key)) {
+                    paths.add(MblUtils.getCacheAsbPath(MblUtils.md5(key)));
+                }
+            }
+        } finally {
+            cur.close();
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+        MblUtils.executeOnAsyncThread(new Runnable() {
+            @Override
+            public void run() {
+                for (String path : paths) {
+                    new File(path).delete();
+                }
+            }
+        });
+    }
+
     public MblDatabaseCache() {
         super();
     }
@@ -73,6 +140,13 @@ public class MblDatabaseCache extends DBBase {
         MblDatabaseCache c = new MblDatabaseCache();
         c.setKey(cur.getString(0));
         c.setDate(cur.getLong(1));
+        c.setETag(cur.getString(2));
+        c.setLastModified(cur.getString(3));
+        c.setMaxAge(cur.isNull(4) ? -1 : cur.getLong(4));
+        c.setMustRevalidate(cur.getInt(5) != 0);
+        c.setSize(cur.getLong(6));
+        c.setLastAccess(cur.getLong(7));
+        c.setCompressed(cur.getInt(8) != 0);
         return c;
     }
 
@@ -80,6 +154,13 @@ public class MblDatabaseCache extends DBBase {
         ContentValues values = new ContentValues();
         values.put(COL_KEY, c.getKey());
         values.put(COL_DATE, c.getDate());
+        values.put(COL_ETAG, c.getETag());
+        values.put(COL_LAST_MODIFIED, c.getLastModified());
+        values.put(COL_MAX_AGE, c.getMaxAge());
+        values.put(COL_MUST_REVALIDATE, c.isMustRevalidate() ? 1 : 0);
+        values.put(COL_SIZE, c.getSize());
+        values.put(COL_LAST_ACCESS, c.getLastAccess());
+        values.put(COL_COMPRESSED, c.isCompressed() ? 1 : 0);
         return values;
     }
 
@@ -107,7 +188,7 @@ public class MblDatabaseCache extends DBBase {
     public static MblDatabaseCache get(String key) {
         Cursor cur = getDatabase().query(
                 TABLE,
-                null, 
+                ALL_COLUMNS,
                 COL_KEY + " = ?",
                 new String[] { key },
                 null, null, null);
@@ -120,7 +201,59 @@ public class MblDatabaseCache extends DBBase {
     }
 
     public static List<MblDatabaseCache> getAll() {
-        Cursor cur = getDatabase().query(TABLE, null, null, null, null, null, null);
+        Cursor cur = getDatabase().query(TABLE, ALL_COLUMNS, null, null, null, null, null);
+        List<MblDatabaseCache> ret = new ArrayList<MblDatabaseCache>();
+        while (cur.moveToNext()) {
+            ret.add(fromCursor(cur));
+        }
+        cur.close();
+        return ret;
+    }
+
+    /**
+     * <pre>
+     * Update last access time of a record, without touching other columns.
+     * </pre>
+     */
+    public static void updateLastAccess(String key, long lastAccess) {
+        ContentValues values = new ContentValues();
+        values.put(COL_LAST_ACCESS, lastAccess);
+        getDatabase().update(
+                TABLE,
+                values,
+                COL_KEY + " = ?",
+                new String[] { key });
+    }
+
+    /**
+     * <pre>
+     * Get total size in bytes of all cache files.
+     * </pre>
+     */
+    public static long getTotalSize() {
+        Cursor cur = getDatabase().rawQuery("SELECT SUM(" + COL_SIZE + ") FROM " + TABLE, null);
+        long ret = 0;
+        if (cur.moveToNext() && !cur.isNull(0)) {
+            ret = cur.getLong(0);
+        }
+        cur.close();
+        return ret;
+    }
+
+    /**
+     * <pre>
+     * Get records which have cache file, least recently accessed first.
+     * </pre>
+     */
+    public static List<MblDatabaseCache> getLeastRecentlyUsed(int limit) {
+        Cursor cur = getDatabase().query(
+                TABLE,
+                ALL_COLUMNS,
+                COL_SIZE + " > 0",
+                null,
+                null, null,
+                COL_LAST_ACCESS + " ASC",
+                String.valueOf(limit));
         List<MblDatabaseCache> ret = new ArrayList<MblDatabaseCache>();
         while (cur.moveToNext()) {
             ret.add(fromCursor(cur));
@@ -144,7 +277,7 @@ public class MblDatabaseCache extends DBBase {
 
         Cursor cur = getDatabase().query(
                 TABLE,
-                null,
+                ALL_COLUMNS,
                 COL_KEY + " IN (" + TextUtils.join(",", placeholder) + ") AND " + COL_DATE + " + " + duration + " > " + System.currentTimeMillis(),
                 selectionArgs,
                 null, null, null);
@@ -171,4 +304,95 @@ public class MblDatabaseCache extends DBBase {
     public void setDate(long date) {
         mDate = date;
     }
+
+    /**
+     * <pre>
+     * Value of "ETag" header of cached HTTP response, used for conditional requests.
+     * </pre>
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    public void setETag(String eTag) {
+        mETag = eTag;
+    }
+
+    /**
+     * <pre>
+     * Value of "Last-Modified" header of cached HTTP response, used for conditional requests.
+     * </pre>
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        mLastModified = lastModified;
+    }
+
+    /**
+     * <pre>
+     * Freshness lifetime in milliseconds specified by server via "Cache-Control: max-age" or "Expires" headers, -1 if not specified.
+     * </pre>
+     */
+    public long getMaxAge() {
+        return mMaxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        mMaxAge = maxAge;
+    }
+
+    /**
+     * <pre>
+     * Whether server requires cache not to be used after it is expired, even when network is not available.
+     * </pre>
+     */
+    public boolean isMustRevalidate() {
+        return mMustRevalidate;
+    }
+
+    public void setMustRevalidate(boolean mustRevalidate) {
+        mMustRevalidate = mustRevalidate;
+    }
+
+    /**
+     * <pre>
+     * Size in bytes of cache file, 0 if record does not have cache file.
+     * </pre>
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    public void setSize(long size) {
+        mSize = size;
+    }
+
+    /**
+     * <pre>
+     * Last time cache was written or read, used for LRU eviction.
+     * </pre>
+     */
+    public long getLastAccess() {
+        return mLastAccess;
+    }
+
+    public void setLastAccess(long lastAccess) {
+        mLastAccess = lastAccess;
+    }
+
+    /**
+     * <pre>
+     * Whether cache file is gzip-compressed.
+     * </pre>
+     */
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        mCompressed = compressed;
+    }
 }
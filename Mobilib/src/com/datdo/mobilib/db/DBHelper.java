@@ -1,5 +1,6 @@
 package com.datdo.mobilib.db;
 
+import com.datdo.mobilib.api.MblDatabaseOutbox;
 import com.datdo.mobilib.cache.MblDatabaseCache;
 
 import android.content.Context;
@@ -11,7 +12,7 @@ import android.database.sqlite.SQLiteOpenHelper;
  */
 class DBHelper extends SQLiteOpenHelper {
     private static final String DB_NAME = "mobilib.db";
-    private static final int DB_VERSION = 2;
+    private static final int DB_VERSION = 7;
     private static DBHelper instance;
 
     public static DBHelper getInstance(Context context) {
@@ -32,15 +33,28 @@ class DBHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        dropTables(db);
-        createTables(db);
+        if (oldVersion < 6) {
+            // cache files were saved directly in cache folder before version 5, they are not reachable anymore
+            if (oldVersion < 5) {
+                MblDatabaseCache.deleteLegacyFiles(db);
+            }
+            dropTables(db);
+            createTables(db);
+            return;
+        }
+        // keep pending requests of outbox
+        if (oldVersion < 7) {
+            MblDatabaseCache.addCompressedColumn(db);
+        }
     }
 
     public static void createTables(SQLiteDatabase db) {
         MblDatabaseCache.createTable(db);
+        MblDatabaseOutbox.createTable(db);
     }
 
     public static void dropTables(SQLiteDatabase db) {
         MblDatabaseCache.dropTable(db);
+        MblDatabaseOutbox.dropTable(db);
     }
 }
@@ -16,6 +16,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
@@ -41,6 +42,7 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -80,6 +82,7 @@ import junit.framework.Assert;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -420,6 +423,46 @@ public class MblUtils {
         return activeNetwork != null && activeNetwork.isConnected();
     }
 
+    /**
+     * <pre>
+     * Determine whether network is currently connected via Wi-Fi.
+     * </pre>
+     */
+    public static boolean isWifiConnected() {
+        ConnectivityManager conMan = (ConnectivityManager) getCurrentContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = conMan.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected() && activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+
+    /**
+     * <pre>
+     * Get current battery level in percent.
+     * </pre>
+     * @return 0..100, or -1 if battery level is not available
+     */
+    public static int getBatteryLevel() {
+        Intent battery = getCurrentContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return -1;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            return -1;
+        }
+        return level * 100 / scale;
+    }
+
+    /**
+     * <pre>
+     * Determine whether device is plugged in to a power source.
+     * </pre>
+     */
+    public static boolean isBatteryCharging() {
+        Intent battery = getCurrentContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
     /**
      * <pre>
      * Determine whether Bluetooth is currently turned on.
@@ -1083,14 +1126,27 @@ public class MblUtils {
         if (!file.exists()) {
             return null;
         }
-        return readStream(new FileInputStream(file));
+        return readStream(new FileInputStream(file), file.length());
     }
 
     private static byte[] readStream(InputStream in) throws IOException {
-        byte[] b = new byte[in.available()];
-        in.read(b);
-        in.close();
-        return b;
+        return readStream(in, -1);
+    }
+
+    private static byte[] readStream(InputStream in, long sizeHint) throws IOException {
+        // available() and a single read() do not guarantee to return whole content, read until end of stream instead
+        try {
+            int initialSize = sizeHint > 0 && sizeHint < Integer.MAX_VALUE ? (int) sizeHint : Math.max(in.available(), 1024);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(initialSize);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
     }
 
     /**
@@ -1115,12 +1171,7 @@ public class MblUtils {
      * @return binary data
      */
     public static byte[] readInternalFile(String absolutePath) throws IOException {
-        FileInputStream in = getCurrentContext().openFileInput(absolutePath);
-        byte[] b = new byte[in.available()];
-        in.read(b);
-        in.close();
-
-        return b;
+        return readStream(getCurrentContext().openFileInput(absolutePath));
     }
 
     /**
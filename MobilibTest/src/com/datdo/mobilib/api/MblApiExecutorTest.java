@@ -0,0 +1,162 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApiExecutor.Lane;
+import com.datdo.mobilib.api.MblApiOptions.MblRejectionPolicy;
+import com.datdo.mobilib.util.MblUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MblApiExecutorTest {
+
+    public static void run() throws InterruptedException {
+
+        MblApiOptions oldOptions = MblApi.getOptions();
+        try {
+            // CASE 1: each lane has its own threads, prefetch threads have low priority
+            MblApi.setOptions(new MblApiOptions());
+            Assert.assertTrue(threadOf(Lane.NETWORK).getName().startsWith("MblApi-Network-"));
+            Assert.assertTrue(threadOf(Lane.CACHE).getName().startsWith("MblApi-Cache-"));
+            Thread prefetchThread = threadOf(Lane.PREFETCH);
+            Assert.assertTrue(prefetchThread.getName().startsWith("MblApi-Prefetch-"));
+            Assert.assertEquals(Thread.MIN_PRIORITY, prefetchThread.getPriority());
+
+            // CASE 2: FAIL_FAST rejects action when all threads are busy and queue is full
+            MblApi.setOptions(new MblApiOptions()
+                    .setNetworkThreadPool(1, 1, 1)
+                    .setRejectionPolicy(MblRejectionPolicy.FAIL_FAST));
+            CountDownLatch unblock = fill(Lane.NETWORK);
+            Assert.assertTrue(isRejected(Lane.NETWORK));
+            unblock.countDown();
+
+            // CASE 3: CALLER_RUNS runs action in caller thread, unless caller is main thread
+            MblApi.setOptions(new MblApiOptions()
+                    .setNetworkThreadPool(1, 1, 1)
+                    .setRejectionPolicy(MblRejectionPolicy.CALLER_RUNS));
+            unblock = fill(Lane.NETWORK);
+            final Thread[] runner = new Thread[1];
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MblApiExecutor.execute(Lane.NETWORK, new Runnable() {
+                        @Override
+                        public void run() {
+                            runner[0] = Thread.currentThread();
+                        }
+                    });
+                }
+            });
+            caller.start();
+            caller.join();
+            Assert.assertSame(caller, runner[0]);
+            Assert.assertTrue(isRejectedInMainThread(Lane.NETWORK));
+            unblock.countDown();
+
+            // CASE 4: BLOCK makes caller wait for a free slot of queue
+            MblApi.setOptions(new MblApiOptions()
+                    .setNetworkThreadPool(1, 1, 1)
+                    .setRejectionPolicy(MblRejectionPolicy.BLOCK));
+            unblock = fill(Lane.NETWORK);
+            final CountDownLatch executed = new CountDownLatch(1);
+            caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MblApiExecutor.execute(Lane.NETWORK, new Runnable() {
+                        @Override
+                        public void run() {
+                            executed.countDown();
+                        }
+                    });
+                }
+            });
+            caller.start();
+            caller.join(200);
+            Assert.assertTrue(caller.isAlive());
+            unblock.countDown();
+            caller.join(5000);
+            Assert.assertFalse(caller.isAlive());
+            Assert.assertTrue(executed.await(5, TimeUnit.SECONDS));
+
+            // CASE 5: actions queued before pools are re-configured are still executed
+            MblApi.setOptions(new MblApiOptions().setNetworkThreadPool(1, 1, 2));
+            unblock = fill(Lane.NETWORK);
+            final CountDownLatch queuedDone = new CountDownLatch(1);
+            MblApiExecutor.execute(Lane.NETWORK, new Runnable() {
+                @Override
+                public void run() {
+                    queuedDone.countDown();
+                }
+            });
+            MblApi.setOptions(new MblApiOptions());
+            Assert.assertNotNull(threadOf(Lane.NETWORK));
+            unblock.countDown();
+            Assert.assertTrue(queuedDone.await(5, TimeUnit.SECONDS));
+        } finally {
+            MblApi.setOptions(oldOptions);
+        }
+    }
+
+    private static Thread threadOf(Lane lane) throws InterruptedException {
+        final Thread[] thread = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        MblApiExecutor.execute(lane, new Runnable() {
+            @Override
+            public void run() {
+                thread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return thread[0];
+    }
+
+    // occupy the only thread of lane and a slot of its queue, until returned latch is released
+    private static CountDownLatch fill(Lane lane) throws InterruptedException {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    unblock.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        MblApiExecutor.execute(lane, blocker);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        MblApiExecutor.execute(lane, blocker);
+        return unblock;
+    }
+
+    private static boolean isRejected(Lane lane) {
+        try {
+            MblApiExecutor.execute(lane, new Runnable() {
+                @Override
+                public void run() {}
+            });
+            return false;
+        } catch (RejectedExecutionException e) {
+            return true;
+        }
+    }
+
+    private static boolean isRejectedInMainThread(final Lane lane) throws InterruptedException {
+        final boolean[] rejected = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        MblUtils.executeOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                rejected[0] = isRejected(lane);
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return rejected[0];
+    }
+}
@@ -0,0 +1,91 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblBatchCallback;
+import com.datdo.mobilib.api.MblApi.Method;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MblBatchRunnerTest {
+
+    public static void run() throws InterruptedException {
+
+        // CASE 1: at most "maxConcurrency" requests are in progress, results are aggregated in order of requests
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        MblTransport transport = new MblTransport() {
+            @Override
+            public MblTransportResponse execute(MblTransportRequest request) throws IOException {
+                int n = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), n));
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                } finally {
+                    running.decrementAndGet();
+                }
+                // odd requests fail
+                int index = Integer.parseInt(request.getUrl().substring(request.getUrl().lastIndexOf('/') + 1));
+                return new MblTransportResponse(index % 2 == 0 ? 200 : 500, "", new HashMap<String, String>(), new ByteArrayInputStream(new byte[0]));
+            }
+        };
+        List<MblRequest> requests = new ArrayList<MblRequest>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(new MblRequest()
+                    .setMethod(Method.POST)
+                    .setUrl("http://batch.example.com/" + i)
+                    .setTransport(transport));
+        }
+
+        final CountDownLatch complete = new CountDownLatch(1);
+        final AtomicInteger doneCount = new AtomicInteger();
+        final List<MblResponse> result = new ArrayList<MblResponse>();
+        final int[] successCount = new int[1];
+        MblApi.runAll(requests, 2, new MblBatchCallback() {
+            @Override
+            public void onRequestDone(int index, MblResponse response, boolean success) {
+                doneCount.incrementAndGet();
+            }
+
+            @Override
+            public void onComplete(List<MblResponse> responses, int count) {
+                result.addAll(responses);
+                successCount[0] = count;
+                complete.countDown();
+            }
+        });
+        Assert.assertTrue(complete.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        Assert.assertEquals(5, doneCount.get());
+        Assert.assertEquals(3, successCount[0]);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertSame(requests.get(i), result.get(i).getRequest());
+            Assert.assertEquals(i % 2 == 0 ? 200 : 500, result.get(i).getStatusCode());
+        }
+
+        // CASE 2: empty batch completes immediately
+        final CountDownLatch emptyComplete = new CountDownLatch(1);
+        MblApi.runAll(new ArrayList<MblRequest>(), 2, new MblBatchCallback() {
+            @Override
+            public void onRequestDone(int index, MblResponse response, boolean success) {}
+
+            @Override
+            public void onComplete(List<MblResponse> responses, int count) {
+                Assert.assertTrue(responses.isEmpty());
+                emptyComplete.countDown();
+            }
+        });
+        Assert.assertTrue(emptyComplete.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,71 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.CachePolicy;
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class MblCacheControlTest {
+
+    public static void run() {
+
+        // CASE 1: "max-age" is parsed in milliseconds and takes precedence over "Expires"
+        MblCacheControl cc = MblCacheControl.parse(headers(
+                "Cache-Control", "public, max-age=60",
+                "Date", "Sun, 06 Nov 1994 08:49:37 GMT",
+                "Expires", "Sun, 06 Nov 1994 08:59:37 GMT"));
+        Assert.assertEquals(60 * 1000, cc.getMaxAge());
+        Assert.assertFalse(cc.isNoStore());
+        Assert.assertFalse(cc.isMustRevalidate());
+
+        // CASE 2: "Expires" is relative to "Date" of server
+        cc = MblCacheControl.parse(headers(
+                "Date", "Sun, 06 Nov 1994 08:49:37 GMT",
+                "Expires", "Sun, 06 Nov 1994 08:59:37 GMT"));
+        Assert.assertEquals(10 * 60 * 1000, cc.getMaxAge());
+
+        // CASE 3: invalid "Expires" means already expired
+        cc = MblCacheControl.parse(headers("Expires", "0"));
+        Assert.assertEquals(0, cc.getMaxAge());
+
+        // CASE 4: "no-cache" is "max-age=0, must-revalidate", "no-store" is recognized, directives are case-insensitive
+        cc = MblCacheControl.parse(headers("Cache-Control", "No-Cache, NO-STORE"));
+        Assert.assertEquals(0, cc.getMaxAge());
+        Assert.assertTrue(cc.isMustRevalidate());
+        Assert.assertTrue(cc.isNoStore());
+
+        // CASE 5: no directive means unknown freshness
+        cc = MblCacheControl.parse(headers());
+        Assert.assertEquals(-1, cc.getMaxAge());
+
+        // CASE 6: freshness combines client duration and server max-age according to policy
+        long now = System.currentTimeMillis();
+        MblDatabaseCache c = new MblDatabaseCache("MblCacheControlTest", now - 30 * 1000);
+        c.setMaxAge(60 * 1000);
+        Assert.assertFalse(MblCacheControl.isFresh(CachePolicy.CLIENT, 10 * 1000, c));
+        Assert.assertTrue(MblCacheControl.isFresh(CachePolicy.SERVER, 10 * 1000, c));
+        Assert.assertFalse(MblCacheControl.isFresh(CachePolicy.MIN, 10 * 1000, c));
+        Assert.assertTrue(MblCacheControl.isFresh(CachePolicy.MAX, 10 * 1000, c));
+
+        // CASE 7: without server max-age, client duration is used for every policy
+        c.setMaxAge(-1);
+        Assert.assertTrue(MblCacheControl.isFresh(CachePolicy.SERVER, 60 * 1000, c));
+        Assert.assertFalse(MblCacheControl.isFresh(CachePolicy.SERVER, 10 * 1000, c));
+
+        // CASE 8: stale cache can not be served if server requires revalidation, unless client policy is used
+        c.setMustRevalidate(true);
+        Assert.assertFalse(MblCacheControl.canServeStale(CachePolicy.SERVER, c));
+        Assert.assertTrue(MblCacheControl.canServeStale(CachePolicy.CLIENT, c));
+    }
+
+    private static Map<String, String> headers(String... nameValues) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            headers.put(nameValues[i], nameValues[i + 1]);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,75 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import junit.framework.Assert;
+
+import java.io.IOException;
+
+public class MblCacheEvictionTest {
+
+    public static void run() throws Exception {
+
+        // CASE 1: cache is bounded by default
+        Assert.assertEquals(20 * 1024 * 1024, new MblApiOptions().getMaxCacheSize());
+
+        // CASE 2: cache files are kept in a dedicated sub-folder of cache folder
+        MblDatabaseCache c = new MblDatabaseCache("MblCacheEvictionTest", System.currentTimeMillis());
+        Assert.assertTrue(MblDiskCache.getFileName(c).startsWith(MblDiskCache.DIR_NAME + "/"));
+        Assert.assertEquals(MblDiskCache.DIR_NAME, MblDiskCache.getFile(c).getParentFile().getName());
+
+        MblApiOptions oldOptions = MblApi.getOptions();
+        try {
+            MblApi.clearCache();
+            MblApi.setOptions(new MblApiOptions().setMaxCacheSize(25));
+
+            // CASE 3: least recently used cache is evicted when cache exceeds max size
+            MblDatabaseCache c1 = commit("MblCacheEvictionTest-1");
+            MblDatabaseCache c2 = commit("MblCacheEvictionTest-2");
+            MblDiskCache.touch(c1);
+            Thread.sleep(10);
+            commit("MblCacheEvictionTest-3");
+            Assert.assertTrue(waitForEviction(c2.getKey()));
+            Assert.assertNotNull(MblDiskCache.lookup(c1.getKey()));
+            Assert.assertFalse(MblDiskCache.getFile(c2).exists());
+
+            // CASE 4: pinned cache is never evicted
+            MblDiskCache.pin(c1.getKey());
+            try {
+                commit("MblCacheEvictionTest-4");
+                Assert.assertTrue(waitForEviction("MblCacheEvictionTest-3"));
+                Assert.assertNotNull(MblDiskCache.lookup(c1.getKey()));
+            } finally {
+                MblDiskCache.unpin(c1.getKey());
+            }
+        } finally {
+            MblApi.setOptions(oldOptions);
+            MblApi.clearCache();
+        }
+    }
+
+    // commit a 10-byte cache file, later commits are more recently used
+    private static MblDatabaseCache commit(String key) throws IOException, InterruptedException {
+        MblDatabaseCache c = new MblDatabaseCache(key, System.currentTimeMillis());
+        MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(c);
+        try {
+            out.write("0123456789".getBytes("UTF-8"));
+            MblDiskCache.commit(c, out);
+        } finally {
+            out.close();
+        }
+        Thread.sleep(10);
+        return c;
+    }
+
+    // eviction runs in background
+    private static boolean waitForEviction(String key) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (MblDiskCache.lookup(key) == null) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.cache.MblDatabaseCache;
+import com.datdo.mobilib.util.MblUtils;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+
+public class MblCacheFileTest {
+
+    public static void run() throws IOException {
+
+        MblDatabaseCache c = new MblDatabaseCache("MblCacheFileTest", System.currentTimeMillis());
+        File file = MblDiskCache.getFile(c);
+        MblUtils.saveFile("0123456789".getBytes("UTF-8"), file.getAbsolutePath());
+
+        // CASE 1: opened file is pinned until it is closed, closing twice has no effect
+        MblCacheFile cacheFile = MblCacheFile.open(c);
+        Assert.assertTrue(MblDiskCache.isPinned(c.getKey()));
+        Assert.assertEquals(10, cacheFile.getLength());
+
+        // CASE 2: streams have their own positions
+        InputStream s1 = cacheFile.openStream();
+        InputStream s2 = cacheFile.openStream();
+        Assert.assertEquals('0', s1.read());
+        Assert.assertEquals('1', s1.read());
+        Assert.assertEquals('0', s2.read());
+        Assert.assertEquals(3, s1.skip(3));
+        Assert.assertEquals('5', s1.read());
+        Assert.assertEquals(4, s1.available());
+
+        // CASE 3: mapped buffer gives content without copying
+        MappedByteBuffer buffer = cacheFile.map();
+        Assert.assertEquals(10, buffer.remaining());
+        Assert.assertEquals('9', buffer.get(9));
+
+        // CASE 4: replacing cache file (new file renamed over it) does not change content of opened handle
+        File newFile = new File(file.getParentFile(), file.getName() + ".new");
+        MblUtils.saveFile("abc".getBytes("UTF-8"), newFile.getAbsolutePath());
+        file.delete();
+        Assert.assertTrue(newFile.renameTo(file));
+        Assert.assertEquals(10, cacheFile.getLength());
+        Assert.assertEquals('6', s1.read());
+
+        cacheFile.close();
+        Assert.assertFalse(MblDiskCache.isPinned(c.getKey()));
+        cacheFile.close();
+
+        // CASE 5: pins are counted
+        MblCacheFile f1 = MblCacheFile.open(c);
+        MblCacheFile f2 = MblCacheFile.open(c);
+        f1.close();
+        Assert.assertTrue(MblDiskCache.isPinned(c.getKey()));
+        f2.close();
+        Assert.assertFalse(MblDiskCache.isPinned(c.getKey()));
+
+        // CASE 6: compressed cache file is rewritten uncompressed when it is opened
+        MblDatabaseCache compressed = new MblDatabaseCache("MblCacheFileTest-compressed", System.currentTimeMillis());
+        compressed.setCompressed(true);
+        MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(compressed);
+        try {
+            out.write("0123456789".getBytes("UTF-8"));
+            MblDiskCache.commit(compressed, out);
+        } finally {
+            out.close();
+        }
+        MblCacheFile opened = MblCacheFile.open(compressed);
+        try {
+            Assert.assertEquals(10, opened.getLength());
+            Assert.assertEquals('0', opened.openStream().read());
+            Assert.assertFalse(MblDiskCache.lookup(compressed.getKey()).isCompressed());
+        } finally {
+            opened.close();
+        }
+        MblDiskCache.invalidate(MblDiskCache.lookup(compressed.getKey()));
+
+        file.delete();
+    }
+}
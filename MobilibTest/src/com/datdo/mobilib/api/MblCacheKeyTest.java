@@ -0,0 +1,57 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class MblCacheKeyTest {
+
+    public static void run() {
+
+        Set<String> noExclusion = Collections.<String>emptySet();
+
+        // CASE 1: order of query params does not matter
+        Assert.assertEquals(
+                MblCacheKey.generate("http://example.com/a?x=1&y=2", null, noExclusion),
+                MblCacheKey.generate("http://example.com/a?y=2&x=1", null, noExclusion));
+
+        // CASE 2: params in URL and params in map are equivalent
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("y", 2);
+        Assert.assertEquals(
+                MblCacheKey.generate("http://example.com/a?x=1&y=2", null, noExclusion),
+                MblCacheKey.generate("http://example.com/a?x=1", params, noExclusion));
+
+        // CASE 3: scheme and host are case-insensitive, path is not, fragment is dropped
+        Assert.assertEquals(
+                "http://example.com/Path?x=1",
+                MblCacheKey.generate("HTTP://Example.COM/Path?x=1#top", null, noExclusion));
+        Assert.assertFalse(MblCacheKey.generate("http://example.com/path", null, noExclusion)
+                .equals(MblCacheKey.generate("http://example.com/Path", null, noExclusion)));
+
+        // CASE 4: percent-encoding is normalized
+        Assert.assertEquals(
+                MblCacheKey.generate("http://example.com/a?q=%41b", null, noExclusion),
+                MblCacheKey.generate("http://example.com/a?q=Ab", null, noExclusion));
+
+        // CASE 5: excluded params are ignored, empty pairs are dropped
+        Set<String> excluded = new HashSet<String>();
+        excluded.add("ts");
+        Assert.assertEquals(
+                "http://example.com/a?x=1",
+                MblCacheKey.generate("http://example.com/a?ts=123&&x=1", null, excluded));
+        Map<String, Object> tsParams = new HashMap<String, Object>();
+        tsParams.put("ts", 456L);
+        Assert.assertEquals(
+                "http://example.com/a?x=1",
+                MblCacheKey.generate("http://example.com/a?x=1", tsParams, excluded));
+
+        // CASE 6: different values give different keys
+        Assert.assertFalse(MblCacheKey.generate("http://example.com/a?x=1", null, noExclusion)
+                .equals(MblCacheKey.generate("http://example.com/a?x=2", null, noExclusion)));
+    }
+}
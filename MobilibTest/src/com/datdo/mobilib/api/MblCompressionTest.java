@@ -0,0 +1,85 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class MblCompressionTest {
+
+    public static void run() throws IOException {
+
+        byte[] data = "MblCompressionTest MblCompressionTest MblCompressionTest".getBytes("UTF-8");
+
+        // CASE 1: gzip body is decompressed, coding and length headers are removed
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(data);
+        gzip.close();
+        MblTransportResponse response = MblCompression.decompress(response("gzip", gzipped.toByteArray()));
+        Assert.assertTrue(Arrays.equals(data, response.readBody()));
+        Assert.assertNull(response.getHeader(MblCompression.HEADER_CONTENT_ENCODING));
+        Assert.assertNull(response.getHeader(MblCompression.HEADER_CONTENT_LENGTH));
+
+        // CASE 2: "deflate" in zlib format
+        Assert.assertTrue(Arrays.equals(data, MblCompression.decompress(response("deflate", deflate(data, false))).readBody()));
+
+        // CASE 3: "deflate" in raw format, sent by some servers
+        Assert.assertTrue(Arrays.equals(data, MblCompression.decompress(response("Deflate", deflate(data, true))).readBody()));
+
+        // CASE 4: empty body (e.g. 304) does not fail
+        Assert.assertEquals(0, MblCompression.decompress(response("gzip", new byte[0])).readBody().length);
+        Assert.assertEquals(0, MblCompression.decompress(response("deflate", new byte[0])).readBody().length);
+
+        // CASE 5: unknown coding is left untouched
+        response = MblCompression.decompress(response("br", data));
+        Assert.assertEquals("br", response.getHeader(MblCompression.HEADER_CONTENT_ENCODING));
+        Assert.assertTrue(Arrays.equals(data, response.readBody()));
+
+        // CASE 6: request body is gzip-compressed with unknown length
+        MblTransportBody body = MblCompression.gzip(MblTransportBody.fromHttpEntity(new ByteArrayEntity(data)));
+        Assert.assertEquals(MblCompression.GZIP, body.getContentEncoding());
+        Assert.assertEquals(-1, body.getContentLength());
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        body.writeTo(sent);
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(sent.toByteArray()));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            received.write(buffer, 0, n);
+        }
+        Assert.assertTrue(Arrays.equals(data, received.toByteArray()));
+
+        // CASE 7: already compressed content types are not compressed again
+        Assert.assertTrue(MblCompression.isCompressible("application/json; charset=utf-8"));
+        Assert.assertTrue(MblCompression.isCompressible(null));
+        Assert.assertFalse(MblCompression.isCompressible("image/png"));
+        Assert.assertFalse(MblCompression.isCompressible("application/zip"));
+    }
+
+    private static MblTransportResponse response(String coding, byte[] body) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Encoding", coding);
+        headers.put("Content-Length", String.valueOf(body.length));
+        return new MblTransportResponse(200, "OK", headers, new ByteArrayInputStream(body));
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        deflater.write(data);
+        deflater.close();
+        return out.toByteArray();
+    }
+}
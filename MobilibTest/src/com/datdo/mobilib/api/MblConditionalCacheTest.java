@@ -0,0 +1,87 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.Method;
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MblConditionalCacheTest {
+
+    private static final byte[] DATA            = "0123456789".getBytes();
+    private static final String LAST_MODIFIED   = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+    public static void run() throws IOException, InterruptedException {
+
+        // CASE 1: validators of response are stored with cache record
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("ETag", "\"v1\"");
+        headers.put("Last-Modified", LAST_MODIFIED);
+        MblDatabaseCache c = MblApi.newCache("MblConditionalCacheTest", headers);
+        Assert.assertEquals("\"v1\"", c.getETag());
+        Assert.assertEquals(LAST_MODIFIED, c.getLastModified());
+
+        // CASE 2: validators are sent as conditional headers, unless request specifies its own
+        MblTransportRequest httpRequest = new MblTransportRequest("GET", "http://example.com/");
+        MblApi.addConditionalHeaders(httpRequest, c);
+        Assert.assertEquals("\"v1\"", httpRequest.getHeader("If-None-Match"));
+        Assert.assertEquals(LAST_MODIFIED, httpRequest.getHeader("If-Modified-Since"));
+        httpRequest = new MblTransportRequest("GET", "http://example.com/");
+        httpRequest.setHeader("If-None-Match", "\"v0\"");
+        MblApi.addConditionalHeaders(httpRequest, new MblDatabaseCache("MblConditionalCacheTest", 0));
+        MblApi.addConditionalHeaders(httpRequest, c);
+        Assert.assertEquals("\"v0\"", httpRequest.getHeader("If-None-Match"));
+
+        MblTestServer server = new MblTestServer();
+        try {
+            // CASE 3: expired cache is revalidated, "304 Not Modified" returns cached data
+            String run = String.valueOf(System.currentTimeMillis());
+            server.respond(200, DATA, "ETag", "\"v1\"", "Last-Modified", LAST_MODIFIED);
+            MblResponse response = send(new MblRequest()
+                    .setMethod(Method.GET)
+                    .setUrl(server.getUrl("/conditional/" + run))
+                    .setCacheDuration(1));
+            Assert.assertTrue(Arrays.equals(DATA, response.getData()));
+            Thread.sleep(10);
+            server.respond(304, new byte[0]);
+            response = send(new MblRequest()
+                    .setMethod(Method.GET)
+                    .setUrl(server.getUrl("/conditional/" + run))
+                    .setCacheDuration(1));
+            Assert.assertEquals(2, server.getRequestCount());
+            Assert.assertEquals("\"v1\"", server.getRequest(1).get("if-none-match"));
+            Assert.assertEquals(LAST_MODIFIED, server.getRequest(1).get("if-modified-since"));
+            Assert.assertEquals(304, response.getStatusCode());
+            Assert.assertTrue(Arrays.equals(DATA, response.getData()));
+        } finally {
+            server.close();
+        }
+    }
+
+    private static MblResponse send(MblRequest request) throws InterruptedException {
+        final MblResponse[] result = new MblResponse[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        MblApi.run(request.setCallback(new MblApiCallback() {
+            @Override
+            public void onSuccess(MblResponse response) {
+                result[0] = response;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(MblResponse response) {
+                result[0] = response;
+                done.countDown();
+            }
+        }));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+}
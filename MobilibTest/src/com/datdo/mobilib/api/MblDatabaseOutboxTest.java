@@ -0,0 +1,38 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+public class MblDatabaseOutboxTest {
+
+    public static void run() {
+
+        String queue = "MblDatabaseOutboxTest";
+        MblDatabaseOutbox.deleteAll();
+
+        // CASE 1: request with the same dedupe key is updated in place, keeping its id and position in queue
+        MblDatabaseOutbox first = new MblDatabaseOutbox(queue, "k", 1, "first");
+        MblDatabaseOutbox.insert(first);
+        MblDatabaseOutbox.insert(new MblDatabaseOutbox(queue, null, 2, "other"));
+        MblDatabaseOutbox.insert(new MblDatabaseOutbox(queue, "k", 3, "second"));
+        Assert.assertEquals(2, MblDatabaseOutbox.count());
+        MblDatabaseOutbox head = MblDatabaseOutbox.getPending(queue, 10).get(0);
+        Assert.assertEquals(first.getId(), head.getId());
+        Assert.assertEquals("second", head.getRequest());
+        Assert.assertEquals(3, head.getCreatedAt());
+
+        // CASE 2: stale copy read before replacement does not delete or update the new request
+        first.setAttempts(5);
+        MblDatabaseOutbox.updateAttempts(first);
+        MblDatabaseOutbox.delete(first);
+        MblDatabaseOutbox current = MblDatabaseOutbox.get(first.getId());
+        Assert.assertNotNull(current);
+        Assert.assertEquals(0, current.getAttempts());
+
+        // CASE 3: up-to-date copy is deleted
+        MblDatabaseOutbox.delete(current);
+        Assert.assertNull(MblDatabaseOutbox.get(first.getId()));
+        Assert.assertEquals(1, MblDatabaseOutbox.count());
+
+        MblDatabaseOutbox.deleteAll();
+    }
+}
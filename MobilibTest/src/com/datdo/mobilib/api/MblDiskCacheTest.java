@@ -0,0 +1,96 @@
+package com.datdo.mobilib.api;
+
+import com.datdo.mobilib.cache.MblDatabaseCache;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class MblDiskCacheTest {
+
+    public static void run() throws IOException {
+
+        // CASE 1: missing cache file is reported as FileNotFoundException, so that callers invalidate its record
+        MblDatabaseCache missing = new MblDatabaseCache("MblDiskCacheTest-missing", System.currentTimeMillis());
+        missing.setSize(10);
+        MblDiskCache.getFile(missing).delete();
+        try {
+            MblDiskCache.read(missing);
+            Assert.fail("read() must throw for missing file");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        try {
+            MblDiskCache.checkFile(missing);
+            Assert.fail("checkFile() must throw for missing file");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        try {
+            MblCacheFile.open(missing);
+            Assert.fail("MblCacheFile.open() must throw for missing file");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+
+        // CASE 2: committed file is found by lookup and read back
+        byte[] data = "MblDiskCacheTest".getBytes("UTF-8");
+        MblDatabaseCache c = new MblDatabaseCache("MblDiskCacheTest-commit", System.currentTimeMillis());
+        MblDiskCache.CacheOutputStream out = MblDiskCache.openOutputStream(c);
+        try {
+            out.write(data);
+            MblDiskCache.commit(c, out);
+        } finally {
+            out.close();
+        }
+        MblDatabaseCache found = MblDiskCache.lookup(c.getKey());
+        Assert.assertNotNull(found);
+        Assert.assertEquals(data.length, found.getSize());
+        Assert.assertTrue(Arrays.equals(data, MblDiskCache.read(found)));
+
+        // CASE 3: file deleted behind cache (e.g. by OS) is detected when read, invalidated record is not found anymore
+        MblDiskCache.getFile(found).delete();
+        try {
+            MblDiskCache.read(found);
+            Assert.fail("read() must throw for deleted file");
+        } catch (FileNotFoundException e) {
+            MblDiskCache.invalidate(found);
+        }
+        Assert.assertNull(MblDiskCache.lookup(c.getKey()));
+
+        // CASE 4: stream closed without commit leaves existing cache file untouched and no temporary file behind
+        MblDatabaseCache existing = new MblDatabaseCache("MblDiskCacheTest-discard", System.currentTimeMillis());
+        out = MblDiskCache.openOutputStream(existing);
+        try {
+            out.write(data);
+            MblDiskCache.commit(existing, out);
+        } finally {
+            out.close();
+        }
+        out = MblDiskCache.openOutputStream(existing);
+        out.write("partial".getBytes("UTF-8"));
+        out.close();
+        Assert.assertTrue(Arrays.equals(data, MblDiskCache.read(existing)));
+        File file = MblDiskCache.getFile(existing);
+        for (String name : file.getParentFile().list()) {
+            Assert.assertFalse(name.startsWith(file.getName() + ".tmp-"));
+        }
+
+        // CASE 5: compressed cache file is replaced by commit and read back decompressed
+        byte[] newData = "MblDiskCacheTest MblDiskCacheTest MblDiskCacheTest".getBytes("UTF-8");
+        existing.setCompressed(true);
+        out = MblDiskCache.openOutputStream(existing);
+        try {
+            out.write(newData);
+            MblDiskCache.commit(existing, out);
+        } finally {
+            out.close();
+        }
+        Assert.assertTrue(existing.getSize() < newData.length + 32);
+        Assert.assertTrue(Arrays.equals(newData, MblDiskCache.read(MblDiskCache.lookup(existing.getKey()))));
+        MblDiskCache.invalidate(existing);
+    }
+}
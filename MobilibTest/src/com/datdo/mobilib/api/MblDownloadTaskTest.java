@@ -0,0 +1,121 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.util.MblUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MblDownloadTaskTest {
+
+    private static final byte[] DATA = "0123456789".getBytes();
+
+    public static void run() throws IOException, InterruptedException {
+
+        // CASE 1: Content-Range is parsed into first byte position and complete length
+        Assert.assertTrue(Arrays.equals(new long[] { 100, 1000 }, MblDownloadTask.parseContentRange("bytes 100-199/1000")));
+        Assert.assertTrue(Arrays.equals(new long[] { 100, -1 }, MblDownloadTask.parseContentRange("bytes 100-199/*")));
+        Assert.assertNull(MblDownloadTask.parseContentRange("bytes */1000"));
+        Assert.assertNull(MblDownloadTask.parseContentRange(null));
+
+        File target = new File(System.getProperty("java.io.tmpdir"), "MblDownloadTaskTest.bin");
+        File part   = new File(target.getPath() + ".part");
+        target.delete();
+        part.delete();
+        new File(target.getPath() + ".part.meta").delete();
+
+        MblTestServer server = new MblTestServer();
+        try {
+            // CASE 2: interrupted download keeps downloaded part
+            server.respond(200, Arrays.copyOf(DATA, 4), "ETag", "\"v1\"", "Content-Length", "10");
+            MblResponse response = download(target, server.getUrl("/file.bin"));
+            Assert.assertEquals(-1, response.getStatusCode());
+            Assert.assertTrue(response.isNetworkError());
+            Assert.assertEquals(4, part.length());
+
+            // CASE 3: download is resumed with Range and If-Range, 206 is appended to part
+            server.respond(206, Arrays.copyOfRange(DATA, 4, 10), "Content-Range", "bytes 4-9/10", "ETag", "\"v1\"");
+            response = download(target, server.getUrl("/file.bin"));
+            Assert.assertEquals("bytes=4-", last(server).get("range"));
+            Assert.assertEquals("\"v1\"", last(server).get("if-range"));
+            Assert.assertEquals(206, response.getStatusCode());
+            Assert.assertTrue(Arrays.equals(DATA, read(target)));
+            Assert.assertFalse(part.exists());
+
+            // CASE 4: 206 which does not continue downloaded part is discarded, next attempt starts over
+            target.delete();
+            server.respond(200, Arrays.copyOf(DATA, 4), "ETag", "\"v1\"", "Content-Length", "10");
+            download(target, server.getUrl("/file.bin"));
+            server.respond(206, DATA, "Content-Range", "bytes 0-9/10", "ETag", "\"v1\"");
+            response = download(target, server.getUrl("/file.bin"));
+            Assert.assertEquals(-1, response.getStatusCode());
+            Assert.assertTrue(response.isNetworkError());
+            Assert.assertFalse(part.exists());
+            server.respond(200, DATA, "ETag", "\"v1\"", "Content-Length", "10");
+            download(target, server.getUrl("/file.bin"));
+            Assert.assertNull(last(server).get("range"));
+            Assert.assertTrue(Arrays.equals(DATA, read(target)));
+
+            // CASE 5: 416 discards downloaded part, next attempt starts over
+            target.delete();
+            server.respond(200, Arrays.copyOf(DATA, 4), "ETag", "\"v1\"", "Content-Length", "10");
+            download(target, server.getUrl("/file.bin"));
+            server.respond(416, new byte[0]);
+            response = download(target, server.getUrl("/file.bin"));
+            Assert.assertEquals(-1, response.getStatusCode());
+            Assert.assertTrue(response.isNetworkError());
+            Assert.assertFalse(part.exists());
+
+            // CASE 6: resource changed on server (200 to resumed request) replaces downloaded part
+            server.respond(200, Arrays.copyOf(DATA, 4), "ETag", "\"v1\"", "Content-Length", "10");
+            download(target, server.getUrl("/file.bin"));
+            server.respond(200, DATA, "ETag", "\"v2\"", "Content-Length", "10");
+            response = download(target, server.getUrl("/file.bin"));
+            Assert.assertEquals("bytes=4-", last(server).get("range"));
+            Assert.assertEquals(200, response.getStatusCode());
+            Assert.assertTrue(Arrays.equals(DATA, read(target)));
+        } finally {
+            server.close();
+        }
+
+        target.delete();
+    }
+
+    private static MblResponse download(File target, String url) throws InterruptedException {
+        final MblResponse[] result = new MblResponse[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        MblRequest request = new MblRequest()
+                .setUrl(url)
+                .setDownloadFile(target);
+        new MblDownloadTask(url, request, new MblApiCallback() {
+            @Override
+            public void onSuccess(MblResponse response) {
+                result[0] = response;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(MblResponse response) {
+                result[0] = response;
+                done.countDown();
+            }
+        }, MblUtils.getMainThreadHandler(), new MblRequestHandle(), new MblRequestMetrics(0)).run();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return MblUtils.readFile(file.getAbsolutePath());
+    }
+
+    // headers of last request received by server
+    private static Map<String, String> last(MblTestServer server) {
+        return server.getRequest(server.getRequestCount() - 1);
+    }
+}
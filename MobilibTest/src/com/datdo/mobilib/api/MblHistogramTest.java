@@ -0,0 +1,46 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+public class MblHistogramTest {
+
+    public static void run() {
+
+        // CASE 1: empty histogram
+        MblHistogram h = new MblHistogram();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(-1, h.getMin());
+        Assert.assertEquals(-1, h.getMax());
+        Assert.assertEquals(-1, h.getPercentile(50));
+
+        // CASE 2: count, sum, min, max and mean are exact, negative values (unknown times) are ignored
+        for (int i = 0; i < 100; i++) {
+            h.record(i);
+        }
+        h.record(-1);
+        Assert.assertEquals(100, h.getCount());
+        Assert.assertEquals(4950, h.getSum());
+        Assert.assertEquals(0, h.getMin());
+        Assert.assertEquals(99, h.getMax());
+        Assert.assertEquals(49.5, h.getMean(), 0.001);
+
+        // CASE 3: percentiles are approximated within exponential buckets
+        long p50 = h.getPercentile(50);
+        Assert.assertTrue(p50 >= 32 && p50 <= 63);
+        long p99 = h.getPercentile(99);
+        Assert.assertTrue(p99 >= 64 && p99 <= 99);
+        Assert.assertEquals(0, h.getPercentile(0));
+        Assert.assertEquals(99, h.getPercentile(100));
+
+        // CASE 4: single value
+        MblHistogram single = new MblHistogram();
+        single.record(1000);
+        Assert.assertEquals(1000, single.getPercentile(50));
+
+        // CASE 5: copy is a snapshot
+        MblHistogram copy = h.copy();
+        h.record(1000);
+        Assert.assertEquals(100, copy.getCount());
+        Assert.assertEquals(99, copy.getMax());
+    }
+}
@@ -0,0 +1,185 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.Priority;
+import com.datdo.mobilib.api.MblApiExecutor.Lane;
+import com.datdo.mobilib.api.MblApiOptions.MblRejectionPolicy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MblHostSchedulerTest {
+
+    public static void run() throws InterruptedException {
+
+        // slow rates so that no token is refilled during test
+        double rate = 0.001;
+
+        // CASE 1: bucket starts full, then requests wait for tokens
+        MblHostScheduler.Host host = new MblHostScheduler.Host();
+        host.configureRate(rate, 3, true);
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertTrue(host.tryAcquireToken() > 0);
+
+        // CASE 2: switching to another rate/burst of a request does not refill bucket
+        host.configureRate(rate * 2, 5, false);
+        Assert.assertTrue(host.tryAcquireToken() > 0);
+        host.configureRate(rate, 3, false);
+        Assert.assertTrue(host.tryAcquireToken() > 0);
+
+        // CASE 3: available tokens are limited by new burst
+        host = new MblHostScheduler.Host();
+        host.configureRate(rate, 3, true);
+        host.configureRate(rate, 1, false);
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertTrue(host.tryAcquireToken() > 0);
+
+        // CASE 4: change of host-wide configuration refills bucket
+        host.configureRate(rate, 2, true);
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertTrue(host.tryAcquireToken() > 0);
+
+        // CASE 5: disabled rate limit never waits, re-enabling starts with full bucket
+        host.configureRate(0, 1, false);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(0, host.tryAcquireToken());
+        }
+        host.configureRate(rate, 2, false);
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertEquals(0, host.tryAcquireToken());
+        Assert.assertTrue(host.tryAcquireToken() > 0);
+
+        // CASE 6: prefetch tasks waiting for prefetch lane do not hold in-flight slots of host
+        String url = "http://prefetch.example.com/";
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch prefetchStarted = new CountDownLatch(2);
+        for (int i = 0; i < 4; i++) {
+            MblHostScheduler.submit(
+                    url,
+                    new MblRequest().setUrl(url).setPriority(Priority.PREFETCH).setMaxRequestsPerHost(3),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            prefetchStarted.countDown();
+                            await(unblock);
+                        }
+                    },
+                    null);
+        }
+        Assert.assertTrue(await(prefetchStarted));
+        final CountDownLatch normalDone = new CountDownLatch(1);
+        MblHostScheduler.submit(
+                url,
+                new MblRequest().setUrl(url).setMaxRequestsPerHost(3),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        normalDone.countDown();
+                    }
+                },
+                null);
+        Assert.assertTrue(await(normalDone));
+        unblock.countDown();
+
+        MblApiOptions oldOptions = MblApi.getOptions();
+        try {
+            // CASE 7: queue of host is bounded, FAIL_FAST rejects task submitted to full queue
+            MblApi.setOptions(new MblApiOptions()
+                    .setNetworkThreadPool(1, 1, 2)
+                    .setMaxRequestsPerHost(1)
+                    .setRejectionPolicy(MblRejectionPolicy.FAIL_FAST));
+            url = "http://bounded.example.com/";
+            final CountDownLatch unblockBounded = new CountDownLatch(1);
+            final CountDownLatch boundedStarted = new CountDownLatch(1);
+            MblHostScheduler.submit(url, new MblRequest().setUrl(url), new Runnable() {
+                @Override
+                public void run() {
+                    boundedStarted.countDown();
+                    await(unblockBounded);
+                }
+            }, null);
+            Assert.assertTrue(await(boundedStarted));
+            final CountDownLatch boundedDone = new CountDownLatch(2);
+            final CountDownLatch rejected = new CountDownLatch(1);
+            MblHostScheduler.RejectionHandler rejectionHandler = new MblHostScheduler.RejectionHandler() {
+                @Override
+                public void onRejected(RejectedExecutionException e) {
+                    rejected.countDown();
+                }
+            };
+            for (int i = 0; i < 3; i++) {
+                MblHostScheduler.submit(url, new MblRequest().setUrl(url), new Runnable() {
+                    @Override
+                    public void run() {
+                        boundedDone.countDown();
+                    }
+                }, rejectionHandler);
+            }
+            Assert.assertEquals(0, rejected.getCount());
+            unblockBounded.countDown();
+            Assert.assertTrue(await(boundedDone));
+
+            // CASE 8: with CALLER_RUNS, full lane does not make dispatcher run task in its own thread
+            MblApi.setOptions(new MblApiOptions()
+                    .setNetworkThreadPool(1, 1, 1)
+                    .setRejectionPolicy(MblRejectionPolicy.CALLER_RUNS));
+            final CountDownLatch unblockLane = new CountDownLatch(1);
+            final CountDownLatch laneStarted = new CountDownLatch(1);
+            MblApiExecutor.execute(Lane.NETWORK, new Runnable() {
+                @Override
+                public void run() {
+                    laneStarted.countDown();
+                    await(unblockLane);
+                }
+            });
+            Assert.assertTrue(await(laneStarted));
+            MblApiExecutor.execute(Lane.NETWORK, new Runnable() {
+                @Override
+                public void run() {}
+            });
+            // dispatch from a worker thread, CALLER_RUNS is never applied in main thread
+            final boolean[] result = new boolean[2];
+            Thread dispatcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Thread dispatcherThread = Thread.currentThread();
+                    try {
+                        MblApiExecutor.tryExecute(Lane.NETWORK, new Runnable() {
+                            @Override
+                            public void run() {
+                                result[0] = Thread.currentThread() == dispatcherThread;
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        result[1] = true;
+                    }
+                }
+            });
+            dispatcher.start();
+            dispatcher.join();
+            Assert.assertFalse(result[0]);
+            Assert.assertTrue(result[1]);
+            unblockLane.countDown();
+        } finally {
+            MblApi.setOptions(oldOptions);
+        }
+
+        // CASE 9: background/foreground listener is registered by MblApi.init(), only once
+        MblApi.init();
+        MblApi.init();
+        Assert.assertTrue(MblHostScheduler.isInitialized());
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings("deprecation")
+public class MblHttpClientManagerTest {
+
+    public static void run() throws Exception {
+
+        String url = "http://example.com/";
+        MblApiOptions oldOptions = MblApi.getOptions();
+        try {
+            // CASE 1: requests share one client
+            HttpClient c1 = MblHttpClientManager.acquire(url, false);
+            HttpClient c2 = MblHttpClientManager.acquire(url, false);
+            Assert.assertSame(c1, c2);
+
+            // CASE 2: new options replace client, old client is shut down only when its last request is released
+            MblApi.setOptions(new MblApiOptions());
+            HttpClient c3 = MblHttpClientManager.acquire(url, false);
+            Assert.assertNotSame(c1, c3);
+            MblHttpClientManager.release(c1);
+            Assert.assertFalse(isShutdown(c1));
+            MblHttpClientManager.release(c2);
+            Assert.assertTrue(isShutdown(c1));
+
+            // CASE 3: current client is not shut down when it is released
+            MblHttpClientManager.release(c3);
+            Assert.assertFalse(isShutdown(c3));
+
+            // CASE 4: replaced client without in-flight requests is shut down immediately
+            MblApi.setOptions(new MblApiOptions());
+            Assert.assertTrue(isShutdown(c3));
+        } finally {
+            MblApi.setOptions(oldOptions);
+        }
+    }
+
+    private static boolean isShutdown(HttpClient httpClient) throws Exception {
+        ClientConnectionManager ccm = httpClient.getConnectionManager();
+        try {
+            ManagedClientConnection conn = ccm.requestConnection(new HttpRoute(new HttpHost("example.com", 80)), null).getConnection(1000, TimeUnit.MILLISECONDS);
+            ccm.releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.Method;
+
+public class MblOutboxTest {
+
+    public static void run() {
+
+        String url = "http://example.com/";
+
+        // CASE 1: params accepted by MblApi can be enqueued
+        MblOutbox.serialize(new MblRequest()
+                .setMethod(Method.POST)
+                .setUrl(url)
+                .setParams(
+                        "s", "a",
+                        "l", 1L,
+                        "i", 1,
+                        "d", 1.0,
+                        "f", 1.0f));
+
+        // CASE 2: params rejected by MblApi can not be enqueued
+        assertRejected(new MblRequest().setMethod(Method.POST).setUrl(url).setParams("b", true));
+        assertRejected(new MblRequest().setMethod(Method.POST).setUrl(url).setParams("n", (short) 1));
+
+        // CASE 3: GET can not be enqueued
+        assertRejected(new MblRequest().setMethod(Method.GET).setUrl(url));
+
+        // CASE 4: only 4xx statuses (except 408, 429) remove request, local failures and server errors are retried
+        Assert.assertTrue(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(400)));
+        Assert.assertTrue(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(422)));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(408)));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(429)));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(500)));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(501)));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(-1).setNetworkError(true)));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(-1).setStatusCodeReason("Time out")));
+        Assert.assertFalse(MblOutbox.isRejectedByServer(new MblResponse().setStatusCode(-1).setStatusCodeReason("Request rejected")));
+    }
+
+    private static void assertRejected(MblRequest request) {
+        try {
+            MblOutbox.serialize(request);
+            Assert.fail("Request must be rejected");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+}
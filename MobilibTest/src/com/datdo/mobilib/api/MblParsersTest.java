@@ -0,0 +1,90 @@
+package com.datdo.mobilib.api;
+
+import android.os.Build;
+import android.util.JsonReader;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MblParsersTest {
+
+    public static void run() throws Exception {
+
+        // CASE 1: charset is taken from "Content-Type", UTF-8 by default or if it is unknown
+        Assert.assertEquals(Charset.forName("UTF-8"), MblParsers.getCharset(response(null)));
+        Assert.assertEquals(Charset.forName("UTF-8"), MblParsers.getCharset(response("text/plain")));
+        Assert.assertEquals(Charset.forName("ISO-8859-1"), MblParsers.getCharset(response("text/plain; Charset=\"ISO-8859-1\"")));
+        Assert.assertEquals(Charset.forName("UTF-8"), MblParsers.getCharset(response("text/plain; charset=unknown-charset")));
+
+        // CASE 2: text is decoded with charset of response
+        String text = "Mobilib \u00e9\u00e8";
+        Assert.assertEquals(text, MblParsers.STRING.parse(
+                response("text/plain; charset=ISO-8859-1"),
+                new ByteArrayInputStream(text.getBytes("ISO-8859-1"))));
+        Assert.assertEquals(text, MblParsers.STRING.parse(
+                response(null),
+                new ByteArrayInputStream(text.getBytes("UTF-8"))));
+
+        // CASE 3: parsed result is remembered per cache key and parser instance
+        String key = "MblParsersTest";
+        MblParsedCache.put(key, MblParsers.STRING, text);
+        Assert.assertEquals(text, MblParsedCache.get(key, MblParsers.STRING));
+        Assert.assertNull(MblParsedCache.get(key, MblParsers.JSON_OBJECT));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            MblParsedCache.put(key, new StringArrayParser(), text);
+            Assert.assertNull(MblParsedCache.get(key, new StringArrayParser()));
+        }
+
+        // CASE 4: parsed result is dropped with its cache file
+        MblParsedCache.remove(key);
+        Assert.assertNull(MblParsedCache.get(key, MblParsers.STRING));
+
+        // CASE 5: JSON object and array are decoded
+        String json = new JSONObject().put("name", text).toString();
+        JSONObject object = MblParsers.JSON_OBJECT.parse(response(null), new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Assert.assertEquals(text, object.optString("name"));
+        json = new JSONArray().put("a").put("b").toString();
+        JSONArray array = MblParsers.JSON_ARRAY.parse(response(null), new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Assert.assertEquals(2, array.length());
+        Assert.assertEquals("b", array.optString(1));
+
+        // CASE 6: JSON array is decoded element by element, streaming parser can not be created before API 11
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            List<String> elements = new StringArrayParser().parse(response(null), new ByteArrayInputStream(json.getBytes("UTF-8")));
+            Assert.assertEquals(2, elements.size());
+            Assert.assertEquals("a", elements.get(0));
+            Assert.assertEquals("b", elements.get(1));
+        } else {
+            try {
+                new StringArrayParser();
+                Assert.fail("MblJsonArrayParser must not be created before API 11");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+
+    private static class StringArrayParser extends MblJsonArrayParser<String> {
+        @Override
+        protected String parseElement(JsonReader reader) throws IOException {
+            return reader.nextString();
+        }
+    }
+
+    private static MblResponse response(String contentType) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        return new MblResponse().setHeaders(headers);
+    }
+}
@@ -0,0 +1,60 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.Method;
+import com.datdo.mobilib.api.MblApi.Priority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MblPrefetchTest {
+
+    public static void run() {
+
+        String url = "http://localhost:1/MblPrefetchTest";
+
+        // CASE 1: only GET requests with cache enabled can be prefetched
+        assertRejected(new MblRequest().setMethod(Method.POST).setUrl(url).setCacheDuration(60 * 1000));
+        assertRejected(new MblRequest().setMethod(Method.GET).setUrl(url));
+
+        // CASE 2: requests and list of caller are not modified
+        MblApiCallback callback = new MblApiCallback() {
+            @Override
+            public void onSuccess(MblResponse response) {}
+
+            @Override
+            public void onFailure(MblResponse response) {}
+        };
+        MblRequest request = new MblRequest()
+                .setMethod(Method.GET)
+                .setUrl(url)
+                .setCacheDuration(60 * 1000)
+                .setCallback(callback);
+        List<MblRequest> requests = new ArrayList<MblRequest>(Arrays.asList(request));
+        MblApi.prefetch(requests);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertSame(request, requests.get(0));
+        Assert.assertSame(callback, request.getCallback());
+        Assert.assertEquals(Priority.NORMAL, request.getPriority());
+        Assert.assertFalse(request.isNotReturnByteArrayData());
+
+        // CASE 3: copy does not share headers with original request
+        MblRequest original = new MblRequest().setParams("a", "1").setHeaderParams("h", "1");
+        MblRequest copy = original.copy();
+        copy.getHeaderParams().put("h", "2");
+        Assert.assertEquals("1", original.getHeaderParams().get("h"));
+        Assert.assertEquals("1", copy.getParams().get("a"));
+    }
+
+    private static void assertRejected(MblRequest request) {
+        try {
+            MblApi.prefetch(Arrays.asList(request));
+            Assert.fail("Request must be rejected");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblRequestBodyWriter;
+import com.datdo.mobilib.api.MblApi.MblUploadProgressListener;
+import com.datdo.mobilib.util.MblUtils;
+
+import org.apache.http.HttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MblRequestBodyTest {
+
+    public static void run() throws Exception {
+
+        final byte[] data = "0123456789".getBytes("UTF-8");
+
+        // CASE 1: slice of byte array is sent without copying whole array, with known length
+        HttpEntity entity = MblRequestBody.fromByteArray(data, 2, 5).toHttpEntity();
+        Assert.assertEquals(5, entity.getContentLength());
+        Assert.assertTrue(Arrays.equals("23456".getBytes("UTF-8"), write(entity)));
+        try {
+            MblRequestBody.fromByteArray(data, 8, 5);
+            Assert.fail("Invalid slice must be rejected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        // CASE 2: stream body is chunked and can not be sent twice
+        MblRequestBody streamBody = MblRequestBody.fromInputStream(new ByteArrayInputStream(data));
+        Assert.assertFalse(streamBody.isRepeatable());
+        entity = streamBody.toHttpEntity();
+        Assert.assertTrue(entity.isChunked());
+        Assert.assertTrue(Arrays.equals(data, write(entity)));
+
+        // CASE 3: writer body is written on demand
+        MblRequestBody writerBody = MblRequestBody.fromWriter(new MblRequestBodyWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        });
+        Assert.assertTrue(writerBody.isRepeatable());
+        Assert.assertTrue(Arrays.equals(data, write(writerBody.toHttpEntity())));
+
+        // CASE 4: upload progress is reported, last report is complete
+        final AtomicLong lastWritten = new AtomicLong();
+        final AtomicLong lastTotal = new AtomicLong();
+        final CountDownLatch completed = new CountDownLatch(1);
+        HttpEntity progressEntity = new MblProgressHttpEntity(
+                MblRequestBody.fromByteArray(data, 0, data.length).toHttpEntity(),
+                new MblUploadProgressListener() {
+                    @Override
+                    public void onProgress(long bytesWritten, long totalBytes) {
+                        lastWritten.set(bytesWritten);
+                        lastTotal.set(totalBytes);
+                        if (bytesWritten == totalBytes) {
+                            completed.countDown();
+                        }
+                    }
+                },
+                MblUtils.getMainThreadHandler(),
+                0);
+        Assert.assertTrue(Arrays.equals(data, write(progressEntity)));
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(data.length, lastTotal.get());
+    }
+
+    private static byte[] write(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,97 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.CachePolicy;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MblRequestCoalescerTest {
+
+    public static void run() {
+
+        String url = "http://example.com/coalesce";
+
+        // CASE 1: order of header params does not matter, other options do
+        Map<String, String> h1 = new LinkedHashMap<String, String>();
+        h1.put("a", "1");
+        h1.put("b", "2");
+        Map<String, String> h2 = new LinkedHashMap<String, String>();
+        h2.put("b", "2");
+        h2.put("a", "1");
+        Assert.assertEquals(
+                MblRequestCoalescer.generateKey("GET", url, h1, true),
+                MblRequestCoalescer.generateKey("GET", url, h2, true));
+        Assert.assertFalse(MblRequestCoalescer.generateKey("GET", url, h1, true)
+                .equals(MblRequestCoalescer.generateKey("GET", url, h1, false)));
+        Map<String, String> h3 = new HashMap<String, String>(h1);
+        h3.put("b", "3");
+        Assert.assertFalse(MblRequestCoalescer.generateKey("GET", url, h1)
+                .equals(MblRequestCoalescer.generateKey("GET", url, h3)));
+
+        // CASE 2: first waiter sends request, later waiters join it and all are notified
+        String key = MblRequestCoalescer.generateKey("GET", url, null, "CASE 2");
+        MblRequestCoalescer.Waiter w1 = waiter();
+        MblRequestCoalescer.Waiter w2 = waiter();
+        Assert.assertTrue(MblRequestCoalescer.join(key, w1));
+        Assert.assertFalse(MblRequestCoalescer.join(key, w2));
+        MblTransportRequest httpRequest = new MblTransportRequest("GET", url);
+        MblRequestCoalescer.InFlight inFlight = MblRequestCoalescer.attach(key, httpRequest);
+        List<MblRequestCoalescer.Waiter> waiters = MblRequestCoalescer.finish(key, inFlight);
+        Assert.assertEquals(2, waiters.size());
+        Assert.assertTrue(waiters.contains(w1) && waiters.contains(w2));
+        Assert.assertTrue(MblRequestCoalescer.join(key, waiter()));
+        MblRequestCoalescer.finish(key, null);
+
+        // CASE 3: request is aborted only when all waiters have cancelled
+        key = MblRequestCoalescer.generateKey("GET", url, null, "CASE 3");
+        w1 = waiter();
+        w2 = waiter();
+        MblRequestCoalescer.join(key, w1);
+        MblRequestCoalescer.join(key, w2);
+        httpRequest = new MblTransportRequest("GET", url);
+        inFlight = MblRequestCoalescer.attach(key, httpRequest);
+        MblRequestCoalescer.cancel(key, w1);
+        Assert.assertFalse(httpRequest.isAborted());
+        MblRequestCoalescer.cancel(key, w2);
+        Assert.assertTrue(httpRequest.isAborted());
+
+        // CASE 4: request being aborted is not joined, a new request is sent
+        MblRequestCoalescer.Waiter w3 = waiter();
+        Assert.assertTrue(MblRequestCoalescer.join(key, w3));
+        Assert.assertTrue(MblRequestCoalescer.finish(key, inFlight).isEmpty());
+        waiters = MblRequestCoalescer.finish(key, MblRequestCoalescer.attach(key, new MblTransportRequest("GET", url)));
+        Assert.assertEquals(1, waiters.size());
+        Assert.assertSame(w3, waiters.get(0));
+
+        // CASE 5: request cancelled before being sent is revived by new waiter, and is aborted as soon as it is attached if nobody waits
+        key = MblRequestCoalescer.generateKey("GET", url, null, "CASE 5");
+        w1 = waiter();
+        MblRequestCoalescer.join(key, w1);
+        MblRequestCoalescer.cancel(key, w1);
+        w2 = waiter();
+        Assert.assertFalse(MblRequestCoalescer.join(key, w2));
+        MblRequestCoalescer.cancel(key, w2);
+        httpRequest = new MblTransportRequest("GET", url);
+        inFlight = MblRequestCoalescer.attach(key, httpRequest);
+        Assert.assertTrue(httpRequest.isAborted());
+        Assert.assertTrue(MblRequestCoalescer.finish(key, inFlight).isEmpty());
+
+        // CASE 6: parsers and transports are identified by instance, cache and timeout configurations are part of key
+        MblTransport transport = new MblUrlConnectionTransport();
+        Assert.assertEquals(MblRequestCoalescer.identityOf(transport), MblRequestCoalescer.identityOf(transport));
+        Assert.assertFalse(MblRequestCoalescer.identityOf(transport).equals(MblRequestCoalescer.identityOf(new MblUrlConnectionTransport())));
+        Assert.assertNull(MblRequestCoalescer.identityOf(null));
+        Assert.assertFalse(MblRequestCoalescer.generateKey("GET", url, null, CachePolicy.CLIENT, 1000L)
+                .equals(MblRequestCoalescer.generateKey("GET", url, null, CachePolicy.SERVER, 1000L)));
+        Assert.assertFalse(MblRequestCoalescer.generateKey("GET", url, null, CachePolicy.CLIENT, 1000L)
+                .equals(MblRequestCoalescer.generateKey("GET", url, null, CachePolicy.CLIENT, 2000L)));
+    }
+
+    private static MblRequestCoalescer.Waiter waiter() {
+        return new MblRequestCoalescer.Waiter(null, null, new MblRequest(), new MblRequestMetrics(0));
+    }
+}
@@ -0,0 +1,106 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MblRequestHandleTest {
+
+    public static void run() throws InterruptedException {
+
+        String url = "http://example.com/";
+
+        // CASE 1: cancel aborts attached HTTP request, result is not delivered
+        MblRequestHandle handle = new MblRequestHandle();
+        MblTransportRequest httpRequest = new MblTransportRequest("GET", url);
+        handle.attach(httpRequest);
+        Assert.assertTrue(handle.cancel());
+        Assert.assertTrue(httpRequest.isAborted());
+        Assert.assertTrue(handle.isCancelled());
+        Assert.assertFalse(handle.onDeliver());
+        Assert.assertFalse(handle.cancel());
+
+        // CASE 2: HTTP request attached after cancel is aborted immediately
+        httpRequest = new MblTransportRequest("GET", url);
+        handle.attach(httpRequest);
+        Assert.assertTrue(httpRequest.isAborted());
+
+        // CASE 3: delivered request can not be cancelled
+        handle = new MblRequestHandle();
+        httpRequest = new MblTransportRequest("GET", url);
+        handle.attach(httpRequest);
+        Assert.assertTrue(handle.onDeliver());
+        Assert.assertTrue(handle.onDeliver());
+        Assert.assertFalse(handle.cancel());
+        Assert.assertFalse(httpRequest.isAborted());
+        Assert.assertTrue(handle.isDone());
+
+        // CASE 4: cancel action replaces aborting shared HTTP request
+        handle = new MblRequestHandle();
+        final AtomicBoolean released = new AtomicBoolean();
+        handle.setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+                released.set(true);
+            }
+        });
+        handle.cancel();
+        Assert.assertTrue(released.get());
+
+        // CASE 5: deadline aborts request which is not delivered in time
+        handle = new MblRequestHandle();
+        httpRequest = new MblTransportRequest("GET", url);
+        handle.attach(httpRequest);
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        handle.scheduleDeadline(50, new Runnable() {
+            @Override
+            public void run() {
+                timedOut.countDown();
+            }
+        });
+        Assert.assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(handle.isTimedOut());
+        Assert.assertTrue(httpRequest.isAborted());
+        Assert.assertFalse(handle.onDeliver());
+
+        // CASE 6: deadline is cancelled by delivery
+        handle = new MblRequestHandle();
+        final CountDownLatch notTimedOut = new CountDownLatch(1);
+        handle.scheduleDeadline(50, new Runnable() {
+            @Override
+            public void run() {
+                notTimedOut.countDown();
+            }
+        });
+        Assert.assertTrue(handle.onDeliver());
+        Assert.assertFalse(notTimedOut.await(200, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(handle.isTimedOut());
+
+        // CASE 7: pending retry is dropped by cancel
+        handle = new MblRequestHandle();
+        final CountDownLatch retried = new CountDownLatch(1);
+        handle.scheduleRetry(50, new Runnable() {
+            @Override
+            public void run() {
+                retried.countDown();
+            }
+        });
+        handle.cancel();
+        Assert.assertFalse(retried.await(200, TimeUnit.MILLISECONDS));
+
+        // CASE 8: request without callback is done when it finishes, its deadline does not fire afterwards
+        handle = MblApi.run(new MblRequest()
+                .setMethod(MblApi.Method.POST)
+                .setUrl("http://localhost:1/MblRequestHandleTest")
+                .setCallback(null)
+                .setTimeout(1000));
+        for (int i = 0; i < 20 && !handle.isDone(); i++) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(1000);
+        Assert.assertTrue(handle.isDone());
+        Assert.assertFalse(handle.isTimedOut());
+    }
+}
@@ -0,0 +1,64 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.Method;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MblRetryPolicyTest {
+
+    public static void run() {
+
+        MblRetryPolicy policy = new MblRetryPolicy();
+        MblRequest get = new MblRequest().setMethod(Method.GET).setUrl("http://example.com/");
+
+        // CASE 1: retryable HTTP statuses are retried, others are not
+        Assert.assertTrue(policy.shouldRetry(get, new MblResponse().setStatusCode(503), 1));
+        Assert.assertTrue(policy.shouldRetry(get, new MblResponse().setStatusCode(429), 1));
+        Assert.assertFalse(policy.shouldRetry(get, new MblResponse().setStatusCode(400), 1));
+        Assert.assertFalse(policy.shouldRetry(get, new MblResponse().setStatusCode(404), 1));
+
+        // CASE 2: -1 is retried only for network errors, not for local failures (invalid params, rejected, timed out)
+        Assert.assertTrue(policy.shouldRetry(get, new MblResponse().setStatusCode(-1).setNetworkError(true), 1));
+        Assert.assertFalse(policy.shouldRetry(get, new MblResponse().setStatusCode(-1), 1));
+
+        // CASE 3: only I/O exceptions are network errors
+        Assert.assertTrue(MblApi.isNetworkError(new IOException()));
+        Assert.assertFalse(MblApi.isNetworkError(new IllegalArgumentException()));
+
+        // CASE 4: attempts are limited
+        Assert.assertTrue(policy.shouldRetry(get, new MblResponse().setStatusCode(503), 2));
+        Assert.assertFalse(policy.shouldRetry(get, new MblResponse().setStatusCode(503), 3));
+
+        // CASE 5: POST is retried only if allowed, streamed body is never retried
+        MblRequest post = new MblRequest().setMethod(Method.POST).setUrl("http://example.com/");
+        Assert.assertFalse(policy.shouldRetry(post, new MblResponse().setStatusCode(503), 1));
+        Assert.assertTrue(new MblRetryPolicy().setRetryNonIdempotent(true).shouldRetry(post, new MblResponse().setStatusCode(503), 1));
+        MblRequest stream = new MblRequest().setMethod(Method.PUT).setUrl("http://example.com/").setData(new ByteArrayInputStream(new byte[1]));
+        Assert.assertFalse(policy.shouldRetry(stream, new MblResponse().setStatusCode(503), 1));
+
+        // CASE 6: backoff is within [0, min(maxDelay, baseDelay * 2 ^ (attempt - 1))]
+        policy.setBackoff(100, 1000);
+        for (int i = 0; i < 100; i++) {
+            long d1 = policy.getDelay(new MblResponse(), 1);
+            Assert.assertTrue(d1 >= 0 && d1 <= 100);
+            long d3 = policy.getDelay(new MblResponse(), 3);
+            Assert.assertTrue(d3 >= 0 && d3 <= 400);
+            long d40 = policy.getDelay(new MblResponse(), 40);
+            Assert.assertTrue(d40 >= 0 && d40 <= 1000);
+        }
+
+        // CASE 7: "Retry-After" in seconds takes precedence, limited by max delay
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Retry-After", "0");
+        Assert.assertEquals(0, policy.getDelay(new MblResponse().setHeaders(headers), 1));
+        headers.put("Retry-After", "120");
+        Assert.assertEquals(1000, policy.getDelay(new MblResponse().setHeaders(headers), 1));
+        policy.setRespectRetryAfter(false);
+        Assert.assertTrue(policy.getDelay(new MblResponse().setHeaders(headers), 1) <= 100);
+    }
+}
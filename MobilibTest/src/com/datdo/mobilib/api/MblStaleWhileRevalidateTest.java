@@ -0,0 +1,92 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.Method;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MblStaleWhileRevalidateTest {
+
+    private static final byte[] OLD_DATA = "old".getBytes();
+    private static final byte[] NEW_DATA = "new".getBytes();
+
+    public static void run() throws IOException, InterruptedException {
+
+        MblTestServer server = new MblTestServer();
+        try {
+            String run = String.valueOf(System.currentTimeMillis());
+            server.respond(200, OLD_DATA);
+            send(request(server, run, 1), 1);
+            Thread.sleep(10);
+
+            // CASE 1: expired cache is delivered immediately as stale, then refreshed response is delivered if requested
+            server.respond(200, NEW_DATA);
+            List<MblResponse> responses = send(request(server, run, 1)
+                    .setStaleWhileRevalidate(true)
+                    .setDeliverRevalidatedResponse(true), 2);
+            Assert.assertTrue(responses.get(0).isStale());
+            Assert.assertTrue(Arrays.equals(OLD_DATA, responses.get(0).getData()));
+            Assert.assertFalse(responses.get(1).isStale());
+            Assert.assertTrue(Arrays.equals(NEW_DATA, responses.get(1).getData()));
+            Assert.assertEquals(2, server.getRequestCount());
+
+            // CASE 2: by default only stale response is delivered, cache is refreshed in background
+            Thread.sleep(10);
+            server.respond(200, OLD_DATA);
+            responses = send(request(server, run, 1).setStaleWhileRevalidate(true), 1);
+            Assert.assertTrue(responses.get(0).isStale());
+            Assert.assertTrue(Arrays.equals(NEW_DATA, responses.get(0).getData()));
+            for (int i = 0; i < 50 && server.getRequestCount() < 3; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(3, server.getRequestCount());
+            Thread.sleep(500);
+            responses = send(request(server, run, 60 * 1000), 1);
+            Assert.assertFalse(responses.get(0).isStale());
+            Assert.assertTrue(Arrays.equals(OLD_DATA, responses.get(0).getData()));
+            Assert.assertEquals(3, server.getRequestCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static MblRequest request(MblTestServer server, String run, long cacheDuration) {
+        return new MblRequest()
+                .setMethod(Method.GET)
+                .setUrl(server.getUrl("/swr/" + run))
+                .setCacheDuration(cacheDuration);
+    }
+
+    private static List<MblResponse> send(MblRequest request, int count) throws InterruptedException {
+        final List<MblResponse> result = new ArrayList<MblResponse>();
+        final CountDownLatch done = new CountDownLatch(count);
+        MblApi.run(request.setCallback(new MblApiCallback() {
+            @Override
+            public void onSuccess(MblResponse response) {
+                synchronized (result) {
+                    result.add(response);
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(MblResponse response) {
+                synchronized (result) {
+                    result.add(response);
+                }
+                done.countDown();
+            }
+        }));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        synchronized (result) {
+            return new ArrayList<MblResponse>(result);
+        }
+    }
+}
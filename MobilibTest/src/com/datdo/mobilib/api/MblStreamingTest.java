@@ -0,0 +1,102 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import com.datdo.mobilib.api.MblApi.MblApiCallback;
+import com.datdo.mobilib.api.MblApi.MblResponseStreamHandler;
+import com.datdo.mobilib.api.MblApi.Method;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class MblStreamingTest {
+
+    private static final byte[] DATA = "0123456789".getBytes();
+
+    public static void run() throws IOException, InterruptedException {
+
+        // CASE 1: tee stream copies bytes which are read, skipped or drained, and does not close source stream
+        final boolean[] closed = new boolean[1];
+        InputStream source = new ByteArrayInputStream(DATA) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        ByteArrayOutputStream branch = new ByteArrayOutputStream();
+        MblTeeInputStream tee = new MblTeeInputStream(source, branch);
+        Assert.assertEquals('0', tee.read());
+        Assert.assertEquals(2, tee.skip(2));
+        Assert.assertEquals(3, tee.read(new byte[3], 0, 3));
+        tee.close();
+        Assert.assertFalse(closed[0]);
+        tee.drain();
+        Assert.assertTrue(Arrays.equals(DATA, branch.toByteArray()));
+
+        MblTestServer server = new MblTestServer();
+        try {
+            // CASE 2: successful response is passed to stream handler, not returned as byte array
+            server.respond(200, DATA);
+            final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            MblResponse response = send(new MblRequest()
+                    .setMethod(Method.GET)
+                    .setUrl(server.getUrl("/stream"))
+                    .setResponseStreamHandler(new MblResponseStreamHandler() {
+                        @Override
+                        public void onStream(MblResponse response, InputStream in) throws IOException {
+                            byte[] buffer = new byte[4];
+                            int n;
+                            while ((n = in.read(buffer)) != -1) {
+                                streamed.write(buffer, 0, n);
+                            }
+                        }
+                    }));
+            Assert.assertEquals(200, response.getStatusCode());
+            Assert.assertNull(response.getData());
+            Assert.assertTrue(Arrays.equals(DATA, streamed.toByteArray()));
+
+            // CASE 3: failure response is not streamed, its data is still returned
+            server.respond(500, DATA);
+            streamed.reset();
+            response = send(new MblRequest()
+                    .setMethod(Method.GET)
+                    .setUrl(server.getUrl("/stream"))
+                    .setResponseStreamHandler(new MblResponseStreamHandler() {
+                        @Override
+                        public void onStream(MblResponse response, InputStream in) throws IOException {
+                            streamed.write(1);
+                        }
+                    }));
+            Assert.assertEquals(500, response.getStatusCode());
+            Assert.assertEquals(0, streamed.size());
+            Assert.assertTrue(Arrays.equals(DATA, response.getData()));
+        } finally {
+            server.close();
+        }
+    }
+
+    private static MblResponse send(MblRequest request) throws InterruptedException {
+        final MblResponse[] result = new MblResponse[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        MblApi.run(request.setCallback(new MblApiCallback() {
+            @Override
+            public void onSuccess(MblResponse response) {
+                result[0] = response;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(MblResponse response) {
+                result[0] = response;
+                done.countDown();
+            }
+        }));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result[0];
+    }
+}
@@ -0,0 +1,129 @@
+package com.datdo.mobilib.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * Minimal HTTP server on loopback interface, to test requests end to end regardless of transport.
+ * Prepared responses are returned in order (the last returned one is repeated when there is no more), headers of received requests are recorded.
+ * A prepared "Content-Length" header replaces the actual length of body, to simulate interrupted responses.
+ * </pre>
+ */
+class MblTestServer {
+
+    private static class Response {
+
+        final int       mStatusCode;
+        final byte[]    mBody;
+        final String[]  mHeaders;
+
+        Response(int statusCode, byte[] body, String[] headers) {
+            mStatusCode = statusCode;
+            mBody       = body;
+            mHeaders    = headers;
+        }
+    }
+
+    private final ServerSocket                  mServerSocket;
+    private final LinkedList<Response>          mResponses  = new LinkedList<Response>();
+    private final List<Map<String, String>>     mRequests   = new ArrayList<Map<String, String>>();
+    private Response                            mLastResponse;
+
+    MblTestServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        Socket socket = mServerSocket.accept();
+                        try {
+                            serve(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        // closed, or client went away
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    synchronized MblTestServer respond(int statusCode, byte[] body, String... headers) {
+        mResponses.add(new Response(statusCode, body, headers));
+        return this;
+    }
+
+    synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    /**
+     * @return headers of n-th received request, names in lower case
+     */
+    synchronized Map<String, String> getRequest(int n) {
+        return mRequests.get(n);
+    }
+
+    void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        if (reader.readLine() == null) {
+            return;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+
+        Response response;
+        synchronized (this) {
+            mRequests.add(headers);
+            if (!mResponses.isEmpty()) {
+                mLastResponse = mResponses.removeFirst();
+            }
+            response = mLastResponse;
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mStatusCode).append(" Test\r\n");
+        boolean hasContentLength = false;
+        for (int i = 0; i < response.mHeaders.length; i += 2) {
+            head.append(response.mHeaders[i]).append(": ").append(response.mHeaders[i + 1]).append("\r\n");
+            hasContentLength |= "Content-Length".equalsIgnoreCase(response.mHeaders[i]);
+        }
+        if (!hasContentLength) {
+            head.append("Content-Length: ").append(response.mBody.length).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        out.write(response.mBody);
+        out.flush();
+    }
+}
@@ -0,0 +1,189 @@
+package com.datdo.mobilib.api;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.StringEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class MblTransportTest {
+
+    public static void run() throws Exception {
+
+        // CASE 1: POST via URLConnection transport, body is configured before connecting
+        checkPost(new MblUrlConnectionTransport());
+
+        // CASE 2: POST via Apache transport gives the same result
+        checkPost(new MblApacheTransport());
+
+        // CASE 3: repeatable body converted to HttpEntity can be read as content, any number of times
+        HttpEntity repeatable = MblApacheTransport.toHttpEntity(newBody(true));
+        Assert.assertTrue(repeatable.isRepeatable());
+        Assert.assertFalse(repeatable.isStreaming());
+        Assert.assertEquals("body", readContent(repeatable));
+        Assert.assertEquals("body", readContent(repeatable));
+
+        // CASE 4: non-repeatable body is reported as streaming and can only be written
+        HttpEntity streaming = MblApacheTransport.toHttpEntity(newBody(false));
+        Assert.assertFalse(streaming.isRepeatable());
+        Assert.assertTrue(streaming.isStreaming());
+        try {
+            streaming.getContent();
+            Assert.fail("Content of non-repeatable body must not be readable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static MblTransportBody newBody(final boolean repeatable) {
+        return new MblTransportBody() {
+            @Override
+            public String getContentType() {
+                return "text/plain";
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return null;
+            }
+
+            @Override
+            public long getContentLength() {
+                return 4;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return repeatable;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write("body".getBytes("UTF-8"));
+            }
+        };
+    }
+
+    private static String readContent(HttpEntity entity) throws IOException {
+        InputStream in = entity.getContent();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                out.write(b);
+            }
+            return new String(out.toByteArray(), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkPost(MblTransport transport) throws Exception {
+        EchoServer server = new EchoServer();
+        server.start();
+        try {
+            StringEntity entity = new StringEntity("hello");
+            entity.setContentType("text/plain");
+            MblRequestMetrics metrics = new MblRequestMetrics(0);
+            MblTransportRequest request = new MblTransportRequest("POST", "http://127.0.0.1:" + server.getPort() + "/echo")
+                    .setBody(MblTransportBody.fromHttpEntity(entity))
+                    .setConnectTimeout(5000)
+                    .setReadTimeout(5000)
+                    .setMetrics(metrics);
+
+            MblTransportResponse response = transport.execute(request);
+            try {
+                Assert.assertEquals(200, response.getStatusCode());
+                Assert.assertEquals("hello", new String(response.readBody(), "UTF-8"));
+            } finally {
+                response.close();
+            }
+            server.join(5000);
+            Assert.assertEquals("text/plain", server.mHeaders.get("content-type"));
+            Assert.assertEquals("5", server.mHeaders.get("content-length"));
+
+            // DNS time is not measured separately by built-in transports
+            Assert.assertEquals(-1, metrics.getDnsTime());
+        } finally {
+            server.close();
+        }
+    }
+
+    // accepts one HTTP request and echoes its body
+    private static class EchoServer extends Thread {
+
+        final ServerSocket          mServerSocket;
+        final Map<String, String>   mHeaders = new HashMap<String, String>();
+
+        EchoServer() throws IOException {
+            mServerSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = mServerSocket.accept();
+                try {
+                    InputStream in = socket.getInputStream();
+                    String line;
+                    while (!(line = readLine(in)).isEmpty()) {
+                        int colon = line.indexOf(':');
+                        if (colon > 0) {
+                            mHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+                        }
+                    }
+                    int length = Integer.parseInt(mHeaders.get("content-length"));
+                    byte[] body = new byte[length];
+                    for (int n = 0; n < length; ) {
+                        int read = in.read(body, n, length - n);
+                        if (read < 0) {
+                            throw new IOException("Unexpected end of body");
+                        }
+                        n += read;
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: text/plain\r\n"
+                            + "Content-Length: " + length + "\r\n"
+                            + "Connection: close\r\n"
+                            + "\r\n").getBytes("US-ASCII"));
+                    out.write(body);
+                    out.flush();
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // test fails on client side
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (c != '\r') {
+                    line.write(c);
+                }
+            }
+            return line.toString("US-ASCII");
+        }
+    }
+}
@@ -2,8 +2,33 @@ package com.datdo.mobilib.test;
 
 import java.util.UUID;
 
+import com.datdo.mobilib.api.MblApiExecutorTest;
+import com.datdo.mobilib.api.MblBatchRunnerTest;
+import com.datdo.mobilib.api.MblCacheControlTest;
+import com.datdo.mobilib.api.MblCacheEvictionTest;
+import com.datdo.mobilib.api.MblCacheFileTest;
+import com.datdo.mobilib.api.MblCacheKeyTest;
+import com.datdo.mobilib.api.MblCompressionTest;
+import com.datdo.mobilib.api.MblConditionalCacheTest;
+import com.datdo.mobilib.api.MblDatabaseOutboxTest;
+import com.datdo.mobilib.api.MblDiskCacheTest;
+import com.datdo.mobilib.api.MblDownloadTaskTest;
+import com.datdo.mobilib.api.MblHistogramTest;
+import com.datdo.mobilib.api.MblHostSchedulerTest;
+import com.datdo.mobilib.api.MblHttpClientManagerTest;
+import com.datdo.mobilib.api.MblOutboxTest;
+import com.datdo.mobilib.api.MblParsersTest;
+import com.datdo.mobilib.api.MblPrefetchTest;
+import com.datdo.mobilib.api.MblRequestBodyTest;
+import com.datdo.mobilib.api.MblRequestCoalescerTest;
+import com.datdo.mobilib.api.MblRequestHandleTest;
+import com.datdo.mobilib.api.MblRetryPolicyTest;
+import com.datdo.mobilib.api.MblStaleWhileRevalidateTest;
+import com.datdo.mobilib.api.MblStreamingTest;
+import com.datdo.mobilib.api.MblTransportTest;
 import com.datdo.mobilib.event.MblEventCenter;
 import com.datdo.mobilib.event.MblStrongEventListener;
+import com.datdo.mobilib.util.MblUtils;
 
 public class UnitTest {
 
@@ -24,5 +49,41 @@ public class UnitTest {
             }
         }, name);
         MblEventCenter.postEvent(null, name);
+
+        // CASE 2: test MblApi components, in background because they block and may touch network
+        MblUtils.executeOnAsyncThread(new Runnable() {
+            @Override
+            public void run() {
+                // test cases throw checked exceptions of I/O and threads, any failure must crash the test
+                try {
+                    MblHttpClientManagerTest.run();
+                    MblApiExecutorTest.run();
+                    MblRequestCoalescerTest.run();
+                    MblStreamingTest.run();
+                    MblRequestBodyTest.run();
+                    MblConditionalCacheTest.run();
+                    MblCacheControlTest.run();
+                    MblStaleWhileRevalidateTest.run();
+                    MblCacheKeyTest.run();
+                    MblCacheEvictionTest.run();
+                    MblDiskCacheTest.run();
+                    MblRequestHandleTest.run();
+                    MblRetryPolicyTest.run();
+                    MblBatchRunnerTest.run();
+                    MblOutboxTest.run();
+                    MblDatabaseOutboxTest.run();
+                    MblHostSchedulerTest.run();
+                    MblPrefetchTest.run();
+                    MblCompressionTest.run();
+                    MblDownloadTaskTest.run();
+                    MblTransportTest.run();
+                    MblHistogramTest.run();
+                    MblParsersTest.run();
+                    MblCacheFileTest.run();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
     }
 }